@@ -18,6 +18,7 @@ package com.microsoft.tang;
 import com.microsoft.tang.exceptions.NameResolutionException;
 import com.microsoft.tang.types.ClassNode;
 import com.microsoft.tang.types.Node;
+import com.microsoft.tang.util.Fingerprint;
 
 /**
  * ClassHierarchy objects store information about the interfaces
@@ -81,4 +82,13 @@ public interface ClassHierarchy {
    */
   Node getNamespace();
 
+  /**
+   * A 128-bit fingerprint of the contents of this ClassHierarchy (the
+   * classpath it was built from, and the nodes it has registered).  This is
+   * O(1), and is meant to be used as a cache key.  Like getNamespace(), the
+   * fingerprint of a lazily populated ClassHierarchy changes as classes are
+   * registered.
+   */
+  Fingerprint getFingerprint();
+
 }
\ No newline at end of file
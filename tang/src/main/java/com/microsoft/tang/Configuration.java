@@ -22,6 +22,7 @@ import java.util.Set;
 import com.microsoft.tang.types.ClassNode;
 import com.microsoft.tang.types.ConstructorDef;
 import com.microsoft.tang.types.NamedParameterNode;
+import com.microsoft.tang.util.Fingerprint;
 
 /**
  * Immutable, type-checked configuration data. 
@@ -152,4 +153,14 @@ public interface Configuration {
    */
   Set<NamedParameterNode<List<?>>> getBoundLists();
 
+  /**
+   * A 128-bit fingerprint of the bindings in this Configuration.  It is
+   * maintained incrementally as bindings are added, so this method is O(1).
+   * Equal Configurations have equal fingerprints, which makes the fingerprint
+   * suitable as a cache key.  The backing ClassHierarchy is not included.
+   *
+   * @return the fingerprint of this Configuration's bindings.
+   */
+  Fingerprint getFingerprint();
+
 }
\ No newline at end of file
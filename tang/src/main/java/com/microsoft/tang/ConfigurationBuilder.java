@@ -73,6 +73,16 @@ public interface ConfigurationBuilder {
    */
   public void addConfiguration(final Configuration c) throws BindException;
 
+  /**
+   * Add all configuration parameters from the given Configuration objects.
+   * This is equivalent to calling addConfiguration() on each of them in
+   * order, but merges the class hierarchies once, and checks all of the
+   * bindings for conflicts in a single pass before adding them.
+   *
+   * @param c
+   */
+  public void addConfigurations(final Iterable<Configuration> c) throws BindException;
+
   /**
    * Each ConfigurationBuilder instance is associated with a ClassHierarchy.
    * It uses this ClassHierarchy to validate the configuration options that it
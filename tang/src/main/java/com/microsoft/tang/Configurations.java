@@ -15,6 +15,18 @@
  */
 package com.microsoft.tang;
 
+import com.microsoft.tang.exceptions.BindException;
+import com.microsoft.tang.types.ClassNode;
+import com.microsoft.tang.types.ConstructorDef;
+import com.microsoft.tang.types.NamedParameterNode;
+import com.microsoft.tang.types.Node;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
 /**
  * Helper class for Configurations
  */
@@ -47,10 +59,151 @@ public final class Configurations {
    */
   public static Configuration merge(final Iterable<Configuration> configurations) {
     final ConfigurationBuilder configurationBuilder = Tang.Factory.getTang().newConfigurationBuilder();
-    for (final Configuration configuration : configurations) {
-      configurationBuilder.addConfiguration(configuration);
-    }
+    configurationBuilder.addConfigurations(configurations);
     return configurationBuilder.build();
   }
 
+  /**
+   * Compute the bindings that derived adds to base.
+   * <p/>
+   * Since Configurations can only grow, the delta is itself a Configuration
+   * (backed by derived's ClassHierarchy), and apply(base, diff(base, derived))
+   * is equal to derived.  Deltas can therefore be shipped with any
+   * ConfigurationSerializer, e.g., AvroConfigurationSerializer.toByteArray(),
+   * and decoded against base.getClassHierarchy() on the receiving side.
+   *
+   * @param base    the configuration the receiver already has.
+   * @param derived a configuration that contains every binding of base.
+   * @return a configuration with the bindings of derived that are not in base.
+   * @throws BindException if base has a binding that derived lacks or binds differently.
+   */
+  @SuppressWarnings({"unchecked", "rawtypes", "deprecation"})
+  public static Configuration diff(final Configuration base, final Configuration derived) throws BindException {
+    final ConfigurationBuilder delta = Tang.Factory.getTang().newConfigurationBuilder(derived.getClassHierarchy());
+
+    for (final ClassNode<?> cn : derived.getBoundImplementations()) {
+      final ClassNode<?> impl = derived.getBoundImplementation(cn);
+      if (isNew(cn, impl.getFullName(), nameOrNull(base.getBoundImplementation(cn)))) {
+        delta.bind(cn, impl);
+      }
+    }
+    for (final ClassNode<?> cn : derived.getBoundConstructors()) {
+      final ClassNode constructor = derived.getBoundConstructor(cn);
+      if (isNew(cn, constructor.getFullName(), nameOrNull(base.getBoundConstructor(cn)))) {
+        delta.bindConstructor(cn, constructor);
+      }
+    }
+    for (final NamedParameterNode<?> np : derived.getNamedParameters()) {
+      if (isNew(np, derived.getNamedParameter(np), base.getNamedParameter(np))) {
+        delta.bind(np.getFullName(), derived.getNamedParameter(np));
+      }
+    }
+    for (final ClassNode<?> cn : derived.getLegacyConstructors()) {
+      final ConstructorDef<?> def = derived.getLegacyConstructor(cn);
+      final ConstructorDef<?> baseDef = base.getLegacyConstructor(cn);
+      if (isNew(cn, def.toString(), baseDef == null ? null : baseDef.toString())) {
+        delta.registerLegacyConstructor(cn, def.getArgs());
+      }
+    }
+    for (final Map.Entry<NamedParameterNode<Set<?>>, Object> e : derived.getBoundSets()) {
+      final Set<String> baseEntries = new HashSet<>();
+      for (final Object o : base.getBoundSet(e.getKey())) {
+        baseEntries.add(entryKey(o));
+      }
+      if (!baseEntries.contains(entryKey(e.getValue()))) {
+        if (e.getValue() instanceof Node) {
+          delta.bindSetEntry(e.getKey().getFullName(), (Node) e.getValue());
+        } else {
+          delta.bindSetEntry(e.getKey().getFullName(), (String) e.getValue());
+        }
+      }
+    }
+    for (final NamedParameterNode<List<?>> np : derived.getBoundLists()) {
+      final List<Object> list = derived.getBoundList(np);
+      final List<Object> baseList = base.getBoundList(np);
+      if (isNew(np, entryKeys(list), baseList == null ? null : entryKeys(baseList))) {
+        delta.bindList(np.getFullName(), list);
+      }
+    }
+
+    // Finally, make sure that derived really extends base.
+    for (final ClassNode<?> cn : base.getBoundImplementations()) {
+      requireBound(cn, derived.getBoundImplementation(cn));
+    }
+    for (final ClassNode<?> cn : base.getBoundConstructors()) {
+      requireBound(cn, derived.getBoundConstructor(cn));
+    }
+    for (final NamedParameterNode<?> np : base.getNamedParameters()) {
+      requireBound(np, derived.getNamedParameter(np));
+    }
+    for (final ClassNode<?> cn : base.getLegacyConstructors()) {
+      requireBound(cn, derived.getLegacyConstructor(cn));
+    }
+    for (final Map.Entry<NamedParameterNode<Set<?>>, Object> e : base.getBoundSets()) {
+      final Set<String> derivedEntries = new HashSet<>();
+      for (final Object o : derived.getBoundSet(e.getKey())) {
+        derivedEntries.add(entryKey(o));
+      }
+      if (!derivedEntries.contains(entryKey(e.getValue()))) {
+        throw new BindException("Derived configuration does not extend base configuration: "
+            + e.getKey().getFullName() + " is missing set entry " + entryKey(e.getValue()));
+      }
+    }
+    for (final NamedParameterNode<List<?>> np : base.getBoundLists()) {
+      requireBound(np, derived.getBoundList(np));
+    }
+    return delta.build();
+  }
+
+  /**
+   * Apply a delta computed by diff() to its base configuration.
+   *
+   * @return a configuration equal to the derived configuration the delta was computed from.
+   * @throws BindException if delta conflicts with base.
+   */
+  public static Configuration apply(final Configuration base, final Configuration delta) throws BindException {
+    return merge(base, delta);
+  }
+
+  /**
+   * @return true if key is bound to value in derived, but not in base.
+   * @throws BindException if base binds key to something else.
+   */
+  private static boolean isNew(final Node key, final String value, final String baseValue) throws BindException {
+    if (baseValue == null) {
+      return true;
+    } else if (baseValue.equals(value)) {
+      return false;
+    } else {
+      throw new BindException("Derived configuration does not extend base configuration: "
+          + key.getFullName() + " is bound to " + value + " instead of " + baseValue);
+    }
+  }
+
+  private static void requireBound(final Node key, final Object derivedValue) throws BindException {
+    if (derivedValue == null) {
+      throw new BindException("Derived configuration does not extend base configuration: "
+          + key.getFullName() + " is not bound");
+    }
+  }
+
+  private static String nameOrNull(final Node n) {
+    return n == null ? null : n.getFullName();
+  }
+
+  /**
+   * Set and list entries are either Nodes or Strings, possibly from different
+   * ClassHierarchy objects, so compare them by name.
+   */
+  private static String entryKey(final Object o) {
+    return o instanceof Node ? "node:" + ((Node) o).getFullName() : "string:" + o;
+  }
+
+  private static String entryKeys(final List<Object> list) {
+    final List<String> keys = new ArrayList<>(list.size());
+    for (final Object o : list) {
+      keys.add(entryKey(o));
+    }
+    return keys.toString();
+  }
 }
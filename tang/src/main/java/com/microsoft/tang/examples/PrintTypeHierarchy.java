@@ -86,14 +86,14 @@ public final class PrintTypeHierarchy {
     final PrintTypeHierarchy myself = injector.getInstance(PrintTypeHierarchy.class);
 
     try (final FileWriter out = new FileWriter("type-hierarchy.dot")) {
-      out.write(GraphvizConfigVisitor.getGraphvizString(config, true, true));
+      GraphvizConfigVisitor.writeGraphviz(config, true, true, out);
     }
 
     final InjectionPlan<PrintTypeHierarchy> plan =
             injector.getInjectionPlan(PrintTypeHierarchy.class);
 
     try (final FileWriter out = new FileWriter("injection-plan.dot")) {
-      out.write(GraphvizInjectionPlanVisitor.getGraphvizString(plan, true));
+      GraphvizInjectionPlanVisitor.writeGraphviz(plan, true, out);
     }
 
     System.out.println(myself);
@@ -0,0 +1,205 @@
+/**
+ * Copyright (C) 2014 Microsoft Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.microsoft.tang.formats;
+
+import com.microsoft.tang.ClassHierarchy;
+import com.microsoft.tang.Configuration;
+import com.microsoft.tang.exceptions.BindException;
+import com.microsoft.tang.formats.avro.AvroConfiguration;
+import org.apache.avro.file.DataFileReader;
+import org.apache.avro.specific.SpecificDatumReader;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * Reads the Configurations in an Avro container file written by
+ * AvroConfigurationFileWriter (or AvroConfigurationSerializer.toFile()).
+ * <p/>
+ * Configurations are decoded one at a time, either in order through
+ * iterator(), or by index through get().  Avro container files do not store
+ * an index, so get() builds one as it goes: it records where each block
+ * starts and which Configuration is first in it.  Reading by index then
+ * seeks to the block and skips to the record inside it.  The index holds two
+ * numbers per block, so memory use is independent of the number of
+ * Configurations in the file.
+ * <p/>
+ * This class is not thread safe.  The iterator and get() share one
+ * underlying reader, so get() invalidates any iterator in progress.
+ */
+public final class AvroConfigurationFileReader implements Iterable<Configuration>, Closeable {
+
+  private final AvroConfigurationSerializer serializer = new AvroConfigurationSerializer();
+  private final DataFileReader<AvroConfiguration> reader;
+  private final ClassHierarchy classHierarchy;
+
+  /**
+   * Sync positions of the blocks seen so far, and the index of the first
+   * Configuration in each of them.
+   */
+  private final List<Long> blockStarts = new ArrayList<>();
+  private final List<Long> blockFirstRecords = new ArrayList<>();
+  /**
+   * The number of Configurations whose block is known.
+   */
+  private long scanned = 0;
+  private boolean scannedAll = false;
+  private AvroConfiguration record = null;
+
+  public AvroConfigurationFileReader(final File file) throws IOException {
+    this(file, null);
+  }
+
+  /**
+   * @param classHierarchy used to validate the Configurations against, or null to use the default one.
+   */
+  public AvroConfigurationFileReader(final File file, final ClassHierarchy classHierarchy) throws IOException {
+    this.reader = new DataFileReader<>(file, new SpecificDatumReader<>(AvroConfiguration.class));
+    this.classHierarchy = classHierarchy;
+  }
+
+  private Configuration fromAvro(final AvroConfiguration avroConfiguration) throws BindException {
+    return classHierarchy == null
+        ? serializer.fromAvro(avroConfiguration)
+        : serializer.fromAvro(avroConfiguration, classHierarchy);
+  }
+
+  /**
+   * @return the Configurations in the file, in the order they were written.
+   * Each call starts over at the beginning of the file.
+   */
+  @Override
+  public Iterator<Configuration> iterator() {
+    try {
+      reader.sync(0);
+    } catch (final IOException e) {
+      throw new IllegalStateException("Could not rewind configuration file", e);
+    }
+    return new Iterator<Configuration>() {
+      @Override
+      public boolean hasNext() {
+        return reader.hasNext();
+      }
+
+      @Override
+      public Configuration next() {
+        if (!reader.hasNext()) {
+          throw new NoSuchElementException();
+        }
+        try {
+          record = reader.next(record);
+        } catch (final IOException e) {
+          throw new IllegalStateException("Could not read configuration file", e);
+        }
+        return fromAvro(record);
+      }
+
+      @Override
+      public void remove() {
+        throw new UnsupportedOperationException();
+      }
+    };
+  }
+
+  /**
+   * @return the index-th Configuration in the file.
+   * @throws IndexOutOfBoundsException if the file has fewer Configurations.
+   */
+  public Configuration get(final long index) throws IOException, BindException {
+    if (index < 0) {
+      throw new IndexOutOfBoundsException("Negative index: " + index);
+    }
+    if (index >= scanned) {
+      scanTo(index);
+      if (index >= scanned) {
+        throw new IndexOutOfBoundsException("Index " + index + " is past the last configuration, " + (scanned - 1));
+      }
+    }
+    int block = Collections.binarySearch(blockFirstRecords, index);
+    if (block < 0) {
+      block = -block - 2;
+    }
+    reader.seek(blockStarts.get(block));
+    skip(index - blockFirstRecords.get(block));
+    record = reader.next(record);
+    return fromAvro(record);
+  }
+
+  /**
+   * @return the number of Configurations in the file.  This scans the rest
+   * of the file if get() has not already done so.
+   */
+  public long size() throws IOException {
+    scanTo(Long.MAX_VALUE - 1);
+    return scanned;
+  }
+
+  /**
+   * Extend the block index until it covers index, or the end of the file.
+   */
+  private void scanTo(final long index) throws IOException {
+    if (scannedAll || index < scanned) {
+      return;
+    }
+    if (blockStarts.isEmpty()) {
+      reader.sync(0);
+    } else {
+      final int last = blockStarts.size() - 1;
+      reader.seek(blockStarts.get(last));
+      skip(scanned - blockFirstRecords.get(last));
+    }
+    while (scanned <= index) {
+      if (!reader.hasNext()) {
+        scannedAll = true;
+        return;
+      }
+      // previousSync() is the start of the block holding the next record:
+      // next() moves it past the following sync marker once it has read the
+      // last record of a block.  hasNext() leaves it alone.
+      final long start = reader.previousSync();
+      if (blockStarts.isEmpty() || blockStarts.get(blockStarts.size() - 1).longValue() != start) {
+        blockStarts.add(start);
+        blockFirstRecords.add(scanned);
+      }
+      record = reader.next(record);
+      scanned++;
+    }
+  }
+
+  /**
+   * @return the number of blocks in the index built so far.
+   */
+  int getIndexedBlockCount() {
+    return blockStarts.size();
+  }
+
+  private void skip(final long n) throws IOException {
+    for (long i = 0; i < n; i++) {
+      record = reader.next(record);
+    }
+  }
+
+  @Override
+  public void close() throws IOException {
+    reader.close();
+  }
+}
@@ -0,0 +1,119 @@
+/**
+ * Copyright (C) 2014 Microsoft Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.microsoft.tang.formats;
+
+import com.microsoft.tang.Configuration;
+import com.microsoft.tang.formats.avro.AvroConfiguration;
+import org.apache.avro.file.CodecFactory;
+import org.apache.avro.file.DataFileWriter;
+import org.apache.avro.specific.SpecificDatumWriter;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Writes many Configurations into a single Avro container file.
+ * <p/>
+ * Configurations are buffered into compressed blocks of roughly
+ * syncInterval bytes, so memory use is bounded by the block size rather than
+ * by the number of Configurations written.  Read the file back with
+ * AvroConfigurationFileReader.  A file with a single Configuration can also be
+ * read with AvroConfigurationSerializer.fromFile().
+ * <p/>
+ * This class is not thread safe.
+ */
+public final class AvroConfigurationFileWriter implements Closeable, Flushable {
+
+  /**
+   * Avro's default of 64KB per block.
+   */
+  public static final int DEFAULT_SYNC_INTERVAL = 64 * 1024;
+
+  /**
+   * zlib's default compression level.
+   */
+  public static final int DEFAULT_DEFLATE_LEVEL = 6;
+
+  private final AvroConfigurationSerializer serializer = new AvroConfigurationSerializer();
+  private final DataFileWriter<AvroConfiguration> writer =
+      new DataFileWriter<>(new SpecificDatumWriter<>(AvroConfiguration.class));
+  private long count = 0;
+
+  /**
+   * Write a deflate compressed file, with the default sync interval.
+   */
+  public AvroConfigurationFileWriter(final File file) throws IOException {
+    this(file, CodecFactory.deflateCodec(DEFAULT_DEFLATE_LEVEL), DEFAULT_SYNC_INTERVAL);
+  }
+
+  /**
+   * @param file         the file to create.
+   * @param codec        the codec used to compress blocks, e.g., CodecFactory.nullCodec() or snappyCodec().
+   * @param syncInterval the approximate size of a block, in bytes.  Larger blocks compress better, while
+   *                     smaller blocks make random access through AvroConfigurationFileReader.get() cheaper.
+   */
+  public AvroConfigurationFileWriter(final File file, final CodecFactory codec, final int syncInterval)
+      throws IOException {
+    configure(codec, syncInterval);
+    writer.create(AvroConfiguration.getClassSchema(), file);
+  }
+
+  /**
+   * Write the container to a stream, which is closed by close().
+   */
+  public AvroConfigurationFileWriter(final OutputStream out, final CodecFactory codec, final int syncInterval)
+      throws IOException {
+    configure(codec, syncInterval);
+    writer.create(AvroConfiguration.getClassSchema(), out);
+  }
+
+  private void configure(final CodecFactory codec, final int syncInterval) {
+    writer.setCodec(codec);
+    writer.setSyncInterval(syncInterval);
+  }
+
+  /**
+   * Append a Configuration.  Its index in AvroConfigurationFileReader.get()
+   * is the number of Configurations appended before it.
+   */
+  public void append(final Configuration configuration) throws IOException {
+    writer.append(serializer.toAvro(configuration));
+    count++;
+  }
+
+  /**
+   * @return the number of Configurations appended so far.
+   */
+  public long getCount() {
+    return count;
+  }
+
+  /**
+   * Write out the current block, and flush the underlying stream.
+   */
+  @Override
+  public void flush() throws IOException {
+    writer.flush();
+  }
+
+  @Override
+  public void close() throws IOException {
+    writer.close();
+  }
+}
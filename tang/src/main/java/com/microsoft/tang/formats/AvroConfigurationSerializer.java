@@ -24,6 +24,7 @@ import com.microsoft.tang.exceptions.ClassHierarchyException;
 import com.microsoft.tang.formats.avro.AvroConfiguration;
 import com.microsoft.tang.formats.avro.ConfigurationEntry;
 import com.microsoft.tang.implementation.ConfigurationBuilderImpl;
+import com.microsoft.tang.implementation.LazyConfigurationImpl;
 import com.microsoft.tang.types.ClassNode;
 import com.microsoft.tang.types.NamedParameterNode;
 import com.microsoft.tang.types.Node;
@@ -39,12 +40,21 @@ import org.apache.commons.lang.StringUtils;
 import javax.inject.Inject;
 import java.io.*;
 import java.lang.reflect.Array;
+import java.nio.ByteBuffer;
 import java.util.*;
 
 /**
  * (De-)Serializing Configuration to and from AvroConfiguration.
  * <p/>
- * This class is stateless and is therefore safe to reuse.
+ * This class is immutable and is therefore safe to reuse, also from several
+ * threads.  The Avro datum readers, writers, encoders and decoders it uses
+ * are recycled per thread.
+ * <p/>
+ * A serializer created with <code>new AvroConfigurationSerializer(true)</code>
+ * defers validation: the Configurations it reads keep their bindings as
+ * strings and resolve each one the first time an Injector looks it up.  Such
+ * Configurations are LazyConfigurationImpl instances; call validateAll() on
+ * them to check everything up front.
  */
 public final class AvroConfigurationSerializer implements ConfigurationSerializer {
 
@@ -55,8 +65,64 @@ public final class AvroConfigurationSerializer implements ConfigurationSerialize
    */
   private static final String JSON_CHARSET = "ISO-8859-1";
 
+  /**
+   * Output buffers that grew beyond this many bytes are not kept around for
+   * the next call.
+   */
+  private static final int MAX_RETAINED_BUFFER = 1 << 20;
+
+  /**
+   * The Avro objects used by one thread.  Encoders and decoders are not
+   * thread safe, but can be reset to a new stream or array; doing so saves
+   * allocating their buffers on every call.  Avro container files configure
+   * their datum reader or writer, so toFile() and fromFile() don't use these.
+   */
+  private static final class Codecs {
+    final DatumWriter<AvroConfiguration> writer = new SpecificDatumWriter<>(AvroConfiguration.class);
+    final DatumReader<AvroConfiguration> reader = new SpecificDatumReader<>(AvroConfiguration.class);
+    ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+    BinaryEncoder binaryEncoder = null;
+    BinaryDecoder binaryDecoder = null;
+    BinaryDecoder streamDecoder = null;
+    JsonEncoder jsonEncoder = null;
+    JsonDecoder jsonDecoder = null;
+
+    /**
+     * @return an empty buffer.  Call releaseBuffer() when done with it.
+     */
+    ByteArrayOutputStream buffer() {
+      buffer.reset();
+      return buffer;
+    }
+
+    void releaseBuffer() {
+      if (buffer.size() > MAX_RETAINED_BUFFER) {
+        buffer = new ByteArrayOutputStream();
+      }
+    }
+  }
+
+  private static final ThreadLocal<Codecs> CODECS = new ThreadLocal<Codecs>() {
+    @Override
+    protected Codecs initialValue() {
+      return new Codecs();
+    }
+  };
+
+  private final boolean deferValidation;
+
   @Inject
   public AvroConfigurationSerializer() {
+    this(false);
+  }
+
+  /**
+   * @param deferValidation if true, deserialized Configurations resolve and
+   *                        validate their bindings on first use instead of
+   *                        while being read.
+   */
+  public AvroConfigurationSerializer(final boolean deferValidation) {
+    this.deferValidation = deferValidation;
   }
 
   public AvroConfiguration toAvro(final Configuration configuration) {
@@ -113,8 +179,8 @@ public final class AvroConfigurationSerializer implements ConfigurationSerialize
   @Override
   public void toFile(final Configuration conf, final File file) throws IOException {
     final AvroConfiguration avroConfiguration = toAvro(conf);
-    final DatumWriter<AvroConfiguration> configurationWriter = new SpecificDatumWriter<>(AvroConfiguration.class);
-    try (DataFileWriter<AvroConfiguration> dataFileWriter = new DataFileWriter<>(configurationWriter)) {
+    try (DataFileWriter<AvroConfiguration> dataFileWriter =
+             new DataFileWriter<AvroConfiguration>(new SpecificDatumWriter<>(AvroConfiguration.class))) {
       dataFileWriter.create(avroConfiguration.getSchema(), file);
       dataFileWriter.append(avroConfiguration);
     }
@@ -129,32 +195,54 @@ public final class AvroConfigurationSerializer implements ConfigurationSerialize
 
   @Override
   public byte[] toByteArray(final Configuration conf) throws IOException {
-    final DatumWriter<AvroConfiguration> configurationWriter = new SpecificDatumWriter<>(AvroConfiguration.class);
-    final byte[] theBytes;
-    try (final ByteArrayOutputStream out = new ByteArrayOutputStream()) {
-      final BinaryEncoder encoder = EncoderFactory.get().binaryEncoder(out, null);
-      configurationWriter.write(toAvro(conf), encoder);
-      encoder.flush();
-      out.flush();
-      theBytes = out.toByteArray();
+    final Codecs codecs = CODECS.get();
+    try {
+      final ByteArrayOutputStream out = codecs.buffer();
+      write(codecs, toAvro(conf), out);
+      return out.toByteArray();
+    } finally {
+      codecs.releaseBuffer();
     }
-    return theBytes;
+  }
+
+  /**
+   * Writes the Configuration to a stream, in the same format as
+   * toByteArray().  The stream is flushed, but not closed, so several
+   * Configurations can be written to it back to back.
+   *
+   * @param conf the Configuration to write
+   * @param out  the stream to write to
+   * @throws IOException if there is an IO error in the process.
+   */
+  public void toStream(final Configuration conf, final OutputStream out) throws IOException {
+    write(CODECS.get(), toAvro(conf), out);
+  }
+
+  private static void write(final Codecs codecs, final AvroConfiguration avroConfiguration, final OutputStream out)
+      throws IOException {
+    codecs.binaryEncoder = EncoderFactory.get().binaryEncoder(out, codecs.binaryEncoder);
+    codecs.writer.write(avroConfiguration, codecs.binaryEncoder);
+    codecs.binaryEncoder.flush();
   }
 
   @Override
   public String toString(final Configuration configuration) {
-    final DatumWriter<AvroConfiguration> configurationWriter = new SpecificDatumWriter<>(AvroConfiguration.class);
-    final String result;
-    try (final ByteArrayOutputStream out = new ByteArrayOutputStream()) {
-      final JsonEncoder encoder = EncoderFactory.get().jsonEncoder(AvroConfiguration.SCHEMA$, out);
-      configurationWriter.write(toAvro(configuration), encoder);
-      encoder.flush();
-      out.flush();
-      result = out.toString(JSON_CHARSET);
+    final Codecs codecs = CODECS.get();
+    try {
+      final ByteArrayOutputStream out = codecs.buffer();
+      if (codecs.jsonEncoder == null) {
+        codecs.jsonEncoder = EncoderFactory.get().jsonEncoder(AvroConfiguration.SCHEMA$, out);
+      } else {
+        codecs.jsonEncoder.configure(out);
+      }
+      codecs.writer.write(toAvro(configuration), codecs.jsonEncoder);
+      codecs.jsonEncoder.flush();
+      return out.toString(JSON_CHARSET);
     } catch (final IOException e) {
       throw new RuntimeException(e);
+    } finally {
+      codecs.releaseBuffer();
     }
-    return result;
   }
 
   /**
@@ -164,6 +252,9 @@ public final class AvroConfigurationSerializer implements ConfigurationSerialize
    * @return a Configuration version of the given AvroConfiguration
    */
   public Configuration fromAvro(final AvroConfiguration avroConfiguration) throws BindException {
+    if (this.deferValidation) {
+      return fromAvroLazily(avroConfiguration, Tang.Factory.getTang().getDefaultClassHierarchy());
+    }
     final ConfigurationBuilder configurationBuilder = Tang.Factory.getTang().newConfigurationBuilder();
     fromAvro(avroConfiguration, configurationBuilder);
     return configurationBuilder.build();
@@ -178,6 +269,9 @@ public final class AvroConfigurationSerializer implements ConfigurationSerialize
    */
   public Configuration fromAvro(final AvroConfiguration avroConfiguration, final ClassHierarchy classHierarchy)
       throws BindException {
+    if (this.deferValidation) {
+      return fromAvroLazily(avroConfiguration, classHierarchy);
+    }
     final ConfigurationBuilder configurationBuilder = Tang.Factory.getTang().newConfigurationBuilder(classHierarchy);
     fromAvro(avroConfiguration, configurationBuilder);
     return configurationBuilder.build();
@@ -206,19 +300,7 @@ public final class AvroConfigurationSerializer implements ConfigurationSerialize
         // rawValue is String.
         String value = rawValue.toString();
         if (key.equals(ConfigurationBuilderImpl.IMPORT)) {
-          configurationBuilder.getClassHierarchy().getNode(value);
-          final String[] tok = value.split(ReflectionUtilities.regexp);
-          final String lastTok = tok[tok.length - 1];
-          try {
-            configurationBuilder.getClassHierarchy().getNode(lastTok);
-            throw new IllegalArgumentException("Conflict on short name: " + lastTok);
-          } catch (final BindException e) {
-            final String oldValue = importedNames.put(lastTok, value);
-            if (oldValue != null) {
-              throw new IllegalArgumentException("Name conflict: "
-                  + lastTok + " maps to " + oldValue + " and " + value);
-            }
-          }
+          addImport(configurationBuilder.getClassHierarchy(), importedNames, value);
         } else if (value.startsWith(ConfigurationBuilderImpl.INIT)) {
           final String[] classes = value.substring(ConfigurationBuilderImpl.INIT.length(), value.length())
               .replaceAll("^[\\s\\(]+", "")
@@ -234,8 +316,60 @@ public final class AvroConfigurationSerializer implements ConfigurationSerialize
     }
   }
 
+  /**
+   * Collects the bindings of the given AvroConfiguration without resolving
+   * them.  Only import statements are checked here, since they determine the
+   * keys of the bindings that follow.
+   */
+  private static Configuration fromAvroLazily(final AvroConfiguration avroConfiguration,
+                                              final ClassHierarchy classHierarchy) throws BindException {
+    final Map<String, String> importedNames = new HashMap<>();
+    final Map<String, List<String>> bindings = new LinkedHashMap<>();
+
+    for (final ConfigurationEntry entry : avroConfiguration.getBindings()) {
+      final String longName = importedNames.get(entry.getKey().toString());
+      final String key = null == longName ? entry.getKey().toString() : longName;
+      final String value = entry.getValue().toString();
+
+      if (key.equals(ConfigurationBuilderImpl.IMPORT)) {
+        try {
+          addImport(classHierarchy, importedNames, value);
+        } catch (final BindException | ClassHierarchyException e) {
+          throw new BindException("Failed to process configuration tuple: [" + key + "=" + value + "]", e);
+        }
+      } else {
+        List<String> values = bindings.get(key);
+        if (values == null) {
+          values = new ArrayList<>(1);
+          bindings.put(key, values);
+        }
+        values.add(value);
+      }
+    }
+    return new LazyConfigurationImpl(classHierarchy, bindings);
+  }
+
+  private static void addImport(final ClassHierarchy classHierarchy, final Map<String, String> importedNames,
+                                final String value) throws BindException {
+    classHierarchy.getNode(value);
+    final String[] tok = value.split(ReflectionUtilities.regexp);
+    final String lastTok = tok[tok.length - 1];
+    try {
+      classHierarchy.getNode(lastTok);
+      throw new IllegalArgumentException("Conflict on short name: " + lastTok);
+    } catch (final BindException e) {
+      final String oldValue = importedNames.put(lastTok, value);
+      if (oldValue != null) {
+        throw new IllegalArgumentException("Name conflict: "
+            + lastTok + " maps to " + oldValue + " and " + value);
+      }
+    }
+  }
+
   private static AvroConfiguration avroFromFile(final File file) throws IOException {
     final AvroConfiguration avroConfiguration;
+    // DataFileReader sets the file's schema on its datum reader, so it must
+    // not be given the per-thread one.
     try (final DataFileReader<AvroConfiguration> dataFileReader =
              new DataFileReader<>(file, new SpecificDatumReader<>(AvroConfiguration.class))) {
       avroConfiguration = dataFileReader.next();
@@ -267,9 +401,81 @@ public final class AvroConfigurationSerializer implements ConfigurationSerialize
   }
 
   private static AvroConfiguration avroFromBytes(final byte[] theBytes) throws IOException {
-    final BinaryDecoder decoder = DecoderFactory.get().binaryDecoder(theBytes, null);
-    final SpecificDatumReader<AvroConfiguration> reader = new SpecificDatumReader<>(AvroConfiguration.class);
-    return reader.read(null, decoder);
+    final Codecs codecs = CODECS.get();
+    codecs.binaryDecoder = DecoderFactory.get().binaryDecoder(theBytes, codecs.binaryDecoder);
+    return codecs.reader.read(null, codecs.binaryDecoder);
+  }
+
+  private static AvroConfiguration avroFromStream(final InputStream in) throws IOException {
+    final Codecs codecs = CODECS.get();
+    // A direct decoder does not read ahead, so the stream is left positioned
+    // right after this Configuration.
+    codecs.streamDecoder = DecoderFactory.get().directBinaryDecoder(in, codecs.streamDecoder);
+    return codecs.reader.read(null, codecs.streamDecoder);
+  }
+
+  /**
+   * Loads a Configuration from a ByteBuffer holding the output of
+   * toByteArray() or toStream(), starting at its position.  The buffer may
+   * be a heap, direct or MappedByteBuffer; it is decoded in place, without
+   * copying it to a byte[] first.  On return, the buffer's position is just
+   * after the Configuration.
+   *
+   * @param buffer the bytes to deserialize.
+   * @return the Configuration stored.
+   * @throws IOException   if the bytes can't be deserialized
+   * @throws BindException if the bytes contain an illegal Configuration.
+   */
+  public Configuration fromByteBuffer(final ByteBuffer buffer) throws IOException, BindException {
+    return fromAvro(avroFromStream(new ByteBufferInputStream(buffer)));
+  }
+
+  /**
+   * Loads a Configuration from a ByteBuffer holding the output of
+   * toByteArray() or toStream(), starting at its position.  The buffer may
+   * be a heap, direct or MappedByteBuffer; it is decoded in place, without
+   * copying it to a byte[] first.  On return, the buffer's position is just
+   * after the Configuration.
+   *
+   * @param buffer         the bytes to deserialize.
+   * @param classHierarchy used to validate the configuration against
+   * @return the Configuration stored.
+   * @throws IOException   if the bytes can't be deserialized
+   * @throws BindException if the bytes contain an illegal Configuration.
+   */
+  public Configuration fromByteBuffer(final ByteBuffer buffer, final ClassHierarchy classHierarchy)
+      throws IOException, BindException {
+    return fromAvro(avroFromStream(new ByteBufferInputStream(buffer)), classHierarchy);
+  }
+
+  /**
+   * Reads one Configuration written by toStream() (or toByteArray()) from a
+   * stream.  Only the bytes of that Configuration are consumed, and the
+   * stream is not closed.
+   *
+   * @param in the stream to read from.
+   * @return the Configuration read.
+   * @throws IOException   if the stream can't be read or parsed
+   * @throws BindException if the stream contains an illegal Configuration.
+   */
+  public Configuration fromStream(final InputStream in) throws IOException, BindException {
+    return fromAvro(avroFromStream(in));
+  }
+
+  /**
+   * Reads one Configuration written by toStream() (or toByteArray()) from a
+   * stream.  Only the bytes of that Configuration are consumed, and the
+   * stream is not closed.
+   *
+   * @param in             the stream to read from.
+   * @param classHierarchy used to validate the configuration against
+   * @return the Configuration read.
+   * @throws IOException   if the stream can't be read or parsed
+   * @throws BindException if the stream contains an illegal Configuration.
+   */
+  public Configuration fromStream(final InputStream in, final ClassHierarchy classHierarchy)
+      throws IOException, BindException {
+    return fromAvro(avroFromStream(in), classHierarchy);
   }
 
   @Override
@@ -283,9 +489,13 @@ public final class AvroConfigurationSerializer implements ConfigurationSerialize
   }
 
   private static AvroConfiguration avroFromString(final String theString) throws IOException {
-    final JsonDecoder decoder = DecoderFactory.get().jsonDecoder(AvroConfiguration.getClassSchema(), theString);
-    final SpecificDatumReader<AvroConfiguration> reader = new SpecificDatumReader<>(AvroConfiguration.class);
-    return reader.read(null, decoder);
+    final Codecs codecs = CODECS.get();
+    if (codecs.jsonDecoder == null) {
+      codecs.jsonDecoder = DecoderFactory.get().jsonDecoder(AvroConfiguration.getClassSchema(), theString);
+    } else {
+      codecs.jsonDecoder.configure(theString);
+    }
+    return codecs.reader.read(null, codecs.jsonDecoder);
   }
 
   @Override
@@ -0,0 +1,396 @@
+/**
+ * Copyright (C) 2014 Microsoft Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.microsoft.tang.formats;
+
+import com.microsoft.tang.ClassHierarchy;
+import com.microsoft.tang.Configuration;
+import com.microsoft.tang.ConfigurationBuilder;
+import com.microsoft.tang.Tang;
+import com.microsoft.tang.exceptions.BindException;
+import com.microsoft.tang.exceptions.ClassHierarchyException;
+import com.microsoft.tang.implementation.ConfigurationBuilderImpl;
+import com.microsoft.tang.types.ClassNode;
+import com.microsoft.tang.types.NamedParameterNode;
+import com.microsoft.tang.types.Node;
+import org.apache.commons.codec.binary.Base64;
+import org.apache.commons.lang.StringUtils;
+
+import javax.inject.Inject;
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.*;
+
+/**
+ * A compact binary ConfigurationSerializer.
+ * <p/>
+ * AvroConfiguration stores each binding as two full strings, so the long
+ * package prefixes shared by most class names dominate its size.  This format
+ * stores each distinct string once, in a table sorted and front coded against
+ * its predecessor (so a shared package prefix costs a single varint), and
+ * then encodes each binding as a pair of varint indices into the table:
+ * <pre>
+ *   'T' 'C' version
+ *   varint stringCount   { varint sharedPrefixLength, varint suffixBytes, UTF-8 suffix }*
+ *   varint bindingCount  { varint keyIndex, varint valueIndex }*
+ * </pre>
+ * Bindings are the same key / value pairs that AvroConfigurationSerializer
+ * writes, and are replayed the same way, so the two formats are
+ * interchangeable.  Payloads are self delimiting, so several of them can be
+ * written to one stream.  toString() and toTextFile() use Base64.
+ * <p/>
+ * This class is stateless and is therefore safe to reuse.
+ */
+public final class CompactConfigurationSerializer implements ConfigurationSerializer {
+
+  private static final byte MAGIC0 = 'T';
+  private static final byte MAGIC1 = 'C';
+  private static final byte VERSION = 1;
+  private static final Charset UTF8 = Charset.forName("UTF-8");
+
+  @Inject
+  public CompactConfigurationSerializer() {
+  }
+
+  /**
+   * @return the key / value pairs of the Configuration, in the order
+   * AvroConfigurationSerializer.toAvro() lists them.
+   */
+  private static List<String[]> bindings(final Configuration configuration) {
+    // Note: This code is an adapted version of AvroConfigurationSerializer.toAvro();
+    // TODO: This method should implement list serialization, along with the Avro format.
+    final List<String[]> ret = new ArrayList<>();
+    for (final ClassNode<?> opt : configuration.getBoundImplementations()) {
+      ret.add(new String[]{opt.getFullName(), configuration.getBoundImplementation(opt).getFullName()});
+    }
+    for (final ClassNode<?> opt : configuration.getBoundConstructors()) {
+      ret.add(new String[]{opt.getFullName(), configuration.getBoundConstructor(opt).getFullName()});
+    }
+    for (final NamedParameterNode<?> opt : configuration.getNamedParameters()) {
+      ret.add(new String[]{opt.getFullName(), configuration.getNamedParameter(opt)});
+    }
+    for (final ClassNode<?> cn : configuration.getLegacyConstructors()) {
+      final String legacyConstructors = StringUtils.join(configuration.getLegacyConstructor(cn).getArgs(), "-");
+      ret.add(new String[]{cn.getFullName(), "" + ConfigurationBuilderImpl.INIT + "(" + legacyConstructors + ")"});
+    }
+    for (final Map.Entry<NamedParameterNode<Set<?>>, Object> e : configuration.getBoundSets()) {
+      final String val;
+      if (e.getValue() instanceof String) {
+        val = (String) e.getValue();
+      } else if (e.getValue() instanceof Node) {
+        val = ((Node) e.getValue()).getFullName();
+      } else {
+        throw new IllegalStateException();
+      }
+      ret.add(new String[]{e.getKey().getFullName(), val});
+    }
+    return ret;
+  }
+
+  /**
+   * Writes the Configuration to a stream, in the same format as
+   * toByteArray().  The stream is flushed, but not closed, so several
+   * Configurations can be written to it back to back.
+   *
+   * @param conf the Configuration to write
+   * @param out  the stream to write to
+   * @throws IOException if there is an IO error in the process.
+   */
+  public void toStream(final Configuration conf, final OutputStream out) throws IOException {
+    final List<String[]> bindings = bindings(conf);
+    final SortedSet<String> strings = new TreeSet<>();
+    for (final String[] binding : bindings) {
+      strings.add(binding[0]);
+      strings.add(binding[1]);
+    }
+    final DataOutputStream data = new DataOutputStream(new BufferedOutputStream(out));
+    data.writeByte(MAGIC0);
+    data.writeByte(MAGIC1);
+    data.writeByte(VERSION);
+
+    final Map<String, Integer> index = new HashMap<>();
+    writeVarint(data, strings.size());
+    String previous = "";
+    for (final String s : strings) {
+      final int shared = sharedPrefix(previous, s);
+      final byte[] suffix = s.substring(shared).getBytes(UTF8);
+      writeVarint(data, shared);
+      writeVarint(data, suffix.length);
+      data.write(suffix);
+      index.put(s, index.size());
+      previous = s;
+    }
+
+    writeVarint(data, bindings.size());
+    for (final String[] binding : bindings) {
+      writeVarint(data, index.get(binding[0]));
+      writeVarint(data, index.get(binding[1]));
+    }
+    data.flush();
+  }
+
+  private static int sharedPrefix(final String a, final String b) {
+    final int max = Math.min(a.length(), b.length());
+    int i = 0;
+    while (i < max && a.charAt(i) == b.charAt(i)) {
+      i++;
+    }
+    // Don't split surrogate pairs, since the suffix is encoded on its own.
+    if (i > 0 && Character.isHighSurrogate(a.charAt(i - 1))) {
+      i--;
+    }
+    return i;
+  }
+
+  private static void writeVarint(final DataOutput out, int value) throws IOException {
+    while ((value & ~0x7F) != 0) {
+      out.writeByte((value & 0x7F) | 0x80);
+      value >>>= 7;
+    }
+    out.writeByte(value);
+  }
+
+  private static int readVarint(final DataInput in) throws IOException {
+    int value = 0;
+    for (int shift = 0; shift < 32; shift += 7) {
+      final byte b = in.readByte();
+      value |= (b & 0x7F) << shift;
+      if ((b & 0x80) == 0) {
+        return value;
+      }
+    }
+    throw new IOException("Malformed varint in compact configuration");
+  }
+
+  @Override
+  public byte[] toByteArray(final Configuration conf) throws IOException {
+    final ByteArrayOutputStream out = new ByteArrayOutputStream();
+    toStream(conf, out);
+    return out.toByteArray();
+  }
+
+  @Override
+  public String toString(final Configuration configuration) {
+    try {
+      return Base64.encodeBase64String(toByteArray(configuration));
+    } catch (final IOException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  @Override
+  public void toFile(final Configuration conf, final File file) throws IOException {
+    try (final OutputStream out = new FileOutputStream(file)) {
+      toStream(conf, out);
+    }
+  }
+
+  @Override
+  public void toTextFile(final Configuration conf, final File file) throws IOException {
+    try (final Writer w = new FileWriter(file)) {
+      w.write(this.toString(conf));
+    }
+  }
+
+  /**
+   * Reads one payload, and replays its bindings into configurationBuilder.
+   */
+  private static void read(final DataInput in, final ConfigurationBuilder configurationBuilder)
+      throws IOException, BindException {
+    if (in.readByte() != MAGIC0 || in.readByte() != MAGIC1) {
+      throw new IOException("Not a compact configuration");
+    }
+    final byte version = in.readByte();
+    if (version != VERSION) {
+      throw new IOException("Unsupported compact configuration version: " + version);
+    }
+
+    final String[] strings = new String[readVarint(in)];
+    String previous = "";
+    for (int i = 0; i < strings.length; i++) {
+      final int shared = readVarint(in);
+      final byte[] suffix = new byte[readVarint(in)];
+      in.readFully(suffix);
+      if (shared > previous.length()) {
+        throw new IOException("Malformed string table in compact configuration");
+      }
+      strings[i] = previous.substring(0, shared) + new String(suffix, UTF8);
+      previous = strings[i];
+    }
+
+    final int bindingCount = readVarint(in);
+    for (int i = 0; i < bindingCount; i++) {
+      final String key = string(strings, readVarint(in));
+      final String value = string(strings, readVarint(in));
+      // Note: This code is an adapted version of AvroConfigurationSerializer.fromAvro();
+      // toStream() never writes imports, so they are not handled here.
+      try {
+        if (value.startsWith(ConfigurationBuilderImpl.INIT)) {
+          final String[] classes = value.substring(ConfigurationBuilderImpl.INIT.length(), value.length())
+              .replaceAll("^[\\s\\(]+", "")
+              .replaceAll("[\\s\\)]+$", "")
+              .split("[\\s\\-]+");
+          configurationBuilder.registerLegacyConstructor(key, classes);
+        } else {
+          configurationBuilder.bind(key, value);
+        }
+      } catch (final BindException | ClassHierarchyException e) {
+        throw new BindException("Failed to process configuration tuple: [" + key + "=" + value + "]", e);
+      }
+    }
+  }
+
+  private static String string(final String[] strings, final int index) throws IOException {
+    if (index < 0 || index >= strings.length) {
+      throw new IOException("String index " + index + " out of range in compact configuration");
+    }
+    return strings[index];
+  }
+
+  /**
+   * Reads one Configuration written by toStream() (or toByteArray()) from a
+   * stream.  Only the bytes of that Configuration are consumed, and the
+   * stream is not closed.
+   *
+   * @param in the stream to read from.
+   * @return the Configuration read.
+   * @throws IOException   if the stream can't be read or parsed
+   * @throws BindException if the stream contains an illegal Configuration.
+   */
+  public Configuration fromStream(final InputStream in) throws IOException, BindException {
+    final ConfigurationBuilder configurationBuilder = Tang.Factory.getTang().newConfigurationBuilder();
+    read(new DataInputStream(in), configurationBuilder);
+    return configurationBuilder.build();
+  }
+
+  /**
+   * Reads one Configuration written by toStream() (or toByteArray()) from a
+   * stream.  Only the bytes of that Configuration are consumed, and the
+   * stream is not closed.
+   *
+   * @param in             the stream to read from.
+   * @param classHierarchy used to validate the configuration against
+   * @return the Configuration read.
+   * @throws IOException   if the stream can't be read or parsed
+   * @throws BindException if the stream contains an illegal Configuration.
+   */
+  public Configuration fromStream(final InputStream in, final ClassHierarchy classHierarchy)
+      throws IOException, BindException {
+    final ConfigurationBuilder configurationBuilder = Tang.Factory.getTang().newConfigurationBuilder(classHierarchy);
+    read(new DataInputStream(in), configurationBuilder);
+    return configurationBuilder.build();
+  }
+
+  /**
+   * Loads a Configuration from a ByteBuffer holding the output of
+   * toByteArray() or toStream(), starting at its position.  The buffer may
+   * be a heap, direct or MappedByteBuffer; it is decoded in place, without
+   * copying it to a byte[] first.  On return, the buffer's position is just
+   * after the Configuration.
+   *
+   * @param buffer the bytes to deserialize.
+   * @return the Configuration stored.
+   * @throws IOException   if the bytes can't be deserialized
+   * @throws BindException if the bytes contain an illegal Configuration.
+   */
+  public Configuration fromByteBuffer(final ByteBuffer buffer) throws IOException, BindException {
+    return fromStream(new ByteBufferInputStream(buffer));
+  }
+
+  /**
+   * Loads a Configuration from a ByteBuffer holding the output of
+   * toByteArray() or toStream(), starting at its position.  The buffer may
+   * be a heap, direct or MappedByteBuffer; it is decoded in place, without
+   * copying it to a byte[] first.  On return, the buffer's position is just
+   * after the Configuration.
+   *
+   * @param buffer         the bytes to deserialize.
+   * @param classHierarchy used to validate the configuration against
+   * @return the Configuration stored.
+   * @throws IOException   if the bytes can't be deserialized
+   * @throws BindException if the bytes contain an illegal Configuration.
+   */
+  public Configuration fromByteBuffer(final ByteBuffer buffer, final ClassHierarchy classHierarchy)
+      throws IOException, BindException {
+    return fromStream(new ByteBufferInputStream(buffer), classHierarchy);
+  }
+
+  @Override
+  public Configuration fromByteArray(final byte[] theBytes) throws IOException, BindException {
+    return fromStream(new ByteArrayInputStream(theBytes));
+  }
+
+  @Override
+  public Configuration fromByteArray(final byte[] theBytes, final ClassHierarchy classHierarchy)
+      throws IOException, BindException {
+    return fromStream(new ByteArrayInputStream(theBytes), classHierarchy);
+  }
+
+  @Override
+  public Configuration fromString(final String theString) throws IOException, BindException {
+    return fromByteArray(decodeBase64(theString));
+  }
+
+  @Override
+  public Configuration fromString(final String theString, final ClassHierarchy classHierarchy)
+      throws IOException, BindException {
+    return fromByteArray(decodeBase64(theString), classHierarchy);
+  }
+
+  /**
+   * Decode standard Base64.  Whitespace is ignored, so that wrapped text
+   * files can be read.
+   */
+  private static byte[] decodeBase64(final String s) throws IOException {
+    // Base64.decodeBase64() silently skips characters outside the alphabet.
+    if (!Base64.isBase64(s)) {
+      throw new IOException("Invalid Base64 data");
+    }
+    return Base64.decodeBase64(s);
+  }
+
+  private static ByteBuffer map(final File file) throws IOException {
+    try (final RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+      // The mapping stays valid after the channel is closed.
+      return raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, raf.length());
+    }
+  }
+
+  @Override
+  public Configuration fromFile(final File file) throws IOException, BindException {
+    return fromByteBuffer(map(file));
+  }
+
+  @Override
+  public Configuration fromFile(final File file, final ClassHierarchy classHierarchy)
+      throws IOException, BindException {
+    return fromByteBuffer(map(file), classHierarchy);
+  }
+
+  @Override
+  public Configuration fromTextFile(final File file) throws IOException, BindException {
+    final StringBuilder result = new StringBuilder();
+    try (final BufferedReader reader = new BufferedReader(new FileReader(file))) {
+      String line = reader.readLine();
+      while (line != null) {
+        result.append(line);
+        line = reader.readLine();
+      }
+    }
+    return this.fromString(result.toString());
+  }
+}
@@ -33,6 +33,8 @@ import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.PrintStream;
+import java.io.Reader;
+import java.io.StringReader;
 import java.util.*;
 import java.util.Map.Entry;
 
@@ -81,22 +83,35 @@ public class ConfigurationFile {
   @Deprecated
   public static void addConfiguration(final ConfigurationBuilder conf,
                                       final String contents) throws BindException {
-    File tmpConfFile = null;
     try {
-      tmpConfFile = File.createTempFile("tang", "tmp");
-      try (final FileOutputStream outStream = new FileOutputStream(tmpConfFile)) {
-        outStream.write(contents.getBytes());
-      }
-      addConfiguration(conf, tmpConfFile);
+      addConfiguration(conf, new StringReader(contents));
     } catch (final IOException ex) {
-      throw new BindException("Error writing config file: " + tmpConfFile, ex);
-    } finally {
-      if (tmpConfFile != null) {
-        tmpConfFile.delete();
-      }
+      throw new BindException("Error reading config string", ex);
     }
   }
 
+  /**
+   * Parses the configuration file format from a Reader, in memory.  Escapes,
+   * lists and imports are handled exactly as they are for files.
+   *
+   * @param conf   This configuration builder will be modified to incorporate the
+   *               contents of the configuration file.
+   * @param reader the contents of the configuration file.  It is not closed.
+   * @throws BindException
+   * @deprecated in Tang 0.2 Use AvroConfigurationSerializer instead.
+   */
+  @Deprecated
+  public static void addConfiguration(final ConfigurationBuilder conf,
+                                      final Reader reader) throws IOException, BindException {
+    final PropertiesConfiguration confFile = new PropertiesConfiguration();
+    try {
+      confFile.load(reader);
+    } catch (final ConfigurationException e) {
+      throw new BindException("Problem parsing config string", e);
+    }
+    processConfigFile(conf, confFile);
+  }
+
   private static void processConfigFile(ConfigurationBuilder conf,
                                         PropertiesConfiguration confFile) throws IOException, BindException {
     ConfigurationBuilderImpl ci = (ConfigurationBuilderImpl) conf;
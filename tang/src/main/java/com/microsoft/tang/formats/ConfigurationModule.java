@@ -17,12 +17,18 @@ package com.microsoft.tang.formats;
 
 import java.lang.reflect.Field;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
 
 import com.microsoft.tang.Configuration;
+import com.microsoft.tang.JavaConfigurationBuilder;
+import com.microsoft.tang.Tang;
 import com.microsoft.tang.annotations.Name;
 import com.microsoft.tang.exceptions.BindException;
 import com.microsoft.tang.exceptions.ClassHierarchyException;
@@ -31,7 +37,6 @@ import com.microsoft.tang.formats.Impl;
 import com.microsoft.tang.formats.OptionalParameter;
 import com.microsoft.tang.formats.Param;
 import com.microsoft.tang.types.NamedParameterNode;
-import com.microsoft.tang.util.MonotonicHashMap;
 import com.microsoft.tang.util.MonotonicHashSet;
 import com.microsoft.tang.util.MonotonicMultiHashMap;
 import com.microsoft.tang.util.MonotonicSet;
@@ -48,31 +53,176 @@ import com.microsoft.tang.util.ReflectionUtilities;
  */
 public class ConfigurationModule {
   final ConfigurationModuleBuilder builder;
-  // Set of required unset parameters. Must be empty before build.
-  private final Set<Field> reqSet = new MonotonicHashSet<>();
-  private final Map<Impl<?>, Class<?>> setImpls = new MonotonicHashMap<>();
-  private final MonotonicMultiHashMap<Impl<?>, Class<?>> setImplSets = new MonotonicMultiHashMap<>(); 
-  private final MonotonicMultiHashMap<Impl<?>, String> setLateImplSets = new MonotonicMultiHashMap<>(); 
-  private final MonotonicMultiHashMap<Param<?>, String> setParamSets = new MonotonicMultiHashMap<>(); 
-  private final Map<Impl<?>, String> setLateImpls = new MonotonicHashMap<>();
-  private final Map<Param<?>, String> setParams = new MonotonicHashMap<>();
-  private final Map<Impl<List>, List<?>> setImplLists = new MonotonicHashMap<>();
-  private final Map<Param<List>, List<?>> setParamLists = new MonotonicHashMap<>();
+  /**
+   * The set() calls made on this module and its ancestors, in order.  The
+   * log is shared between versions of a module: this module's settings are
+   * the first length entries.
+   */
+  private final Settings settings;
+  private final int length;
+  /**
+   * Cache of build() results, shared by all versions of a module derived
+   * from the one memoize() was called on.  May be null.
+   */
+  private final BuildCache cache;
+
+  /**
+   * A bounded, least recently used cache from the settings of a module to
+   * the Configuration build() returned for them.  Configurations are
+   * immutable, so a cached one can be handed out any number of times.
+   */
+  public static final class BuildCache {
+    private final int capacity;
+    private final Map<Set<List<Object>>, Configuration> entries;
+    private long hits = 0;
+    private long misses = 0;
+
+    private BuildCache(final int capacity) {
+      this.capacity = capacity;
+      this.entries = new LinkedHashMap<Set<List<Object>>, Configuration>(16, 0.75f, true) {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(final Map.Entry<Set<List<Object>>, Configuration> eldest) {
+          return size() > BuildCache.this.capacity;
+        }
+      };
+    }
+
+    private synchronized Configuration get(final Set<List<Object>> key) {
+      final Configuration ret = entries.get(key);
+      if (ret != null) {
+        hits++;
+      } else {
+        misses++;
+      }
+      return ret;
+    }
+
+    private synchronized void put(final Set<List<Object>> key, final Configuration value) {
+      entries.put(key, value);
+    }
+
+    public int getCapacity() {
+      return capacity;
+    }
+
+    public synchronized int size() {
+      return entries.size();
+    }
+
+    public synchronized long getHits() {
+      return hits;
+    }
+
+    public synchronized long getMisses() {
+      return misses;
+    }
+
+    /**
+     * @return hits / (hits + misses), or 0 if build() has not been called.
+     */
+    public synchronized double getHitRate() {
+      return hits + misses == 0 ? 0.0 : (double) hits / (hits + misses);
+    }
+
+    @Override
+    public synchronized String toString() {
+      return "BuildCache[size=" + entries.size() + "/" + capacity + ", hits=" + hits + ", misses=" + misses + "]";
+    }
+  }
+
+  /**
+   * The kinds of set() calls.  Each kind is kept in its own map at build()
+   * time, so setting an option once by class and once by name is allowed.
+   */
+  private enum Kind {
+    IMPL, IMPL_SET, LATE_IMPL, LATE_IMPL_SET, PARAM, PARAM_SET, IMPL_LIST, PARAM_LIST;
+
+    boolean isMultiValued() {
+      return this == IMPL_SET || this == LATE_IMPL_SET || this == PARAM_SET;
+    }
+  }
+
+  private static final class Setting {
+    final Kind kind;
+    final Object opt;
+    final Object value;
+
+    Setting(final Kind kind, final Object opt, final Object value) {
+      this.kind = kind;
+      this.opt = opt;
+      this.value = value;
+    }
+  }
+
+  /**
+   * An append-only log of Settings, with an index from each (kind, option)
+   * pair (or (kind, option, value) triple for multi-valued kinds) to its
+   * position in the log.
+   * <p/>
+   * set() on the newest module that shares a log appends to it in place,
+   * so chains of set() calls are O(1) amortized each.  Calling set() on an
+   * older module (e.g., on a static final ConfigurationModule that has
+   * already been set() elsewhere) copies that module's prefix of the log
+   * first.  Access is synchronized on the Settings instance.
+   */
+  private static final class Settings {
+    private final List<Setting> log = new ArrayList<>();
+    private final Map<List<Object>, Setting> index = new HashMap<>();
+
+    void add(final Setting setting) {
+      final List<Object> key = setting.kind.isMultiValued()
+          ? Arrays.asList(setting.kind, setting.opt, setting.value)
+          : Arrays.asList(setting.kind, setting.opt);
+      final Setting old = index.get(key);
+      if (old != null) {
+        // Same messages as the monotonic collections that used to hold these.
+        if (setting.kind.isMultiValued()) {
+          throw new IllegalArgumentException("Attempt to re-add " + setting.value
+              + " to MonotonicSet!");
+        }
+        throw new IllegalArgumentException("Attempt to re-add: [" + setting.opt
+            + "] old value: " + old.value + " new value " + setting.value);
+      }
+      index.put(key, setting);
+      log.add(setting);
+    }
+
+    Settings prefix(final int length) {
+      final Settings ret = new Settings();
+      for (int i = 0; i < length; i++) {
+        ret.add(log.get(i));
+      }
+      return ret;
+    }
+
+    List<Setting> snapshot(final int length) {
+      return new ArrayList<>(log.subList(0, length));
+    }
+  }
+
   protected ConfigurationModule(ConfigurationModuleBuilder builder) {
-    this.builder = builder.deepCopy();
+    // ConfigurationModuleBuilder.build() hands us a private copy, and nothing
+    // here mutates it, so it can be shared by every version of this module.
+    this(builder, new Settings(), 0, null);
+  }
+
+  private ConfigurationModule(final ConfigurationModuleBuilder builder, final Settings settings, final int length,
+                              final BuildCache cache) {
+    this.builder = builder;
+    this.settings = settings;
+    this.length = length;
+    this.cache = cache;
   }
-  private ConfigurationModule deepCopy() {
-    ConfigurationModule cm = new ConfigurationModule(builder.deepCopy());
-    cm.setImpls.putAll(setImpls);
-    cm.setImplSets.addAll(setImplSets);
-    cm.setLateImplSets.addAll(setLateImplSets);
-    cm.setParamSets.addAll(setParamSets);
-    cm.setLateImpls.putAll(setLateImpls);
-    cm.setParams.putAll(setParams);
-    cm.reqSet.addAll(reqSet);
-    cm.setImplLists.putAll(setImplLists);
-    cm.setParamLists.putAll(setParamLists);
-    return cm;
+
+  private ConfigurationModule with(final Kind kind, final Object opt, final Object value) {
+    processSet(opt);
+    synchronized (settings) {
+      final Settings s = settings.log.size() == length ? settings : settings.prefix(length);
+      s.add(new Setting(kind, opt, value));
+      return new ConfigurationModule(builder, s, length + 1, cache);
+    }
   }
 
   private final <T> void processSet(Object impl) {
@@ -80,29 +230,14 @@ public class ConfigurationModule {
     if (f == null) { /* throw */
       throw new ClassHierarchyException("Unknown Impl/Param when setting " + ReflectionUtilities.getSimpleName(impl.getClass()) + ".  Did you pass in a field from some other module?");
     }
-    if(!reqSet.contains(f)) { reqSet.add(f); }
   }
 
   public final <T> ConfigurationModule set(Impl<T> opt, Class<? extends T> impl) {
-    ConfigurationModule c = deepCopy();
-    c.processSet(opt);
-    if(c.builder.setOpts.contains(opt)) {
-      c.setImplSets.put(opt, impl);
-    } else {
-      c.setImpls.put(opt, impl);
-    }
-    return c;
+    return with(builder.setOpts.contains(opt) ? Kind.IMPL_SET : Kind.IMPL, opt, impl);
   }
 
   public final <T> ConfigurationModule set(Impl<T> opt, String impl) {
-    ConfigurationModule c = deepCopy();
-    c.processSet(opt);
-    if(c.builder.setOpts.contains(opt)) {
-      c.setLateImplSets.put(opt, impl);
-    } else {
-      c.setLateImpls.put(opt, impl);
-    }
-    return c;
+    return with(builder.setOpts.contains(opt) ? Kind.LATE_IMPL_SET : Kind.LATE_IMPL, opt, impl);
   }
 
   /**
@@ -114,10 +249,7 @@ public class ConfigurationModule {
    * @return
    */
   public final <T> ConfigurationModule set(Impl<List> opt, List implList) {
-    ConfigurationModule c = deepCopy();
-    c.processSet(opt);
-    c.setImplLists.put(opt, implList);
-    return c;
+    return with(Kind.IMPL_LIST, opt, implList);
   }
   
   public final <T> ConfigurationModule set(Param<T> opt, Class<? extends T> val) {
@@ -130,14 +262,7 @@ public class ConfigurationModule {
     return set(opt, ""+val);
   }
   public final <T> ConfigurationModule set(Param<T> opt, String val) {
-    ConfigurationModule c = deepCopy();
-    c.processSet(opt);
-    if(c.builder.setOpts.contains(opt)) {
-      c.setParamSets.put(opt, val);
-    } else {
-      c.setParams.put(opt, val);
-    }
-    return c;
+    return with(builder.setOpts.contains(opt) ? Kind.PARAM_SET : Kind.PARAM, opt, val);
   }
 
   /**
@@ -149,19 +274,81 @@ public class ConfigurationModule {
    * @return
    */
   public final <T> ConfigurationModule set(Param<List> opt, List implList) {
-    ConfigurationModule c = deepCopy();
-    c.processSet(opt);
-    c.setParamLists.put(opt, implList);
-    return c;
+    return with(Kind.PARAM_LIST, opt, implList);
   }
-  @SuppressWarnings({ "unchecked", "rawtypes" })
+  /**
+   * Cache the results of build() on this module and on the modules derived
+   * from it with set().  Modules with the same settings, regardless of the
+   * order they were set() in, then share one Configuration.
+   *
+   * @param capacity the number of Configurations to keep.
+   * @return a copy of this module with the cache attached.
+   */
+  public final ConfigurationModule memoize(final int capacity) {
+    if (capacity <= 0) {
+      throw new IllegalArgumentException("Cache capacity must be positive, got " + capacity);
+    }
+    return new ConfigurationModule(builder, settings, length, new BuildCache(capacity));
+  }
+
+  /**
+   * @return the cache installed by memoize(), or null if there is none.
+   */
+  public final BuildCache getBuildCache() {
+    return cache;
+  }
+
   public Configuration build() throws BindException {
-    ConfigurationModule c = deepCopy();
-    
-    if (!c.reqSet.containsAll(c.builder.reqDecl)) {
+    final List<Setting> log;
+    synchronized (settings) {
+      log = settings.snapshot(length);
+    }
+    if (cache == null) {
+      return build(log);
+    }
+    final Set<List<Object>> key = new HashSet<>();
+    for (Setting s : log) {
+      key.add(Arrays.asList(s.kind, s.opt, s.value));
+    }
+    Configuration ret = cache.get(key);
+    if (ret == null) {
+      ret = build(log);
+      cache.put(key, ret);
+    }
+    return ret;
+  }
+
+  @SuppressWarnings({ "unchecked", "rawtypes" })
+  private Configuration build(final List<Setting> log) throws BindException {
+    // Set of required unset parameters. Must be empty before build.
+    final Set<Field> reqSet = new HashSet<>();
+    final Map<Impl<?>, Class<?>> setImpls = new HashMap<>();
+    final MonotonicMultiHashMap<Impl<?>, Class<?>> setImplSets = new MonotonicMultiHashMap<>();
+    final MonotonicMultiHashMap<Impl<?>, String> setLateImplSets = new MonotonicMultiHashMap<>();
+    final MonotonicMultiHashMap<Param<?>, String> setParamSets = new MonotonicMultiHashMap<>();
+    final Map<Impl<?>, String> setLateImpls = new HashMap<>();
+    final Map<Param<?>, String> setParams = new HashMap<>();
+    final Map<Impl<List>, List<?>> setImplLists = new HashMap<>();
+    final Map<Param<List>, List<?>> setParamLists = new HashMap<>();
+    for (Setting s : log) {
+      reqSet.add(builder.map.get(s.opt));
+      switch (s.kind) {
+        case IMPL: setImpls.put((Impl<?>) s.opt, (Class<?>) s.value); break;
+        case IMPL_SET: setImplSets.put((Impl<?>) s.opt, (Class<?>) s.value); break;
+        case LATE_IMPL: setLateImpls.put((Impl<?>) s.opt, (String) s.value); break;
+        case LATE_IMPL_SET: setLateImplSets.put((Impl<?>) s.opt, (String) s.value); break;
+        case PARAM: setParams.put((Param<?>) s.opt, (String) s.value); break;
+        case PARAM_SET: setParamSets.put((Param<?>) s.opt, (String) s.value); break;
+        case IMPL_LIST: setImplLists.put((Impl<List>) s.opt, (List<?>) s.value); break;
+        case PARAM_LIST: setParamLists.put((Param<List>) s.opt, (List<?>) s.value); break;
+        default: throw new IllegalStateException("Unknown setting " + s.kind);
+      }
+    }
+
+    if (!reqSet.containsAll(builder.reqDecl)) {
       Set<Field> missingSet = new MonotonicHashSet<>();
-      for (Field f : c.builder.reqDecl) {
-        if (!c.reqSet.contains(f)) {
+      for (Field f : builder.reqDecl) {
+        if (!reqSet.contains(f)) {
           missingSet.add(f);
         }
       }
@@ -169,40 +356,42 @@ public class ConfigurationModule {
           "Attempt to build configuration before setting required option(s): "
               + builder.toString(missingSet));
     }
-  
-    for (Class<?> clazz : c.builder.freeImpls.keySet()) {
-      Impl<?> i = c.builder.freeImpls.get(clazz);
-      if(c.setImpls.containsKey(i)) {
-        c.builder.b.bind(clazz, c.setImpls.get(i));
-      } else if(c.setLateImpls.containsKey(i)) {
-        c.builder.b.bind(ReflectionUtilities.getFullName(clazz), c.setLateImpls.get(i));
-      } else if(c.setImplSets.containsKey(i) || c.setLateImplSets.containsKey(i)) {
-        for(Class<?> clz : c.setImplSets.getValuesForKey(i)) {
-          c.builder.b.bindSetEntry((Class)clazz, (Class)clz);
+
+    // The only copy of the module's static bindings.
+    final JavaConfigurationBuilder b = Tang.Factory.getTang().newConfigurationBuilder(builder.b.build());
+    for (Class<?> clazz : builder.freeImpls.keySet()) {
+      Impl<?> i = builder.freeImpls.get(clazz);
+      if(setImpls.containsKey(i)) {
+        b.bind(clazz, setImpls.get(i));
+      } else if(setLateImpls.containsKey(i)) {
+        b.bind(ReflectionUtilities.getFullName(clazz), setLateImpls.get(i));
+      } else if(setImplSets.containsKey(i) || setLateImplSets.containsKey(i)) {
+        for(Class<?> clz : setImplSets.getValuesForKey(i)) {
+          b.bindSetEntry((Class)clazz, (Class)clz);
         }
-        for(String s : c.setLateImplSets.getValuesForKey(i)) {
-          c.builder.b.bindSetEntry((Class)clazz, s);
+        for(String s : setLateImplSets.getValuesForKey(i)) {
+          b.bindSetEntry((Class)clazz, s);
         }
       } else {
-        c.builder.b.bindList((Class) clazz, c.setImplLists.get(i));
+        b.bindList((Class) clazz, setImplLists.get(i));
       }
     }
-    for (Class<? extends Name<?>> clazz : c.builder.freeParams.keySet()) {
-      Param<?> p = c.builder.freeParams.get(clazz);
-      String s = c.setParams.get(p);
+    for (Class<? extends Name<?>> clazz : builder.freeParams.keySet()) {
+      Param<?> p = builder.freeParams.get(clazz);
+      String s = setParams.get(p);
       boolean foundOne = false;
       if(s != null) {
-        c.builder.b.bindNamedParameter(clazz, s);
+        b.bindNamedParameter(clazz, s);
         foundOne = true;
       }
       // Find the bound list for the NamedParameter
-      List list = c.setParamLists.get(p);
+      List list = setParamLists.get(p);
       if(list != null) {
-        c.builder.b.bindList((Class) clazz, list);
+        b.bindList((Class) clazz, list);
         foundOne = true;
       }
-      for(String paramStr : c.setParamSets.getValuesForKey(p)) {
-        c.builder.b.bindSetEntry((Class)clazz, paramStr);
+      for(String paramStr : setParamSets.getValuesForKey(p)) {
+        b.bindSetEntry((Class)clazz, paramStr);
         foundOne = true;
       }
       if(! foundOne) {
@@ -211,7 +400,7 @@ public class ConfigurationModule {
         }
       }
     }
-    return c.builder.b.build();
+    return b.build();
 
   }
   public Set<NamedParameterNode<?>> getBoundNamedParameters() {
@@ -274,16 +463,7 @@ public class ConfigurationModule {
     return sb.toString();
   }
   public void assertStaticClean() throws ClassHierarchyException {
-    if(!(
-        setImpls.isEmpty() &&
-        setImplSets.isEmpty() &&
-        setLateImplSets.isEmpty() &&
-        setParamSets.isEmpty() &&
-        setLateImpls.isEmpty() &&
-        setParams.isEmpty() &&
-        setImplLists.isEmpty() &&
-        setParamLists.isEmpty()
-        )) {
+    if (length != 0) {
       throw new ClassHierarchyException("Detected statically set ConfigurationModule Parameter / Implementation.  set() should only be used dynamically.  Use bind...() instead.");
     }
   }
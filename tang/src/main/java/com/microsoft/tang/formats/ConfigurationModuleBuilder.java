@@ -17,6 +17,8 @@ package com.microsoft.tang.formats;
 
 import java.lang.reflect.Field;
 import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -39,8 +41,18 @@ public abstract class ConfigurationModuleBuilder {
   private final static Set<Class<?>> paramTypes = new MonotonicHashSet<Class<?>>(
       RequiredImpl.class, OptionalImpl.class, RequiredParameter.class,
       OptionalParameter.class);
-  final JavaConfigurationBuilder b = Tang.Factory.getTang()
-      .newConfigurationBuilder();
+  /**
+   * The bindings made so far, applied to a fresh JavaConfigurationBuilder
+   * only by build().  This is null except in the copies that build() hands
+   * to ConfigurationModule.
+   */
+  final JavaConfigurationBuilder b;
+  /**
+   * The concrete bindings (as opposed to the ones involving options), newest
+   * first.  The list is immutable, so copies share it, and chained bind...()
+   * calls don't rebuild anything until build() replays it.
+   */
+  private Binding bindings = null;
   // Sets of things that have been declared
   final Set<Field> reqDecl = new MonotonicHashSet<>();
   private final Set<Field> optDecl = new MonotonicHashSet<>();
@@ -58,7 +70,21 @@ public abstract class ConfigurationModuleBuilder {
   final Map<Class<? extends Name<?>>,Param<?>> freeParams = new MonotonicHashMap<>();
   private final Map<Class<?>, String> lateBindClazz = new MonotonicHashMap<>();
 
+  /**
+   * A binding for b, linked to the bindings made before it.
+   */
+  private static abstract class Binding {
+    final Binding previous;
+
+    Binding(final Binding previous) {
+      this.previous = previous;
+    }
+
+    abstract void apply(JavaConfigurationBuilder b) throws BindException;
+  }
+
   protected ConfigurationModuleBuilder() {
+    this.b = null;
     for (Field f : getClass().getDeclaredFields()) {
       Class<?> t = f.getType();
       if(paramBlacklist.contains(t)) {
@@ -119,11 +145,14 @@ public abstract class ConfigurationModuleBuilder {
       throw new ClassHierarchyException(ReflectionUtilities.getFullName(getClass()) + ": detected attempt to merge with ConfigurationModule that has had set() called on it", e);
     }
     ConfigurationModuleBuilder c = deepCopy();
-    try {
-      c.b.addConfiguration(d.builder.b.build());
-    } catch (BindException e) {
-      throw new ClassHierarchyException(e);
-    }
+    // d's builder was finalized by its build(), and is never modified again.
+    final JavaConfigurationBuilder other = d.builder.b;
+    c.bindings = new Binding(bindings) {
+      @Override
+      void apply(final JavaConfigurationBuilder b) throws BindException {
+        b.addConfiguration(other.build());
+      }
+    };
     c.reqDecl.addAll(d.builder.reqDecl);
     c.optDecl.addAll(d.builder.optDecl);
     c.reqUsed.addAll(d.builder.reqUsed);
@@ -137,12 +166,9 @@ public abstract class ConfigurationModuleBuilder {
     return c;
   }
   
-  private ConfigurationModuleBuilder(ConfigurationModuleBuilder c) {
-    try {
-      b.addConfiguration(c.b.build());
-    } catch (BindException e) {
-      throw new ClassHierarchyException(e);
-    }
+  private ConfigurationModuleBuilder(ConfigurationModuleBuilder c, boolean finalize) {
+    b = finalize ? c.applyBindings() : null;
+    bindings = c.bindings;
     reqDecl.addAll(c.reqDecl);
     optDecl.addAll(c.optDecl);
     reqUsed.addAll(c.reqUsed);
@@ -160,23 +186,25 @@ public abstract class ConfigurationModuleBuilder {
     c.freeImpls.put(iface, opt);
     return c;
   }
-  public final <T> ConfigurationModuleBuilder bindSetEntry(Class<? extends Name<Set<T>>> iface, String impl) {
+  public final <T> ConfigurationModuleBuilder bindSetEntry(final Class<? extends Name<Set<T>>> iface, final String impl) {
     ConfigurationModuleBuilder c = deepCopy();
-    try {
-      c.b.bindSetEntry(iface, impl);
-    } catch (BindException e) {
-      throw new ClassHierarchyException(e);
-    }
+    c.bindings = new Binding(bindings) {
+      @Override
+      void apply(final JavaConfigurationBuilder b) throws BindException {
+        b.bindSetEntry(iface, impl);
+      }
+    };
     return c;
   }
 
-  public final <T> ConfigurationModuleBuilder bindSetEntry(Class<? extends Name<Set<T>>> iface, Class<? extends T> impl) {
+  public final <T> ConfigurationModuleBuilder bindSetEntry(final Class<? extends Name<Set<T>>> iface, final Class<? extends T> impl) {
     ConfigurationModuleBuilder c = deepCopy();
-    try {
-      c.b.bindSetEntry(iface, impl);
-    } catch (BindException e) {
-      throw new ClassHierarchyException(e);
-    }
+    c.bindings = new Binding(bindings) {
+      @Override
+      void apply(final JavaConfigurationBuilder b) throws BindException {
+        b.bindSetEntry(iface, impl);
+      }
+    };
     return c;
   }
 
@@ -196,14 +224,15 @@ public abstract class ConfigurationModuleBuilder {
   }
 
 
-  public final <T> ConfigurationModuleBuilder bindImplementation(Class<T> iface,
-      Class<? extends T> impl) {
+  public final <T> ConfigurationModuleBuilder bindImplementation(final Class<T> iface,
+      final Class<? extends T> impl) {
     ConfigurationModuleBuilder c = deepCopy();
-    try {
-      c.b.bindImplementation(iface, impl);
-    } catch (BindException e) {
-      throw new ClassHierarchyException(e);
-    }
+    c.bindings = new Binding(bindings) {
+      @Override
+      void apply(final JavaConfigurationBuilder b) throws BindException {
+        b.bindImplementation(iface, impl);
+      }
+    };
     return c;
   }
 
@@ -223,13 +252,14 @@ public abstract class ConfigurationModuleBuilder {
   }
 
   public final <T> ConfigurationModuleBuilder bindNamedParameter(
-      Class<? extends Name<T>> name, String value) {
+      final Class<? extends Name<T>> name, final String value) {
     ConfigurationModuleBuilder c = deepCopy();
-    try {
-      c.b.bindNamedParameter(name, value);
-    } catch (BindException e) {
-      throw new ClassHierarchyException(e);
-    }
+    c.bindings = new Binding(bindings) {
+      @Override
+      void apply(final JavaConfigurationBuilder b) throws BindException {
+        b.bindNamedParameter(name, value);
+      }
+    };
     return c;
   }
 
@@ -242,13 +272,14 @@ public abstract class ConfigurationModuleBuilder {
   }
 
   public final <T> ConfigurationModuleBuilder bindNamedParameter(
-      Class<? extends Name<T>> iface, Class<? extends T> impl) {
+      final Class<? extends Name<T>> iface, final Class<? extends T> impl) {
     ConfigurationModuleBuilder c = deepCopy();
-    try {
-      c.b.bindNamedParameter(iface, impl);
-    } catch (BindException e) {
-      throw new ClassHierarchyException(e);
-    }
+    c.bindings = new Binding(bindings) {
+      @Override
+      void apply(final JavaConfigurationBuilder b) throws BindException {
+        b.bindNamedParameter(iface, impl);
+      }
+    };
     return c;
   }
 
@@ -260,14 +291,15 @@ public abstract class ConfigurationModuleBuilder {
     return c;
   }
 
-  public final <T> ConfigurationModuleBuilder bindConstructor(Class<T> clazz,
-      Class<? extends ExternalConstructor<? extends T>> constructor) {
+  public final <T> ConfigurationModuleBuilder bindConstructor(final Class<T> clazz,
+      final Class<? extends ExternalConstructor<? extends T>> constructor) {
     ConfigurationModuleBuilder c = deepCopy();
-    try {
-      c.b.bindConstructor(clazz, constructor);
-    } catch (BindException e) {
-      throw new ClassHierarchyException(e);
-    }
+    c.bindings = new Binding(bindings) {
+      @Override
+      void apply(final JavaConfigurationBuilder b) throws BindException {
+        b.bindConstructor(clazz, constructor);
+      }
+    };
     return c;
   }
 
@@ -295,9 +327,16 @@ public abstract class ConfigurationModuleBuilder {
     return c;
   }
 
-  public final <T> ConfigurationModuleBuilder bindList(Class<? extends Name<List<T>>> iface, List list) {
+  public final <T> ConfigurationModuleBuilder bindList(final Class<? extends Name<List<T>>> iface, List list) {
     ConfigurationModuleBuilder c = deepCopy();
-    c.b.bindList(iface, list);
+    // The binding is replayed later, so it must not see later changes to list.
+    final List copy = new ArrayList<>(list);
+    c.bindings = new Binding(bindings) {
+      @Override
+      void apply(final JavaConfigurationBuilder b) {
+        b.bindList(iface, copy);
+      }
+    };
     return c;
   }
 
@@ -311,17 +350,15 @@ public abstract class ConfigurationModuleBuilder {
   }
 
   public final ConfigurationModule build() throws ClassHierarchyException {
-    ConfigurationModuleBuilder c = deepCopy();
-    
-    if (!(c.reqUsed.containsAll(c.reqDecl) && c.optUsed.containsAll(c.optDecl))) {
+    if (!(reqUsed.containsAll(reqDecl) && optUsed.containsAll(optDecl))) {
       Set<Field> fset = new MonotonicHashSet<>();
-      for (Field f : c.reqDecl) {
-        if (!c.reqUsed.contains(f)) {
+      for (Field f : reqDecl) {
+        if (!reqUsed.contains(f)) {
           fset.add(f);
         }
       }
-      for (Field f : c.optDecl) {
-        if (!c.optUsed.contains(f)) {
+      for (Field f : optDecl) {
+        if (!optUsed.contains(f)) {
           fset.add(f);
         }
       }
@@ -329,6 +366,10 @@ public abstract class ConfigurationModuleBuilder {
           "Found declared options that were not used in binds: "
               + toString(fset));
     }
+    // Replay the bindings only once the declarations check out, so that
+    // unused options are still reported ahead of any bad binding.
+    ConfigurationModuleBuilder c = new ConfigurationModuleBuilder(this, true) {
+    };
     for (Class<?> clz: c.lateBindClazz.keySet()) {
       try {
         c.b.bind(ReflectionUtilities.getFullName(clz), c.lateBindClazz.get(clz));
@@ -356,9 +397,29 @@ public abstract class ConfigurationModuleBuilder {
     // fortunately, we've all ready looked at the root object's class's
     // fields, and we copy the information we extracted from them, so
     // everything works out OK w.r.t. field detection.
-    return new ConfigurationModuleBuilder(this) {
+    return new ConfigurationModuleBuilder(this, false) {
     };
   }
+
+  /**
+   * @return a new JavaConfigurationBuilder with all of the bindings made so far.
+   */
+  private JavaConfigurationBuilder applyBindings() {
+    final List<Binding> pending = new ArrayList<>();
+    for (Binding bd = bindings; bd != null; bd = bd.previous) {
+      pending.add(bd);
+    }
+    Collections.reverse(pending);
+    final JavaConfigurationBuilder ret = Tang.Factory.getTang().newConfigurationBuilder();
+    try {
+      for (Binding bd : pending) {
+        bd.apply(ret);
+      }
+    } catch (BindException e) {
+      throw new ClassHierarchyException(e);
+    }
+    return ret;
+  }
   final String toString(Set<Field> s) {
     StringBuilder sb = new StringBuilder("{");
     boolean first = true;
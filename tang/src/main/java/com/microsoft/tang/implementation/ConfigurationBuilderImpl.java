@@ -21,12 +21,17 @@ import com.microsoft.tang.exceptions.NameResolutionException;
 import com.microsoft.tang.exceptions.ParseException;
 import com.microsoft.tang.implementation.java.ClassHierarchyImpl;
 import com.microsoft.tang.types.*;
+import com.microsoft.tang.util.Fingerprint;
 import com.microsoft.tang.util.MonotonicMultiMap;
 import com.microsoft.tang.util.TracingMonotonicMap;
 import com.microsoft.tang.util.TracingMonotonicTreeMap;
 
 import java.net.URL;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
@@ -44,6 +49,11 @@ public class ConfigurationBuilderImpl implements ConfigurationBuilder {
   final Map<ClassNode<?>, ConstructorDef<?>> legacyConstructors = new TracingMonotonicTreeMap<>();
   final MonotonicMultiMap<NamedParameterNode<Set<?>>, Object> boundSetEntries = new MonotonicMultiMap<>();
   final TracingMonotonicMap<NamedParameterNode<List<?>>, List<Object>> boundLists = new TracingMonotonicTreeMap<>();
+  /**
+   * Sum of the fingerprints of the bindings above.  Updated after each
+   * successful put, which the monotonic maps only allow once per binding.
+   */
+  private Fingerprint fingerprint = Fingerprint.EMPTY;
 
   public final static String IMPORT = "import";
   public final static String INIT = "<init>";
@@ -59,9 +69,7 @@ public class ConfigurationBuilderImpl implements ConfigurationBuilder {
   protected ConfigurationBuilderImpl(URL[] jars, Configuration[] confs, Class<? extends ExternalConstructor<?>>[] parsers)
       throws BindException {
     this.namespace = Tang.Factory.getTang().getDefaultClassHierarchy(jars, parsers);
-    for (Configuration tc : confs) {
-      addConfiguration(((ConfigurationImpl) tc));
-    }
+    addConfigurations(Arrays.asList(confs));
   }
 
   protected ConfigurationBuilderImpl(ConfigurationBuilderImpl t) {
@@ -86,21 +94,142 @@ public class ConfigurationBuilderImpl implements ConfigurationBuilder {
   @Override
   public void addConfiguration(Configuration conf) throws BindException {
     // XXX remove cast!
-    addConfiguration(conf.getClassHierarchy(), ((ConfigurationImpl) conf).builder);
+    addConfiguration(conf.getClassHierarchy(), ((ConfigurationImpl) conf).getBuilder());
   }
 
-  @SuppressWarnings("unchecked")
-  private <T> void addConfiguration(ClassHierarchy ns, ConfigurationBuilderImpl builder)
+  @Override
+  public void addConfigurations(final Iterable<Configuration> confs) throws BindException {
+    final List<ConfigurationBuilderImpl> builders = new ArrayList<>();
+    for (Configuration conf : confs) {
+      builders.add(((ConfigurationImpl) conf).getBuilder());
+    }
+    if (hasConflicts(builders)) {
+      // Replay the merge one configuration at a time, so that the conflict is
+      // reported exactly as addConfiguration() would report it.
+      for (ConfigurationBuilderImpl builder : builders) {
+        addConfiguration(builder.namespace, builder);
+      }
+      return;
+    }
+    final Set<ClassHierarchy> merged = Collections.newSetFromMap(new IdentityHashMap<ClassHierarchy, Boolean>());
+    merged.add(namespace);
+    for (ConfigurationBuilderImpl builder : builders) {
+      if (merged.add(builder.namespace)) {
+        mergeNamespace(builder.namespace);
+      }
+    }
+    for (ConfigurationBuilderImpl builder : builders) {
+      addBindings(builder);
+    }
+  }
+
+  /**
+   * Check whether adding the given builders to this one would re-bind
+   * anything, with one hash lookup per binding.
+   */
+  private boolean hasConflicts(final List<ConfigurationBuilderImpl> builders) {
+    final Set<String> keys = new HashSet<>();
+    bindingKeys(this, keys);
+    for (ConfigurationBuilderImpl builder : builders) {
+      if (!bindingKeys(builder, keys)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Add the keys of the bindings in builder to keys.
+   *
+   * @return false if one of the keys was already present.
+   */
+  private static boolean bindingKeys(final ConfigurationBuilderImpl builder, final Set<String> keys) {
+    boolean ret = true;
+    for (ClassNode<?> cn : builder.boundImpls.keySet()) {
+      ret &= keys.add("impl:" + cn.getFullName());
+    }
+    for (ClassNode<?> cn : builder.boundConstructors.keySet()) {
+      ret &= keys.add("constructor:" + cn.getFullName());
+    }
+    for (NamedParameterNode<?> np : builder.namedParameters.keySet()) {
+      ret &= keys.add("param:" + np.getFullName());
+    }
+    for (ClassNode<?> cn : builder.legacyConstructors.keySet()) {
+      ret &= keys.add("legacy:" + cn.getFullName());
+    }
+    for (Entry<NamedParameterNode<Set<?>>, Object> e : builder.boundSetEntries) {
+      final Object v = e.getValue();
+      ret &= keys.add("set:" + e.getKey().getFullName() + "="
+          + (v instanceof Node ? "node:" + ((Node) v).getFullName() : "string:" + v));
+    }
+    for (NamedParameterNode<List<?>> np : builder.boundLists.keySet()) {
+      ret &= keys.add("list:" + np.getFullName());
+    }
+    return ret;
+  }
+
+  private void addConfiguration(ClassHierarchy ns, ConfigurationBuilderImpl builder)
       throws BindException {
-    namespace = namespace.merge(ns);
-    if ((namespace instanceof ClassHierarchyImpl || builder.namespace instanceof ClassHierarchyImpl)) {
-      if ((namespace instanceof ClassHierarchyImpl && builder.namespace instanceof ClassHierarchyImpl)) {
-        ((ClassHierarchyImpl) namespace).parameterParser
-            .mergeIn(((ClassHierarchyImpl) builder.namespace).parameterParser);
+    if (ns != namespace) {
+      mergeNamespace(ns);
+    }
+    addBindings(builder);
+  }
+
+  private void mergeNamespace(final ClassHierarchy other) {
+    namespace = namespace.merge(other);
+    if ((namespace instanceof ClassHierarchyImpl || other instanceof ClassHierarchyImpl)) {
+      if ((namespace instanceof ClassHierarchyImpl && other instanceof ClassHierarchyImpl)) {
+        if (namespace != other) {
+          ((ClassHierarchyImpl) namespace).parameterParser
+              .mergeIn(((ClassHierarchyImpl) other).parameterParser);
+        }
       } else {
         throw new IllegalArgumentException("Attempt to merge Java and non-Java class hierarchy!  Not supported.");
       }
     }
+  }
+
+  @SuppressWarnings("unchecked")
+  private <T> void addBindings(ConfigurationBuilderImpl builder)
+      throws BindException {
+    if (builder.namespace == namespace) {
+      // Same nodes, and the values were type checked when they were bound to
+      // builder, so copy the bindings without resolving or parsing them again.
+      for (ClassNode<?> cn : builder.boundImpls.keySet()) {
+        boundImpls.put(cn, builder.boundImpls.get(cn));
+        addFingerprint("impl", cn.getFullName(), builder.boundImpls.get(cn).getFullName());
+      }
+      for (ClassNode<?> cn : builder.boundConstructors.keySet()) {
+        boundConstructors.put(cn, builder.boundConstructors.get(cn));
+        addFingerprint("constructor", cn.getFullName(), builder.boundConstructors.get(cn).getFullName());
+      }
+      for (NamedParameterNode<?> np : builder.namedParameters.keySet()) {
+        namedParameters.put(np, builder.namedParameters.get(np));
+        addFingerprint("param", np.getFullName(), builder.namedParameters.get(np));
+      }
+      for (ClassNode<?> cn : builder.legacyConstructors.keySet()) {
+        final ConstructorDef<?> def = builder.legacyConstructors.get(cn);
+        legacyConstructors.put(cn, def);
+        addFingerprint("legacy", cn.getFullName(), def.toString());
+      }
+      for (Entry<NamedParameterNode<Set<?>>, Object> e : builder.boundSetEntries) {
+        if (e.getValue() instanceof Node) {
+          boundSetEntries.put(e.getKey(), e.getValue());
+          addFingerprint("set-node", e.getKey().getFullName(), ((Node) e.getValue()).getFullName());
+        } else if (e.getValue() instanceof String) {
+          boundSetEntries.put(e.getKey(), e.getValue());
+          addFingerprint("set", e.getKey().getFullName(), (String) e.getValue());
+        } else {
+          throw new IllegalStateException();
+        }
+      }
+      for (NamedParameterNode<List<?>> np : builder.boundLists.keySet()) {
+        boundLists.put(np, builder.boundLists.get(np));
+        addListFingerprint(np, builder.boundLists.get(np));
+      }
+      return;
+    }
 
     for (ClassNode<?> cn : builder.boundImpls.keySet()) {
       bind(cn.getFullName(), builder.boundImpls.get(cn).getFullName());
@@ -163,7 +292,9 @@ public class ConfigurationBuilderImpl implements ConfigurationBuilder {
   @Override
   public void registerLegacyConstructor(ClassNode<?> cn,
                                         final ClassNode<?>... args) throws BindException {
-    legacyConstructors.put(cn, cn.getConstructorDef(args));
+    final ConstructorDef<?> def = cn.getConstructorDef(args);
+    legacyConstructors.put(cn, def);
+    addFingerprint("legacy", cn.getFullName(), def.toString());
   }
 
   @Override
@@ -200,6 +331,7 @@ public class ConfigurationBuilderImpl implements ConfigurationBuilder {
       throws BindException {
     if (namespace.isImplementation(n, m)) {
       boundImpls.put(n, m);
+      addFingerprint("impl", n.getFullName(), m.getFullName());
     } else {
       throw new IllegalArgumentException("Class" + m + " does not extend " + n);
     }
@@ -216,6 +348,7 @@ public class ConfigurationBuilderImpl implements ConfigurationBuilder {
       bindSetEntry((NamedParameterNode) name, value);
     } else {
       namedParameters.put(name, value);
+      addFingerprint("param", name.getFullName(), value);
     }
   }
 
@@ -223,14 +356,18 @@ public class ConfigurationBuilderImpl implements ConfigurationBuilder {
   @Override
   public void bindSetEntry(String iface, String impl)
       throws BindException {
-    boundSetEntries.put((NamedParameterNode<Set<?>>) namespace.getNode(iface), impl);
+    final NamedParameterNode<Set<?>> ifaceNode = (NamedParameterNode<Set<?>>) namespace.getNode(iface);
+    boundSetEntries.put(ifaceNode, impl);
+    addFingerprint("set", ifaceNode.getFullName(), impl);
   }
 
   @SuppressWarnings("unchecked")
   @Override
   public void bindSetEntry(String iface, Node impl)
       throws BindException {
-    boundSetEntries.put((NamedParameterNode<Set<?>>) namespace.getNode(iface), impl);
+    final NamedParameterNode<Set<?>> ifaceNode = (NamedParameterNode<Set<?>>) namespace.getNode(iface);
+    boundSetEntries.put(ifaceNode, impl);
+    addFingerprint("set-node", ifaceNode.getFullName(), impl.getFullName());
   }
 
   @SuppressWarnings("unchecked")
@@ -245,6 +382,7 @@ public class ConfigurationBuilderImpl implements ConfigurationBuilder {
       throw new IllegalStateException("Could not parse " + impl + " which was passed to " + iface);
     }
     boundSetEntries.put((NamedParameterNode<Set<?>>) (NamedParameterNode<?>) iface, impl);
+    addFingerprint("set", iface.getFullName(), impl);
   }
 
   @SuppressWarnings("unchecked")
@@ -252,6 +390,7 @@ public class ConfigurationBuilderImpl implements ConfigurationBuilder {
   public <T> void bindSetEntry(NamedParameterNode<Set<T>> iface, Node impl)
       throws BindException {
     boundSetEntries.put((NamedParameterNode<Set<?>>) (NamedParameterNode<?>) iface, impl);
+    addFingerprint("set-node", iface.getFullName(), impl.getFullName());
   }
 
   @SuppressWarnings("unchecked")
@@ -270,6 +409,7 @@ public class ConfigurationBuilderImpl implements ConfigurationBuilder {
       }
     }
     boundLists.put((NamedParameterNode<List<?>>) (NamedParameterNode<?>) iface, implList);
+    addListFingerprint(iface, implList);
   }
 
   @SuppressWarnings("unchecked")
@@ -289,12 +429,37 @@ public class ConfigurationBuilderImpl implements ConfigurationBuilder {
       }
     }
     boundLists.put(ifaceNode, implList);
+    addListFingerprint(ifaceNode, implList);
   }
 
   @Override
   public <T> void bindConstructor(ClassNode<T> k,
                                   ClassNode<? extends ExternalConstructor<? extends T>> v) {
     boundConstructors.put(k, v);
+    addFingerprint("constructor", k.getFullName(), v.getFullName());
+  }
+
+  private void addFingerprint(final String... binding) {
+    fingerprint = fingerprint.plus(Fingerprint.of(binding));
+  }
+
+  private void addListFingerprint(final Node iface, final List<?> implList) {
+    final String[] binding = new String[implList.size() + 2];
+    binding[0] = "list";
+    binding[1] = iface.getFullName();
+    for (int i = 0; i < implList.size(); i++) {
+      final Object item = implList.get(i);
+      binding[i + 2] = item instanceof Node ? "node:" + ((Node) item).getFullName() : "string:" + item;
+    }
+    addFingerprint(binding);
+  }
+
+  /**
+   * @return a fingerprint of the bindings in this builder.  Builders that are
+   * equal() have equal fingerprints.
+   */
+  public Fingerprint getFingerprint() {
+    return fingerprint;
   }
 
   @Override
@@ -341,6 +506,11 @@ public class ConfigurationBuilderImpl implements ConfigurationBuilder {
 
     ConfigurationBuilderImpl that = (ConfigurationBuilderImpl) o;
 
+    // Cheap negative check; equal builders always have equal fingerprints.
+    if (!fingerprint.equals(that.fingerprint)) {
+      return false;
+    }
+
     if (boundConstructors != null ? !boundConstructors.equals(that.boundConstructors) : that.boundConstructors != null) {
       return false;
     }
@@ -365,12 +535,6 @@ public class ConfigurationBuilderImpl implements ConfigurationBuilder {
 
   @Override
   public int hashCode() {
-    int result = boundImpls != null ? boundImpls.hashCode() : 0;
-    result = 31 * result + (boundConstructors != null ? boundConstructors.hashCode() : 0);
-    result = 31 * result + (namedParameters != null ? namedParameters.hashCode() : 0);
-    result = 31 * result + (legacyConstructors != null ? legacyConstructors.hashCode() : 0);
-    result = 31 * result + (boundSetEntries != null ? boundSetEntries.hashCode() : 0);
-    result = 31 * result + (boundLists != null ? boundLists.hashCode() : 0);
-    return result;
+    return fingerprint.hashCode();
   }
 }
@@ -22,6 +22,7 @@ import com.microsoft.tang.ExternalConstructor;
 import com.microsoft.tang.types.ClassNode;
 import com.microsoft.tang.types.ConstructorDef;
 import com.microsoft.tang.types.NamedParameterNode;
+import com.microsoft.tang.util.Fingerprint;
 
 import java.util.Iterator;
 import java.util.List;
@@ -35,6 +36,13 @@ public class ConfigurationImpl implements Configuration {
     this.builder = builder;
   }
 
+  /**
+   * @return the builder holding this Configuration's bindings, fully populated.
+   */
+  ConfigurationBuilderImpl getBuilder() {
+    return builder;
+  }
+
   @Override
   public String getNamedParameter(final NamedParameterNode<?> np) {
     return builder.namedParameters.get(np);
@@ -113,6 +121,11 @@ public class ConfigurationImpl implements Configuration {
   @Override
   public Set<NamedParameterNode<List<?>>> getBoundLists() { return builder.boundLists.keySet(); }
 
+  @Override
+  public Fingerprint getFingerprint() {
+    return builder.getFingerprint();
+  }
+
   @Override
   public boolean equals(Object o) {
     if (this == o) {
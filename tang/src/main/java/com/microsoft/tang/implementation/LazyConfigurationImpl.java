@@ -0,0 +1,301 @@
+/**
+ * Copyright (C) 2014 Microsoft Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.microsoft.tang.implementation;
+
+import com.microsoft.tang.ClassHierarchy;
+import com.microsoft.tang.ConfigurationBuilder;
+import com.microsoft.tang.ExternalConstructor;
+import com.microsoft.tang.exceptions.BindException;
+import com.microsoft.tang.implementation.java.ClassHierarchyImpl;
+import com.microsoft.tang.types.ClassNode;
+import com.microsoft.tang.types.ConstructorDef;
+import com.microsoft.tang.types.NamedParameterNode;
+import com.microsoft.tang.types.Node;
+import com.microsoft.tang.util.Fingerprint;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+
+/**
+ * A Configuration whose bindings are kept as unparsed key / value strings
+ * until they are needed.
+ * <p/>
+ * Binding a string key resolves nodes in the ClassHierarchy (and, for a Java
+ * ClassHierarchy, may load classes) and parses the value.  A process that
+ * injects a handful of objects from a large configuration pays for all of
+ * that up front when the configuration is deserialized eagerly.  Here, the
+ * bindings for a key are resolved and checked the first time the key is
+ * looked up through one of the per-node getters, which is what the injector
+ * does.  The getters that enumerate bindings, getFingerprint() and
+ * newBuilder() need the whole configuration and validate everything first.
+ * <p/>
+ * Errors in a binding surface as a BindException from the first lookup that
+ * touches it, and from every later one.  Call validateAll() to check the
+ * entire configuration eagerly.
+ * <p/>
+ * Binding a class registers it with a Java ClassHierarchy, which adds it to
+ * the known implementations of its interfaces, and so changes injection
+ * plans even for keys this configuration doesn't bind.  The classes named by
+ * the bindings are therefore registered up front, just as an eager read
+ * would; only parsing and checking the bindings is deferred.
+ * <p/>
+ * Keys must be node full names, as written by the serializers; short names
+ * from import statements have to be expanded before handing the bindings in.
+ */
+public final class LazyConfigurationImpl extends ConfigurationImpl {
+
+  /**
+   * Unresolved bindings, in the order they were read.  Set-valued keys may
+   * carry several values.
+   */
+  private final Map<String, List<String>> pending;
+
+  /**
+   * Keys whose bindings could not be applied, with the reason.
+   */
+  private final Map<String, BindException> failed = new LinkedHashMap<>();
+
+  /**
+   * @param namespace the ClassHierarchy the bindings are checked against.
+   * @param bindings  map from node full names to the unparsed values bound to
+   *                  them.  The map is copied.
+   */
+  public LazyConfigurationImpl(final ClassHierarchy namespace, final Map<String, List<String>> bindings) {
+    super(new ConfigurationBuilderImpl(namespace));
+    this.pending = new LinkedHashMap<>(bindings.size());
+    for (final Entry<String, List<String>> e : bindings.entrySet()) {
+      this.pending.put(e.getKey(), new ArrayList<>(e.getValue()));
+      if (namespace instanceof ClassHierarchyImpl) {
+        register((ClassHierarchyImpl) namespace, e.getKey(), e.getValue());
+      }
+    }
+  }
+
+  /**
+   * Register the classes that binding key to values would register.  Any
+   * error is left for apply() to report.
+   */
+  private static void register(final ClassHierarchyImpl namespace, final String key, final List<String> values) {
+    final Node n;
+    try {
+      n = namespace.getNode(key);
+    } catch (final RuntimeException e) {
+      return;
+    }
+    for (final String value : values) {
+      try {
+        if (value.startsWith(ConfigurationBuilderImpl.INIT)) {
+          for (final String arg : legacyConstructorArgs(value)) {
+            namespace.getNode(arg);
+          }
+        } else if (n instanceof ClassNode
+            || (n instanceof NamedParameterNode
+                && !namespace.parameterParser.canParse(((NamedParameterNode<?>) n).getFullArgName()))) {
+          // Values of named parameters that can't be parsed name classes.
+          namespace.getNode(value);
+        }
+      } catch (final RuntimeException e) {
+        // Reported by apply().
+      }
+    }
+  }
+
+  private static String[] legacyConstructorArgs(final String value) {
+    return value.substring(ConfigurationBuilderImpl.INIT.length(), value.length())
+        .replaceAll("^[\\s\\(]+", "")
+        .replaceAll("[\\s\\)]+$", "")
+        .split("[\\s\\-]+");
+  }
+
+  /**
+   * Resolve and check every binding that has not been looked up yet.
+   *
+   * @throws BindException if any binding is invalid.
+   */
+  public synchronized void validateAll() throws BindException {
+    resolveAll();
+    if (!failed.isEmpty()) {
+      throw failed.values().iterator().next();
+    }
+  }
+
+  /**
+   * Resolve every binding that has not been looked up yet, recording the
+   * ones that fail.
+   */
+  private synchronized void resolveAll() {
+    final Iterator<String> keys = pending.keySet().iterator();
+    while (keys.hasNext()) {
+      final String key = keys.next();
+      final List<String> values = pending.get(key);
+      keys.remove();
+      apply(key, values);
+    }
+  }
+
+  /**
+   * @return the number of keys whose bindings have not been resolved yet.
+   */
+  public synchronized int getUnresolvedCount() {
+    return pending.size();
+  }
+
+  private void resolve(final Node n) throws BindException {
+    final String key = n.getFullName();
+    final List<String> values = pending.remove(key);
+    if (values != null) {
+      apply(key, values);
+    }
+    final BindException e = failed.get(key);
+    if (e != null) {
+      throw e;
+    }
+  }
+
+  private void apply(final String key, final List<String> values) {
+    for (final String value : values) {
+      try {
+        if (value.startsWith(ConfigurationBuilderImpl.INIT)) {
+          builder.registerLegacyConstructor(key, legacyConstructorArgs(value));
+        } else {
+          builder.bind(key, value);
+        }
+      } catch (final RuntimeException e) {
+        // Besides BindException and ClassHierarchyException, parsers report
+        // malformed values with e.g. NumberFormatException.
+        failed.put(key, new BindException("Failed to process configuration tuple: [" + key + "=" + value + "]", e));
+        return;
+      }
+    }
+  }
+
+  @Override
+  ConfigurationBuilderImpl getBuilder() {
+    validateAll();
+    return builder;
+  }
+
+  @Override
+  public synchronized String getNamedParameter(final NamedParameterNode<?> np) {
+    resolve(np);
+    return super.getNamedParameter(np);
+  }
+
+  @Override
+  public synchronized <T> ClassNode<ExternalConstructor<T>> getBoundConstructor(final ClassNode<T> cn) {
+    resolve(cn);
+    return super.getBoundConstructor(cn);
+  }
+
+  @Override
+  public synchronized <T> ClassNode<T> getBoundImplementation(final ClassNode<T> cn) {
+    resolve(cn);
+    return super.getBoundImplementation(cn);
+  }
+
+  @Override
+  public synchronized <T> ConstructorDef<T> getLegacyConstructor(final ClassNode<T> cn) {
+    resolve(cn);
+    return super.getLegacyConstructor(cn);
+  }
+
+  @Override
+  public synchronized Set<Object> getBoundSet(final NamedParameterNode<Set<?>> np) {
+    resolve(np);
+    return super.getBoundSet(np);
+  }
+
+  @Override
+  public synchronized List<Object> getBoundList(final NamedParameterNode<List<?>> np) {
+    resolve(np);
+    return super.getBoundList(np);
+  }
+
+  @Override
+  public Set<ClassNode<?>> getBoundImplementations() {
+    validateAll();
+    return super.getBoundImplementations();
+  }
+
+  @Override
+  public Set<ClassNode<?>> getBoundConstructors() {
+    validateAll();
+    return super.getBoundConstructors();
+  }
+
+  @Override
+  public Set<NamedParameterNode<?>> getNamedParameters() {
+    validateAll();
+    return super.getNamedParameters();
+  }
+
+  @Override
+  public Set<ClassNode<?>> getLegacyConstructors() {
+    validateAll();
+    return super.getLegacyConstructors();
+  }
+
+  @Override
+  public Iterable<Entry<NamedParameterNode<Set<?>>, Object>> getBoundSets() {
+    validateAll();
+    return super.getBoundSets();
+  }
+
+  @Override
+  public Set<NamedParameterNode<List<?>>> getBoundLists() {
+    validateAll();
+    return super.getBoundLists();
+  }
+
+  @Override
+  public Fingerprint getFingerprint() {
+    validateAll();
+    return super.getFingerprint();
+  }
+
+  @Override
+  public ConfigurationBuilder newBuilder() {
+    validateAll();
+    return super.newBuilder();
+  }
+
+  /**
+   * Equality and hash codes depend on every binding, so they resolve the
+   * pending ones first; otherwise the hash code would change as bindings
+   * are looked up.  Bindings that fail to resolve take no part, and are not
+   * reported here, so that an invalid Configuration can still be put in a
+   * HashMap.
+   */
+  @Override
+  public boolean equals(final Object o) {
+    resolveAll();
+    if (o instanceof LazyConfigurationImpl) {
+      ((LazyConfigurationImpl) o).resolveAll();
+    }
+    return super.equals(o);
+  }
+
+  @Override
+  public int hashCode() {
+    resolveAll();
+    return super.hashCode();
+  }
+}
@@ -39,6 +39,12 @@ public class TangImpl implements Tang {
 
   @Override
   public Injector newInjector(Configuration... confs) throws BindException {
+    if (confs.length == 1 && confs[0] instanceof LazyConfigurationImpl
+        && confs[0].getClassHierarchy() == getDefaultClassHierarchy()) {
+      // Copying the configuration would resolve all of its bindings; the
+      // injector looks them up one at a time instead.
+      return new InjectorImpl(confs[0]);
+    }
     return new InjectorImpl(new JavaConfigurationBuilderImpl(confs).build());
   }
 
@@ -120,7 +126,7 @@ public class TangImpl implements Tang {
    * it to rebuild them over time.
    * 
    */
-  public static void reset() {
+  public static synchronized void reset() {
    defaultClassHierarchy = new HashMap<>(); //new ClassHierarchyImpl();
   }
   @SuppressWarnings("unchecked")
@@ -131,13 +137,15 @@ public class TangImpl implements Tang {
   @Override
   public JavaClassHierarchy getDefaultClassHierarchy(URL[] jars, Class<? extends ExternalConstructor<?>>[] parameterParsers) {
     SetValuedKey key = new SetValuedKey(jars, parameterParsers);
-    
-    JavaClassHierarchy ret = defaultClassHierarchy.get(key);
-    if(ret == null) {
-      ret = new ClassHierarchyImpl(jars, parameterParsers);
-      defaultClassHierarchy.put(key, ret);
+
+    synchronized (TangImpl.class) {
+      JavaClassHierarchy ret = defaultClassHierarchy.get(key);
+      if(ret == null) {
+        ret = new ClassHierarchyImpl(jars, parameterParsers);
+        defaultClassHierarchy.put(key, ret);
+      }
+      return ret;
     }
-    return ret;
   }
 
   @Override
@@ -23,6 +23,8 @@ import java.util.Arrays;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import com.microsoft.tang.ClassHierarchy;
 import com.microsoft.tang.ExternalConstructor;
@@ -40,6 +42,7 @@ import com.microsoft.tang.types.ConstructorDef;
 import com.microsoft.tang.types.NamedParameterNode;
 import com.microsoft.tang.types.Node;
 import com.microsoft.tang.types.PackageNode;
+import com.microsoft.tang.util.Fingerprint;
 import com.microsoft.tang.util.MonotonicTreeMap;
 import com.microsoft.tang.util.ReflectionUtilities;
 
@@ -70,12 +73,23 @@ public class ClassHierarchyImpl implements JavaClassHierarchy {
    * sanity check short names so that name clashes get resolved.
    */
   private final Map<String, NamedParameterNode<?>> shortNames = new MonotonicTreeMap<>();
+  /**
+   * The nodes returned by getNode(String) so far, by the name they were
+   * looked up with.  Nodes are never removed from the hierarchy, so entries
+   * never go stale.
+   */
+  private final ConcurrentMap<String, Node> resolved = new ConcurrentHashMap<>();
   /**
    * The ParameterParser that this ClassHierarchy uses to parse default values.
    * Custom parameter parsers allow applications to extend the set of classes
    * that Tang can parse.
    */
   public final ParameterParser parameterParser = new ParameterParser();
+  /**
+   * Fingerprint of the jars and of the nodes registered so far.  Updated as
+   * registerClass() adds nodes and implementation edges.
+   */
+  private Fingerprint fingerprint = Fingerprint.EMPTY;
 
   /**
    * A helper method that returns the parsed default value of a given
@@ -180,6 +194,9 @@ public class ClassHierarchyImpl implements JavaClassHierarchy {
   public ClassHierarchyImpl(URL[] jars, Class<? extends ExternalConstructor<?>>[] parameterParsers) {
     this.namespace = JavaNodeFactory.createRootPackageNode();
     this.jars = new ArrayList<>(Arrays.asList(jars));
+    for (URL jar : new HashSet<>(this.jars)) {
+      fingerprint = fingerprint.plus(Fingerprint.of("jar", jar.toString()));
+    }
     this.loader = new URLClassLoader(jars, this.getClass().getClassLoader());
     for(Class<? extends ExternalConstructor<?>> p : parameterParsers) {
       try {
@@ -250,8 +267,23 @@ public class ClassHierarchyImpl implements JavaClassHierarchy {
           + " which is definitely avalable at runtime", e);
     }
   }
+  /**
+   * Looks up a node by name.  Names that were resolved before are answered
+   * from a concurrent map without taking the lock, so that threads sharing
+   * this ClassHierarchy do not serialize on lookups of known classes.  The
+   * nodes returned may still gain children and known implementations as
+   * other classes are registered; AbstractNode and ClassNodeImpl publish
+   * those safely to readers that don't hold the lock.
+   */
   @Override
-  public synchronized Node getNode(String name) throws NameResolutionException {
+  public Node getNode(String name) throws NameResolutionException {
+    final Node n = resolved.get(name);
+    if (n != null) {
+      return n;
+    }
+    return registerNode(name);
+  }
+  private synchronized Node registerNode(String name) throws NameResolutionException {
     Node n = register(name);
     if(n == null) {
       // This will never succeed; it just generates a nice exception.
@@ -259,6 +291,7 @@ public class ClassHierarchyImpl implements JavaClassHierarchy {
       throw new IllegalStateException("IMPLEMENTATION BUG: Register failed, "
         + "but getAlreadyBoundNode succeeded!");
     }
+    resolved.put(name, n);
     return n;
   }
   private Node getAlreadyBoundNode(String name) throws NameResolutionException {
@@ -385,20 +418,25 @@ public class ClassHierarchyImpl implements JavaClassHierarchy {
     }
 
     final Node n = buildPathToNode(c);
+    // Fingerprint the names of the classes, which are kept by the classes
+    // anyway, rather than make the nodes build theirs.
+    final String fullName = ReflectionUtilities.getFullName(c);
+    fingerprint = fingerprint.plus(Fingerprint.of(
+        n instanceof NamedParameterNode ? "named-parameter" : "class", fullName));
 
     if (n instanceof ClassNode) {
       ClassNode<T> cn = (ClassNode<T>) n;
       Class<T> superclass = (Class<T>) c.getSuperclass();
       if (superclass != null) {
         try {
-          ((ClassNode<T>) getAlreadyBoundNode(superclass)).putImpl(cn);
+          putImpl((ClassNode<T>) getAlreadyBoundNode(superclass), superclass, cn, fullName);
         } catch (NameResolutionException e) {
           throw new IllegalStateException(e);
         }
       }
       for (Class<?> interf : c.getInterfaces()) {
         try {
-          ((ClassNode<T>) getAlreadyBoundNode(interf)).putImpl(cn);
+          putImpl((ClassNode<T>) getAlreadyBoundNode(interf), interf, cn, fullName);
         } catch (NameResolutionException e) {
           throw new IllegalStateException(e);
         }
@@ -406,11 +444,22 @@ public class ClassHierarchyImpl implements JavaClassHierarchy {
     }
     return n;
   }
+  private <T> void putImpl(final ClassNode<T> iface, final Class<?> ifaceClass,
+                           final ClassNode<T> impl, final String implName) {
+    iface.putImpl(impl);
+    fingerprint = fingerprint.plus(Fingerprint.of("impl", ReflectionUtilities.getFullName(ifaceClass), implName));
+  }
+
   @Override
   public PackageNode getNamespace() {
     return namespace;
   }
 
+  @Override
+  public synchronized Fingerprint getFingerprint() {
+    return fingerprint;
+  }
+
   @Override
   public synchronized boolean isImplementation(ClassNode<?> inter, ClassNode<?> impl) {
     return impl.isImplementationOf(inter);
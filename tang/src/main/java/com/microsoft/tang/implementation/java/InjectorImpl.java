@@ -31,6 +31,11 @@ import java.util.*;
 public class InjectorImpl implements Injector {
   final Map<ClassNode<?>, Object> instances = new TracingMonotonicTreeMap<>();
   final Map<NamedParameterNode<?>, Object> namedParameterInstances = new TracingMonotonicTreeMap<>();
+  /**
+   * The constructor plans that produced the entries of instances.  Instances
+   * bound with bindVolatileInstance() have no entry here.
+   */
+  final Map<ClassNode<?>, InjectionPlan<?>> instancePlans = new HashMap<>();
 
   private boolean concurrentModificationGuard = false;
 
@@ -44,6 +49,18 @@ public class InjectorImpl implements Injector {
   private final ClassHierarchy namespace;
   private final JavaClassHierarchy javaNamespace;
   private final Set<InjectionFuture<?>> pendingFutures = new HashSet<>();
+  /**
+   * Injection plans built so far, keyed by the node they inject.  Plans only
+   * depend on the (immutable) configuration and on the volatile bindings of
+   * this injector, so they are reused across calls to getInstance().
+   */
+  private final Map<Node, InjectionPlan<?>> planCache = new HashMap<>();
+  /**
+   * Reverse edges of the cached plans: for each node, the nodes whose cached
+   * plans embed the plan of that node.  Used to invalidate only the affected
+   * plans when a volatile binding is added.
+   */
+  private final Map<Node, Set<Node>> planDependents = new HashMap<>();
   private Aspect aspect;
   static final InjectionPlan<?> BUILDING = new InjectionPlan<Object>(null) {
     @Override
@@ -117,7 +134,7 @@ public class InjectorImpl implements Injector {
    * a g in candidateConstructors s.t. g.isMoreSpecificThan(f).
    */
   private <T> List<InjectionPlan<T>> filterCandidateConstructors(
-      List<ClassNode<T>> candidateImplementations,
+      ClassNode<T> cn, List<ClassNode<T>> candidateImplementations,
       Map<Node, InjectionPlan<?>> memo) {
 
     List<InjectionPlan<T>> sub_ips = new ArrayList<>();
@@ -138,8 +155,9 @@ public class InjectorImpl implements Injector {
           if (!arg.isInjectionFuture()) {
             try {
               Node argNode = namespace.getNode(arg.getName());
-              buildInjectionPlan(argNode, memo);
-              args.add(memo.get(argNode));
+              // The plans built here are embedded in the plan of cn, not
+              // cached under thisCN, so cn is what depends on argNode.
+              args.add(buildSubplan(cn, argNode, memo));
             } catch (NameResolutionException e) {
               throw new IllegalStateException("Detected unresolvable "
                   + "constructor arg while building injection plan.  "
@@ -208,15 +226,12 @@ public class InjectorImpl implements Injector {
     if (cachedInstance != null) {
       return new JavaInstance<T>(cn, cachedInstance);
     } else if (externalConstructor != null) {
-      buildInjectionPlan(externalConstructor, memo);
-      return new Subplan<>(cn, 0, (InjectionPlan<T>) memo.get(externalConstructor));
+      return new Subplan<>(cn, 0, (InjectionPlan<T>) buildSubplan(cn, externalConstructor, memo));
     } else if (boundImpl != null && !cn.equals(boundImpl)) {
       // We need to delegate to boundImpl, so recurse.
-      buildInjectionPlan(boundImpl, memo);
-      return new Subplan<>(cn, 0, (InjectionPlan<T>) memo.get(boundImpl));
+      return new Subplan<>(cn, 0, (InjectionPlan<T>) buildSubplan(cn, boundImpl, memo));
     } else if (defaultImpl != null && !cn.equals(defaultImpl)) {
-      buildInjectionPlan(defaultImpl, memo);
-      return new Subplan<>(cn, 0, (InjectionPlan<T>) memo.get(defaultImpl));
+      return new Subplan<>(cn, 0, (InjectionPlan<T>) buildSubplan(cn, defaultImpl, memo));
     } else {
       // if we're here and there is a bound impl or a default impl,
       // then we're bound / defaulted to ourselves, so don't add
@@ -226,7 +241,7 @@ public class InjectorImpl implements Injector {
         candidateImplementations.addAll(cn.getKnownImplementations());
       }
       candidateImplementations.add(cn);
-      List<InjectionPlan<T>> sub_ips = filterCandidateConstructors(candidateImplementations, memo);
+      List<InjectionPlan<T>> sub_ips = filterCandidateConstructors(cn, candidateImplementations, memo);
       if (candidateImplementations.size() == 1
           && candidateImplementations.get(0).getFullName()
           .equals(cn.getFullName())) {
@@ -360,15 +375,13 @@ public class InjectorImpl implements Injector {
       final T instance = boundInstance != null ? boundInstance : defaultInstance;
 
       if (instance instanceof Node) {
-        buildInjectionPlan((Node) instance, memo);
-        ip = new Subplan<T>(n, 0, (InjectionPlan<T>) memo.get(instance));
+        ip = new Subplan<T>(n, 0, (InjectionPlan<T>) buildSubplan(n, (Node) instance, memo));
       } else if (instance instanceof Set) {
         Set<T> entries = (Set<T>) instance;
         Set<InjectionPlan<T>> plans = new MonotonicHashSet<>();
         for (T entry : entries) {
           if (entry instanceof ClassNode) {
-            buildInjectionPlan((ClassNode<?>) entry, memo);
-            plans.add((InjectionPlan<T>) memo.get(entry));
+            plans.add((InjectionPlan<T>) buildSubplan(n, (ClassNode<?>) entry, memo));
           } else {
             plans.add(new JavaInstance<T>(n, entry));
           }
@@ -380,8 +393,7 @@ public class InjectorImpl implements Injector {
         List<InjectionPlan<T>> plans = new ArrayList<>();
         for (T entry : entries) {
           if (entry instanceof ClassNode) {
-            buildInjectionPlan((ClassNode<?>) entry, memo);
-            plans.add((InjectionPlan<T>) memo.get(entry));
+            plans.add((InjectionPlan<T>) buildSubplan(n, (ClassNode<?>) entry, memo));
           } else {
             plans.add(new JavaInstance<T>(n, entry));
           }
@@ -410,6 +422,42 @@ public class InjectorImpl implements Injector {
     memo.put(n, ip);
   }
 
+  /**
+   * Build the plan for child, and record that the plan of parent embeds it.
+   *
+   * @return the plan for child.
+   */
+  private InjectionPlan<?> buildSubplan(final Node parent, final Node child,
+                                        Map<Node, InjectionPlan<?>> memo) {
+    buildInjectionPlan(child, memo);
+    Set<Node> dependents = planDependents.get(child);
+    if (dependents == null) {
+      dependents = new HashSet<>();
+      planDependents.put(child, dependents);
+    }
+    dependents.add(parent);
+    return memo.get(child);
+  }
+
+  /**
+   * Drop the cached plan of n, along with the cached plans of every node
+   * whose plan (transitively) embeds it.  Unrelated plans stay cached.
+   */
+  private void invalidateInjectionPlans(final Node n) {
+    final Deque<Node> work = new ArrayDeque<>();
+    work.push(n);
+    while (!work.isEmpty()) {
+      final Node m = work.pop();
+      planCache.remove(m);
+      final Set<Node> dependents = planDependents.remove(m);
+      if (dependents != null) {
+        for (Node d : dependents) {
+          work.push(d);
+        }
+      }
+    }
+  }
+
   /**
    * Return an injection plan for the given class / parameter name.
    *
@@ -418,9 +466,24 @@ public class InjectorImpl implements Injector {
    * @throws NameResolutionException
    */
   public InjectionPlan<?> getInjectionPlan(final Node n) {
-    Map<Node, InjectionPlan<?>> memo = new HashMap<>();
-    buildInjectionPlan(n, memo);
-    return memo.get(n);
+    final InjectionPlan<?> cached = planCache.get(n);
+    if (cached != null) {
+      return cached;
+    }
+    try {
+      buildInjectionPlan(n, planCache);
+    } catch (RuntimeException e) {
+      // Don't leave half-built plans behind; the next attempt should
+      // report the same error.
+      final Iterator<InjectionPlan<?>> i = planCache.values().iterator();
+      while (i.hasNext()) {
+        if (i.next() == BUILDING) {
+          i.remove();
+        }
+      }
+      throw e;
+    }
+    return planCache.get(n);
   }
 
   @Override
@@ -605,6 +668,7 @@ public class InjectorImpl implements Injector {
           ret = ((ExternalConstructor<T>) ret).newInstance();
         }
         instances.put(constructor.getNode(), ret);
+        instancePlans.put(constructor.getNode(), constructor);
         return ret;
       } catch (ReflectiveOperationException e) {
         throw new InjectionException("Could not invoke constructor: " + plan, e instanceof InvocationTargetException ? e.getCause() : e);
@@ -656,6 +720,10 @@ public class InjectorImpl implements Injector {
         ClassNode<?> new_cn = (ClassNode<?>) i.namespace.getNode(cn
             .getFullName());
         i.instances.put(new_cn, old.instances.get(cn));
+        final InjectionPlan<?> plan = old.instancePlans.get(cn);
+        if (plan != null) {
+          i.instancePlans.put(new_cn, plan);
+        }
       } catch (BindException e) {
         throw new IllegalStateException("Could not resolve name "
             + cn.getFullName() + " when copying injector");
@@ -677,6 +745,90 @@ public class InjectorImpl implements Injector {
     return i;
   }
 
+  /**
+   * Create an injector for newConfiguration that keeps the instances of old
+   * that do not depend on any of the bindings named in changedNames.
+   * <p/>
+   * An instance is discarded (and will be re-injected on demand) if the plan
+   * that created it mentions a changed binding, mentions an instance that is
+   * itself discarded, or hands out an InjectionFuture or the Injector (both
+   * of which would keep resolving against the old injector).  Instances bound
+   * with bindVolatileInstance() are always kept, as they are by
+   * forkInjector().  Parsed named parameters are kept unless they changed.
+   */
+  static InjectorImpl reload(final InjectorImpl old, final Configuration newConfiguration,
+                             final Set<String> changedNames) throws BindException {
+    final InjectorImpl i = new InjectorImpl(newConfiguration);
+    final Map<ClassNode<?>, Boolean> staleMemo = new HashMap<>();
+    for (ClassNode<?> cn : old.instances.keySet()) {
+      if (old.isStale(cn, changedNames, staleMemo)) {
+        continue;
+      }
+      final ClassNode<?> new_cn = (ClassNode<?>) i.namespace.getNode(cn.getFullName());
+      i.instances.put(new_cn, old.instances.get(cn));
+      final InjectionPlan<?> plan = old.instancePlans.get(cn);
+      if (plan != null) {
+        i.instancePlans.put(new_cn, plan);
+      }
+    }
+    for (NamedParameterNode<?> np : old.namedParameterInstances.keySet()) {
+      if (!changedNames.contains(np.getFullName())) {
+        final NamedParameterNode<?> new_np = (NamedParameterNode<?>) i.namespace
+            .getNode(np.getFullName());
+        i.namedParameterInstances.put(new_np, old.namedParameterInstances.get(np));
+      }
+    }
+    if (old.aspect != null) {
+      i.bindAspect(old.aspect.createChildAspect());
+    }
+    return i;
+  }
+
+  /**
+   * @return true if the cached instance of cn was built from a plan that
+   * touches one of changedNames.  Results are memoized in memo.
+   */
+  private boolean isStale(final ClassNode<?> cn, final Set<String> changedNames,
+                          final Map<ClassNode<?>, Boolean> memo) {
+    final Boolean known = memo.get(cn);
+    if (known != null) {
+      return known;
+    }
+    final InjectionPlan<?> root = instancePlans.get(cn);
+    if (root == null) {
+      // Bound by bindVolatileInstance().
+      memo.put(cn, false);
+      return false;
+    }
+    // Provisional answer, in case the walk below comes back to cn.
+    memo.put(cn, false);
+    boolean stale = false;
+    final Set<InjectionPlan<?>> visited = Collections.newSetFromMap(new IdentityHashMap<InjectionPlan<?>, Boolean>());
+    final Deque<InjectionPlan<?>> work = new ArrayDeque<>();
+    work.push(root);
+    while (!stale && !work.isEmpty()) {
+      final InjectionPlan<?> plan = work.pop();
+      if (!visited.add(plan)) {
+        continue;
+      }
+      final Node n = plan.getNode();
+      if (changedNames.contains(n.getFullName())
+          || plan instanceof InjectionFuturePlan
+          || n.getFullName().equals(ReflectionUtilities.getFullName(Injector.class))) {
+        stale = true;
+      } else if (plan != root && n instanceof ClassNode && instances.containsKey(n)
+          && isStale((ClassNode<?>) n, changedNames, memo)) {
+        stale = true;
+      } else {
+        for (InjectionPlan<?> child : plan.getChildren()) {
+          work.push(child);
+        }
+      }
+    }
+    memo.put(cn, stale);
+    return stale;
+  }
+
   @Override
   public <T> void bindVolatileInstance(Class<T> c, T o) throws BindException {
     bindVolatileInstanceNoCopy(c, o);
@@ -699,6 +851,7 @@ public class InjectorImpl implements Injector {
             + old + " new value is " + o);
       }
       instances.put(cn, o);
+      invalidateInjectionPlans(cn);
     } else {
       throw new IllegalArgumentException("Expected Class but got " + c
           + " (probably a named parameter).");
@@ -725,6 +878,7 @@ public class InjectorImpl implements Injector {
                 + "] new value is [" + o + "]");
 
       }
+      invalidateInjectionPlans(np);
     } else {
       throw new IllegalArgumentException("Expected Name, got " + c
           + " (probably a class)");
@@ -0,0 +1,295 @@
+/**
+ * Copyright (C) 2014 Microsoft Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.microsoft.tang.implementation.java;
+
+import com.microsoft.tang.Configuration;
+import com.microsoft.tang.Injector;
+import com.microsoft.tang.exceptions.BindException;
+import com.microsoft.tang.exceptions.InjectionException;
+import com.microsoft.tang.formats.ConfigurationSerializer;
+import com.microsoft.tang.types.ClassNode;
+import com.microsoft.tang.types.ConstructorArg;
+import com.microsoft.tang.types.NamedParameterNode;
+import com.microsoft.tang.types.Node;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.*;
+import java.util.Map.Entry;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * An Injector backed by a serialized Configuration file that can be reloaded
+ * while the application runs.
+ * <p/>
+ * On reload, the new Configuration is compared against the current one, and
+ * only the singletons whose injection plans touch a changed binding are
+ * discarded; every other instance is carried over to the new Injector.
+ * Listeners registered for a class are handed the new instance of that class
+ * whenever a reload replaced it.
+ * <p/>
+ * Callers should not hold on to the Injector returned by getInjector() across
+ * reloads.
+ */
+public final class ReloadableInjector implements Closeable {
+
+  private static final Logger LOG = Logger.getLogger(ReloadableInjector.class.getName());
+
+  /**
+   * Receives the instances rebuilt by a reload.
+   */
+  public interface Listener<T> {
+    void onReload(T newInstance);
+  }
+
+  private final ConfigurationSerializer serializer;
+  private final File file;
+  private final boolean textFile;
+  private final Map<Class<?>, List<Listener<?>>> listeners = new LinkedHashMap<>();
+  private final Map<Class<?>, Object> published = new HashMap<>();
+
+  private Configuration configuration;
+  private InjectorImpl injector;
+  private WatchService watchService;
+  private Thread watcher;
+
+  /**
+   * @param serializer the serializer the file was written with.
+   * @param file       a file written by serializer.toFile(), or by toTextFile() if textFile is set.
+   * @param textFile   whether to read the file with fromTextFile() rather than fromFile().
+   */
+  public ReloadableInjector(final ConfigurationSerializer serializer, final File file,
+                            final boolean textFile) throws IOException, BindException {
+    this.serializer = serializer;
+    this.file = file;
+    this.textFile = textFile;
+    this.configuration = read();
+    this.injector = new InjectorImpl(configuration);
+  }
+
+  private Configuration read() throws IOException, BindException {
+    return textFile ? serializer.fromTextFile(file) : serializer.fromFile(file);
+  }
+
+  /**
+   * @return the Injector for the most recently loaded Configuration.
+   */
+  public synchronized Injector getInjector() {
+    return injector;
+  }
+
+  public synchronized Configuration getConfiguration() {
+    return configuration;
+  }
+
+  public synchronized <T> T getInstance(final Class<T> clazz) throws InjectionException {
+    return injector.getInstance(clazz);
+  }
+
+  /**
+   * Register a listener for instances of clazz.  The current instance is
+   * injected immediately; the listener is only called for later reloads that
+   * replace it.
+   */
+  public synchronized <T> void addListener(final Class<T> clazz, final Listener<T> listener)
+      throws InjectionException {
+    List<Listener<?>> l = listeners.get(clazz);
+    if (l == null) {
+      l = new ArrayList<>();
+      listeners.put(clazz, l);
+      published.put(clazz, injector.getInstance(clazz));
+    }
+    l.add(listener);
+  }
+
+  /**
+   * Re-read the configuration file, and swap in an Injector for it.  The
+   * instances for all listeners are injected before the swap, so a failed
+   * reload leaves the current Injector in place and notifies no one.
+   * Listeners are called after the swap, without holding the lock of this
+   * ReloadableInjector.
+   *
+   * @return the full names of the bindings that changed.  If this is empty,
+   * the current Injector is left in place.
+   */
+  @SuppressWarnings("unchecked")
+  public Set<String> reload() throws IOException, BindException, InjectionException {
+    final Set<String> changed;
+    final List<Listener<?>> notify = new ArrayList<>();
+    final List<Object> instances = new ArrayList<>();
+    synchronized (this) {
+      final Configuration newConfiguration = read();
+      changed = changedNames(configuration, newConfiguration);
+      if (changed.isEmpty()) {
+        return changed;
+      }
+      final InjectorImpl newInjector = InjectorImpl.reload(injector, newConfiguration, changed);
+      final Map<Class<?>, Object> newPublished = new HashMap<>();
+      for (Class<?> clazz : listeners.keySet()) {
+        newPublished.put(clazz, newInjector.getInstance(clazz));
+      }
+      injector = newInjector;
+      configuration = newConfiguration;
+      for (Entry<Class<?>, List<Listener<?>>> e : listeners.entrySet()) {
+        final Object instance = newPublished.get(e.getKey());
+        if (instance != published.put(e.getKey(), instance)) {
+          for (Listener<?> listener : e.getValue()) {
+            notify.add(listener);
+            instances.add(instance);
+          }
+        }
+      }
+    }
+    for (int i = 0; i < notify.size(); i++) {
+      ((Listener<Object>) notify.get(i)).onReload(instances.get(i));
+    }
+    return changed;
+  }
+
+  /**
+   * Start watching the configuration file, and reload it whenever it is
+   * created or modified.  Failed reloads are logged, and leave the current
+   * Injector in place.
+   */
+  public synchronized void start() throws IOException {
+    if (watcher != null) {
+      throw new IllegalStateException("Already watching " + file);
+    }
+    final Path dir = file.getAbsoluteFile().toPath().getParent();
+    final Path name = file.toPath().getFileName();
+    watchService = FileSystems.getDefault().newWatchService();
+    dir.register(watchService, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+    final WatchService ws = watchService;
+    watcher = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          while (true) {
+            final WatchKey key = ws.take();
+            boolean touched = false;
+            for (WatchEvent<?> event : key.pollEvents()) {
+              touched |= name.equals(event.context());
+            }
+            if (touched) {
+              try {
+                reload();
+              } catch (IOException | BindException | InjectionException e) {
+                LOG.log(Level.WARNING, "Could not reload " + file, e);
+              }
+            }
+            if (!key.reset()) {
+              return;
+            }
+          }
+        } catch (InterruptedException | ClosedWatchServiceException e) {
+          // close() was called.
+        }
+      }
+    }, "ReloadableInjector-" + file.getName());
+    watcher.setDaemon(true);
+    watcher.start();
+  }
+
+  /**
+   * Stop watching the configuration file.  The current Injector remains usable.
+   */
+  @Override
+  public synchronized void close() throws IOException {
+    if (watcher != null) {
+      watchService.close();
+      watcher.interrupt();
+      watcher = null;
+      watchService = null;
+    }
+  }
+
+  /**
+   * @return the full names of the keys whose bindings differ between a and b.
+   */
+  static Set<String> changedNames(final Configuration a, final Configuration b) {
+    final Map<String, Set<String>> before = bindings(a);
+    final Map<String, Set<String>> after = bindings(b);
+    final Set<String> changed = new TreeSet<>();
+    for (Entry<String, Set<String>> e : before.entrySet()) {
+      if (!e.getValue().equals(after.get(e.getKey()))) {
+        changed.add(e.getKey());
+      }
+    }
+    for (String key : after.keySet()) {
+      if (!before.containsKey(key)) {
+        changed.add(key);
+      }
+    }
+    return changed;
+  }
+
+  /**
+   * Flatten a Configuration into the (tagged) values bound to each key.
+   */
+  @SuppressWarnings("deprecation")
+  private static Map<String, Set<String>> bindings(final Configuration c) {
+    final Map<String, Set<String>> ret = new HashMap<>();
+    for (ClassNode<?> cn : c.getBoundImplementations()) {
+      put(ret, cn, "impl=" + c.getBoundImplementation(cn).getFullName());
+    }
+    for (ClassNode<?> cn : c.getBoundConstructors()) {
+      put(ret, cn, "constructor=" + c.getBoundConstructor(cn).getFullName());
+    }
+    for (NamedParameterNode<?> np : c.getNamedParameters()) {
+      put(ret, np, "value=" + c.getNamedParameter(np));
+    }
+    for (ClassNode<?> cn : c.getLegacyConstructors()) {
+      final StringBuilder sb = new StringBuilder("legacy=");
+      for (ConstructorArg arg : c.getLegacyConstructor(cn).getArgs()) {
+        sb.append(arg.getType()).append(',');
+      }
+      put(ret, cn, sb.toString());
+    }
+    for (Entry<NamedParameterNode<Set<?>>, Object> e : c.getBoundSets()) {
+      put(ret, e.getKey(), "entry=" + toString(e.getValue()));
+    }
+    for (NamedParameterNode<List<?>> np : c.getBoundLists()) {
+      final StringBuilder sb = new StringBuilder("list=");
+      for (Object o : c.getBoundList(np)) {
+        sb.append(toString(o)).append(',');
+      }
+      put(ret, np, sb.toString());
+    }
+    return ret;
+  }
+
+  private static void put(final Map<String, Set<String>> m, final Node key, final String value) {
+    Set<String> values = m.get(key.getFullName());
+    if (values == null) {
+      values = new HashSet<>();
+      m.put(key.getFullName(), values);
+    }
+    values.add(value);
+  }
+
+  private static String toString(final Object o) {
+    return o instanceof Node ? ((Node) o).getFullName() : o.toString();
+  }
+}
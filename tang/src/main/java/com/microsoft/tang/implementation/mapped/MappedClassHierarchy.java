@@ -0,0 +1,525 @@
+/**
+ * Copyright (C) 2014 Microsoft Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.microsoft.tang.implementation.mapped;
+
+import com.microsoft.tang.ClassHierarchy;
+import com.microsoft.tang.exceptions.NameResolutionException;
+import com.microsoft.tang.types.ClassNode;
+import com.microsoft.tang.types.ConstructorArg;
+import com.microsoft.tang.types.ConstructorDef;
+import com.microsoft.tang.types.NamedParameterNode;
+import com.microsoft.tang.types.Node;
+import com.microsoft.tang.types.PackageNode;
+import com.microsoft.tang.util.Fingerprint;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A read-only ClassHierarchy backed by a flat binary layout, typically a
+ * memory mapped file.
+ * <p/>
+ * Executors on the same host that map the same file share one copy of the
+ * hierarchy through the OS page cache, instead of each deserializing a
+ * protocol buffer into its own heap.  Nodes are small views onto the buffer
+ * that are created as they are looked up; nothing else is copied onto the
+ * heap.  Instances only use absolute reads of the buffer, and can be shared
+ * between threads.
+ * <p/>
+ * The layout is written by write(), from any ClassHierarchy.  All integers
+ * are big endian:
+ * <pre>
+ *   header       magic 'T' 'C' 'H' 'M', version, node count, int count,
+ *                string count, the source's fingerprint (two longs), and
+ *                the offsets of the sections below
+ *   node table   one fixed size record per node, the root first
+ *   ints         child lists sorted by key, implementation lists, default
+ *                values, and constructor definitions, as indices
+ *   name index   the ids of all nodes but the root, sorted by full name
+ *   string pool  an offset table and the UTF-8 bytes of every string
+ * </pre>
+ * Like PackageNodeImpl, package nodes key their children by full name, and
+ * other nodes by name.  Keys are sorted by their UTF-8 bytes, so lookups
+ * compare the bytes in the buffer without decoding them.
+ */
+public final class MappedClassHierarchy implements ClassHierarchy {
+
+  private static final byte[] MAGIC = { 'T', 'C', 'H', 'M' };
+  private static final int VERSION = 1;
+  private static final int HEADER_SIZE = 64;
+  private static final Charset UTF8 = Charset.forName("UTF-8");
+
+  static final byte PACKAGE = 0;
+  static final byte CLASS = 1;
+  static final byte NAMED_PARAMETER = 2;
+
+  static final int FLAG_UNIT = 1;
+  static final int FLAG_INJECTION_CANDIDATE = 2;
+  static final int FLAG_EXTERNAL_CONSTRUCTOR = 4;
+  static final int FLAG_SET = 1;
+  static final int FLAG_LIST = 2;
+
+  /*
+   * Node records.  Bytes 0 and 1 hold the kind and the flags, the remaining
+   * fields are ints.  For class nodes, LIST holds the known implementations
+   * and A, B and C the default implementation and the first int and number
+   * of the constructor definitions.  For named parameters, LIST holds the
+   * default values and A to D the documentation, short name, simple and full
+   * argument names.  Strings are string ids, -1 meaning null.
+   */
+  static final int NODE_SIZE = 48;
+  static final int NAME = 4;
+  static final int FULL_NAME = 8;
+  static final int PARENT = 12;
+  static final int CHILD_START = 16;
+  static final int CHILD_COUNT = 20;
+  static final int LIST_START = 24;
+  static final int LIST_COUNT = 28;
+  static final int A = 32;
+  static final int B = 36;
+  static final int C = 40;
+  static final int D = 44;
+
+  private final ByteBuffer buffer;
+  private final int nodeCount;
+  private final Fingerprint fingerprint;
+  private final int nodes;
+  private final int ints;
+  private final int nameIndex;
+  private final int stringOffsets;
+  private final int stringData;
+
+  /**
+   * Map the given file, which must have been produced by write().  The file
+   * is not locked, and must not change while it is mapped.
+   */
+  public static MappedClassHierarchy open(final File file) throws IOException {
+    try (final RandomAccessFile raf = new RandomAccessFile(file, "r");
+         final FileChannel channel = raf.getChannel()) {
+      // The mapping stays valid after the channel is closed.
+      return new MappedClassHierarchy(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+    }
+  }
+
+  /**
+   * @param buffer the layout written by write(), from its position on.
+   */
+  public MappedClassHierarchy(final ByteBuffer buffer) {
+    this.buffer = buffer.slice();
+    final byte[] magic = new byte[MAGIC.length];
+    for (int i = 0; i < magic.length; i++) {
+      magic[i] = this.buffer.get(i);
+    }
+    if (!Arrays.equals(MAGIC, magic)) {
+      throw new IllegalArgumentException("Not a mapped class hierarchy");
+    }
+    final int version = this.buffer.getInt(4);
+    if (version != VERSION) {
+      throw new IllegalArgumentException("Unsupported mapped class hierarchy version " + version);
+    }
+    this.nodeCount = this.buffer.getInt(8);
+    this.fingerprint = new Fingerprint(this.buffer.getLong(20), this.buffer.getLong(28));
+    this.nodes = this.buffer.getInt(36);
+    this.ints = this.buffer.getInt(40);
+    this.nameIndex = this.buffer.getInt(44);
+    this.stringOffsets = this.buffer.getInt(48);
+    this.stringData = this.buffer.getInt(52);
+  }
+
+  // ############## Read path ##############
+
+  byte kind(final int id) {
+    return buffer.get(nodes + id * NODE_SIZE);
+  }
+
+  int flags(final int id) {
+    return buffer.get(nodes + id * NODE_SIZE + 1);
+  }
+
+  int field(final int id, final int field) {
+    return buffer.getInt(nodes + id * NODE_SIZE + field);
+  }
+
+  int intAt(final int index) {
+    return buffer.getInt(ints + 4 * index);
+  }
+
+  String string(final int id) {
+    if (id < 0) {
+      return null;
+    }
+    final int start = buffer.getInt(stringOffsets + 4 * id);
+    final int end = buffer.getInt(stringOffsets + 4 * (id + 1));
+    final byte[] bytes = new byte[end - start];
+    final ByteBuffer b = buffer.duplicate();
+    b.position(stringData + start);
+    b.get(bytes);
+    return new String(bytes, UTF8);
+  }
+
+  /**
+   * Compare a pooled string to the UTF-8 bytes of another, as unsigned bytes.
+   */
+  private int compare(final int id, final byte[] key) {
+    final int start = stringData + buffer.getInt(stringOffsets + 4 * id);
+    final int length = stringData + buffer.getInt(stringOffsets + 4 * (id + 1)) - start;
+    final int n = Math.min(length, key.length);
+    for (int i = 0; i < n; i++) {
+      final int c = (buffer.get(start + i) & 0xFF) - (key[i] & 0xFF);
+      if (c != 0) {
+        return c;
+      }
+    }
+    return length - key.length;
+  }
+
+  /**
+   * Binary search count node ids, stored as ints from the given int index on
+   * and sorted by the string in the given node field.
+   *
+   * @return the matching node id, or -1.
+   */
+  private int search(final int base, final int count, final int field, final byte[] key) {
+    int lo = 0;
+    int hi = count - 1;
+    while (lo <= hi) {
+      final int mid = (lo + hi) >>> 1;
+      final int id = buffer.getInt(base + 4 * mid);
+      final int c = compare(field(id, field), key);
+      if (c < 0) {
+        lo = mid + 1;
+      } else if (c > 0) {
+        hi = mid - 1;
+      } else {
+        return id;
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * @return the id of the child of the given node with the given key, or -1.
+   */
+  int child(final int id, final String key) {
+    return search(ints + 4 * field(id, CHILD_START), field(id, CHILD_COUNT), keyField(id), key.getBytes(UTF8));
+  }
+
+  /**
+   * @return the field that the children of the given node are keyed by.
+   */
+  private int keyField(final int id) {
+    return kind(id) == PACKAGE ? FULL_NAME : NAME;
+  }
+
+  MappedNode node(final int id) {
+    switch (kind(id)) {
+      case CLASS:
+        return new MappedClassNode<>(this, id);
+      case NAMED_PARAMETER:
+        return new MappedNamedParameterNode<>(this, id);
+      case PACKAGE:
+        return new MappedPackageNode(this, id);
+      default:
+        throw new IllegalStateException("Corrupt mapped class hierarchy: node " + id + " has kind " + kind(id));
+    }
+  }
+
+  @Override
+  public Node getNode(final String fullName) throws NameResolutionException {
+    final int id = search(nameIndex, nodeCount - 1, FULL_NAME, fullName.getBytes(UTF8));
+    if (id < 0) {
+      throw new NameResolutionException(fullName, "");
+    }
+    return node(id);
+  }
+
+  @Override
+  public boolean isImplementation(final ClassNode<?> inter, final ClassNode<?> impl) {
+    return impl.isImplementationOf(inter);
+  }
+
+  @Override
+  public ClassHierarchy merge(final ClassHierarchy ch) {
+    if (this == ch) {
+      return this;
+    }
+    throw new UnsupportedOperationException("Cannot merge mapped class hierarchies");
+  }
+
+  @Override
+  public Node getNamespace() {
+    return node(0);
+  }
+
+  @Override
+  public Fingerprint getFingerprint() {
+    return fingerprint;
+  }
+
+  // ############## Write path ##############
+
+  /**
+   * Strings in order of first use, with their UTF-8 encoding.
+   */
+  private static final class StringPool {
+    final Map<String, Integer> ids = new HashMap<>();
+    final List<byte[]> bytes = new ArrayList<>();
+
+    int add(final String s) {
+      if (s == null) {
+        return -1;
+      }
+      Integer id = ids.get(s);
+      if (id == null) {
+        id = bytes.size();
+        ids.put(s, id);
+        bytes.add(s.getBytes(UTF8));
+      }
+      return id;
+    }
+  }
+
+  private static final class IntList {
+    int[] values = new int[1024];
+    int size = 0;
+
+    void add(final int v) {
+      if (size == values.length) {
+        values = Arrays.copyOf(values, 2 * size);
+      }
+      values[size++] = v;
+    }
+  }
+
+  /**
+   * Orders strings by their UTF-8 bytes, compared as unsigned values.
+   */
+  private static final Comparator<byte[]> UTF8_ORDER = new Comparator<byte[]>() {
+    @Override
+    public int compare(final byte[] a, final byte[] b) {
+      final int n = Math.min(a.length, b.length);
+      for (int i = 0; i < n; i++) {
+        final int c = (a[i] & 0xFF) - (b[i] & 0xFF);
+        if (c != 0) {
+          return c;
+        }
+      }
+      return a.length - b.length;
+    }
+  };
+
+  /**
+   * Write classHierarchy to a file in the layout read by open().
+   */
+  public static void write(final ClassHierarchy classHierarchy, final File file) throws IOException {
+    try (final OutputStream out = new BufferedOutputStream(new FileOutputStream(file))) {
+      write(classHierarchy, out);
+    }
+  }
+
+  /**
+   * Write classHierarchy in the layout read by the constructor.  Works for
+   * any ClassHierarchy, e.g. a ProtocolBufferClassHierarchy or a
+   * ClassHierarchyImpl.  The output stream is not closed.
+   */
+  public static void write(final ClassHierarchy classHierarchy, final OutputStream out) throws IOException {
+    // Number the nodes in preorder.
+    final List<Node> all = new ArrayList<>();
+    final Map<Node, Integer> ids = new HashMap<>();
+    final ArrayDeque<Node> stack = new ArrayDeque<>();
+    stack.push(classHierarchy.getNamespace());
+    while (!stack.isEmpty()) {
+      final Node n = stack.pop();
+      ids.put(n, all.size());
+      all.add(n);
+      final List<Node> children = new ArrayList<>(n.getChildren());
+      Collections.reverse(children);
+      for (final Node child : children) {
+        stack.push(child);
+      }
+    }
+
+    // Children are sorted by name before they are written, so every name
+    // must be in the pool before the first node is.
+    final StringPool strings = new StringPool();
+    for (final Node n : all) {
+      strings.add(n.getName());
+      strings.add(n.getFullName());
+    }
+    final IntList ints = new IntList();
+    final ByteBuffer table = ByteBuffer.allocate(all.size() * NODE_SIZE);
+    for (int id = 0; id < all.size(); id++) {
+      final Node n = all.get(id);
+      final int base = id * NODE_SIZE;
+      table.putInt(base + NAME, strings.add(n.getName()));
+      table.putInt(base + FULL_NAME, strings.add(n.getFullName()));
+      table.putInt(base + PARENT, id == 0 ? -1 : ids.get(n.getParent()));
+
+      final List<Integer> children = new ArrayList<>();
+      for (final Node child : n.getChildren()) {
+        children.add(ids.get(child));
+      }
+      sortByName(children, all, n instanceof PackageNode ? FULL_NAME : NAME, strings);
+      table.putInt(base + CHILD_START, ints.size);
+      table.putInt(base + CHILD_COUNT, children.size());
+      for (final int child : children) {
+        ints.add(child);
+      }
+
+      if (n instanceof ClassNode) {
+        final ClassNode<?> cn = (ClassNode<?>) n;
+        table.put(base, CLASS);
+        table.put(base + 1, (byte) ((cn.isUnit() ? FLAG_UNIT : 0)
+            | (cn.isInjectionCandidate() ? FLAG_INJECTION_CANDIDATE : 0)
+            | (cn.isExternalConstructor() ? FLAG_EXTERNAL_CONSTRUCTOR : 0)));
+        final List<Integer> impls = new ArrayList<>();
+        for (final ClassNode<?> impl : cn.getKnownImplementations()) {
+          final Integer implId = ids.get(impl);
+          if (implId == null) {
+            throw new IllegalStateException("Implementation " + impl.getFullName() + " of "
+                + cn.getFullName() + " is not part of the class hierarchy");
+          }
+          impls.add(implId);
+        }
+        table.putInt(base + LIST_START, ints.size);
+        table.putInt(base + LIST_COUNT, impls.size());
+        for (final int impl : impls) {
+          ints.add(impl);
+        }
+        table.putInt(base + A, strings.add(cn.getDefaultImplementation()));
+        final List<ConstructorDef<?>> injectable = Arrays.<ConstructorDef<?>>asList(cn.getInjectableConstructors());
+        final ConstructorDef<?>[] constructors = cn.getAllConstructors();
+        table.putInt(base + B, ints.size);
+        table.putInt(base + C, constructors.length);
+        for (final ConstructorDef<?> def : constructors) {
+          ints.add(strings.add(def.getClassName()));
+          ints.add(injectable.contains(def) ? 1 : 0);
+          ints.add(def.getArgs().length);
+          for (final ConstructorArg arg : def.getArgs()) {
+            ints.add(strings.add(arg.getType()));
+            ints.add(strings.add(arg.getNamedParameterName()));
+            ints.add(arg.isInjectionFuture() ? 1 : 0);
+          }
+        }
+      } else if (n instanceof NamedParameterNode) {
+        final NamedParameterNode<?> np = (NamedParameterNode<?>) n;
+        table.put(base, NAMED_PARAMETER);
+        table.put(base + 1, (byte) ((np.isSet() ? FLAG_SET : 0) | (np.isList() ? FLAG_LIST : 0)));
+        final String[] defaults = np.getDefaultInstanceAsStrings();
+        table.putInt(base + LIST_START, ints.size);
+        table.putInt(base + LIST_COUNT, defaults == null ? 0 : defaults.length);
+        if (defaults != null) {
+          for (final String d : defaults) {
+            ints.add(strings.add(d));
+          }
+        }
+        table.putInt(base + A, strings.add(np.getDocumentation()));
+        table.putInt(base + B, strings.add(np.getShortName()));
+        table.putInt(base + C, strings.add(np.getSimpleArgName()));
+        table.putInt(base + D, strings.add(np.getFullArgName()));
+      } else if (n instanceof PackageNode) {
+        table.put(base, PACKAGE);
+        table.putInt(base + A, -1);
+        table.putInt(base + B, -1);
+        table.putInt(base + C, -1);
+        table.putInt(base + D, -1);
+      } else {
+        throw new IllegalStateException("Encountered unknown type of Node: " + n);
+      }
+    }
+
+    final List<Integer> byFullName = new ArrayList<>(all.size() - 1);
+    for (int id = 1; id < all.size(); id++) {
+      byFullName.add(id);
+    }
+    sortByName(byFullName, all, FULL_NAME, strings);
+
+    int stringBytes = 0;
+    for (final byte[] b : strings.bytes) {
+      stringBytes += b.length;
+    }
+    final long nodesOffset = HEADER_SIZE;
+    final long intsOffset = nodesOffset + (long) all.size() * NODE_SIZE;
+    final long nameIndexOffset = intsOffset + 4L * ints.size;
+    final long stringOffsetsOffset = nameIndexOffset + 4L * byFullName.size();
+    final long stringDataOffset = stringOffsetsOffset + 4L * (strings.bytes.size() + 1);
+    if (stringDataOffset + stringBytes > Integer.MAX_VALUE) {
+      throw new IllegalArgumentException("Class hierarchy is too large to be mapped");
+    }
+
+    final DataOutputStream dos = new DataOutputStream(out);
+    dos.write(MAGIC);
+    dos.writeInt(VERSION);
+    dos.writeInt(all.size());
+    dos.writeInt(ints.size);
+    dos.writeInt(strings.bytes.size());
+    dos.writeLong(classHierarchy.getFingerprint().getHigh());
+    dos.writeLong(classHierarchy.getFingerprint().getLow());
+    dos.writeInt((int) nodesOffset);
+    dos.writeInt((int) intsOffset);
+    dos.writeInt((int) nameIndexOffset);
+    dos.writeInt((int) stringOffsetsOffset);
+    dos.writeInt((int) stringDataOffset);
+    dos.write(new byte[HEADER_SIZE - dos.size()]);
+    dos.write(table.array());
+    for (int i = 0; i < ints.size; i++) {
+      dos.writeInt(ints.values[i]);
+    }
+    for (final int id : byFullName) {
+      dos.writeInt(id);
+    }
+    int offset = 0;
+    for (final byte[] b : strings.bytes) {
+      dos.writeInt(offset);
+      offset += b.length;
+    }
+    dos.writeInt(offset);
+    for (final byte[] b : strings.bytes) {
+      dos.write(b);
+    }
+    dos.flush();
+  }
+
+  private static void sortByName(final List<Integer> ids, final List<Node> all, final int field,
+                                 final StringPool strings) {
+    Collections.sort(ids, new Comparator<Integer>() {
+      @Override
+      public int compare(final Integer a, final Integer b) {
+        return UTF8_ORDER.compare(utf8(all.get(a)), utf8(all.get(b)));
+      }
+
+      private byte[] utf8(final Node n) {
+        return strings.bytes.get(strings.ids.get(field == NAME ? n.getName() : n.getFullName()));
+      }
+    });
+  }
+}
@@ -0,0 +1,197 @@
+/**
+ * Copyright (C) 2014 Microsoft Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.microsoft.tang.implementation.mapped;
+
+import com.microsoft.tang.exceptions.BindException;
+import com.microsoft.tang.exceptions.NameResolutionException;
+import com.microsoft.tang.implementation.types.ConstructorArgImpl;
+import com.microsoft.tang.implementation.types.ConstructorDefImpl;
+import com.microsoft.tang.types.ClassNode;
+import com.microsoft.tang.types.ConstructorArg;
+import com.microsoft.tang.types.ConstructorDef;
+import com.microsoft.tang.types.Node;
+import com.microsoft.tang.util.MonotonicSet;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Set;
+
+final class MappedClassNode<T> extends MappedNode implements ClassNode<T> {
+
+  private volatile ConstructorDef<T>[] allConstructors;
+  private volatile ConstructorDef<T>[] injectableConstructors;
+
+  MappedClassNode(final MappedClassHierarchy ch, final int id) {
+    super(ch, id);
+  }
+
+  @Override
+  public String toString() {
+    final StringBuilder sb = new StringBuilder(super.toString() + ": ");
+    for (final ConstructorDef<T> c : getInjectableConstructors()) {
+      sb.append(c.toString() + ", ");
+    }
+    return sb.toString();
+  }
+
+  /**
+   * Decode the constructor definitions on first use.  Racing threads decode
+   * equal arrays, so either may win.
+   */
+  @SuppressWarnings("unchecked")
+  private void decodeConstructors() {
+    final int count = ch.field(id, MappedClassHierarchy.C);
+    final List<ConstructorDef<T>> all = new ArrayList<>(count);
+    final List<ConstructorDef<T>> injectable = new ArrayList<>(count);
+    int i = ch.field(id, MappedClassHierarchy.B);
+    for (int c = 0; c < count; c++) {
+      final String className = ch.string(ch.intAt(i++));
+      final boolean isInjectable = ch.intAt(i++) != 0;
+      final ConstructorArg[] args = new ConstructorArg[ch.intAt(i++)];
+      for (int a = 0; a < args.length; a++) {
+        final String type = ch.string(ch.intAt(i++));
+        final String namedParameterName = ch.string(ch.intAt(i++));
+        final boolean isFuture = ch.intAt(i++) != 0;
+        args[a] = new ConstructorArgImpl(type, namedParameterName, isFuture);
+      }
+      final ConstructorDef<T> def = new ConstructorDefImpl<>(className, args, isInjectable);
+      all.add(def);
+      if (isInjectable) {
+        injectable.add(def);
+      }
+    }
+    injectableConstructors = injectable.toArray(new ConstructorDef[0]);
+    allConstructors = all.toArray(new ConstructorDef[0]);
+  }
+
+  @Override
+  public ConstructorDef<T>[] getInjectableConstructors() {
+    if (allConstructors == null) {
+      decodeConstructors();
+    }
+    return injectableConstructors;
+  }
+
+  @Override
+  public ConstructorDef<T>[] getAllConstructors() {
+    if (allConstructors == null) {
+      decodeConstructors();
+    }
+    return allConstructors;
+  }
+
+  @Override
+  public ConstructorDef<T> getConstructorDef(final ClassNode<?>... paramTypes)
+      throws BindException {
+    if (!isInjectionCandidate()) {
+      throw new BindException("Cannot @Inject non-static member/local class: "
+          + getFullName());
+    }
+    for (final ConstructorDef<T> c : getAllConstructors()) {
+      if (c.takesParameters(paramTypes)) {
+        return c;
+      }
+    }
+    throw new BindException("Could not find requested constructor for class "
+        + getFullName());
+  }
+
+  @Override
+  public void putImpl(final ClassNode<T> impl) {
+    throw new UnsupportedOperationException("Mapped class hierarchies are read only");
+  }
+
+  @SuppressWarnings("unchecked")
+  @Override
+  public Set<ClassNode<T>> getKnownImplementations() {
+    final Set<ClassNode<T>> impls = new MonotonicSet<>();
+    final int start = ch.field(id, MappedClassHierarchy.LIST_START);
+    final int count = ch.field(id, MappedClassHierarchy.LIST_COUNT);
+    for (int i = 0; i < count; i++) {
+      impls.add((ClassNode<T>) ch.node(ch.intAt(start + i)));
+    }
+    return impls;
+  }
+
+  @Override
+  public String getDefaultImplementation() {
+    return ch.string(ch.field(id, MappedClassHierarchy.A));
+  }
+
+  @Override
+  public boolean isUnit() {
+    return (ch.flags(id) & MappedClassHierarchy.FLAG_UNIT) != 0;
+  }
+
+  @Override
+  public boolean isInjectionCandidate() {
+    return (ch.flags(id) & MappedClassHierarchy.FLAG_INJECTION_CANDIDATE) != 0;
+  }
+
+  @Override
+  public boolean isExternalConstructor() {
+    return (ch.flags(id) & MappedClassHierarchy.FLAG_EXTERNAL_CONSTRUCTOR) != 0;
+  }
+
+  /**
+   * Walks the implementation lists in the buffer, without creating views of
+   * the nodes along the way.
+   */
+  @Override
+  public boolean isImplementationOf(final ClassNode<?> inter) {
+    if (this.equals(inter)) {
+      return true;
+    }
+    final int start;
+    if (inter instanceof MappedClassNode && ((MappedClassNode<?>) inter).ch == ch) {
+      start = ((MappedClassNode<?>) inter).id;
+    } else {
+      try {
+        final Node n = ch.getNode(inter.getFullName());
+        if (!(n instanceof MappedClassNode)) {
+          return false;
+        }
+        start = ((MappedClassNode<?>) n).id;
+      } catch (final NameResolutionException e) {
+        return false;
+      }
+      if (start == id) {
+        return true;
+      }
+    }
+    final BitSet visited = new BitSet();
+    final List<Integer> worklist = new ArrayList<>();
+    worklist.add(start);
+    visited.set(start);
+    while (!worklist.isEmpty()) {
+      final int cn = worklist.remove(worklist.size() - 1);
+      final int implStart = ch.field(cn, MappedClassHierarchy.LIST_START);
+      final int implCount = ch.field(cn, MappedClassHierarchy.LIST_COUNT);
+      for (int i = 0; i < implCount; i++) {
+        final int impl = ch.intAt(implStart + i);
+        if (impl == id) {
+          return true;
+        }
+        if (!visited.get(impl)) {
+          visited.set(impl);
+          worklist.add(impl);
+        }
+      }
+    }
+    return false;
+  }
+}
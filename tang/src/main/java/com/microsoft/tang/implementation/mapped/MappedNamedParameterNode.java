@@ -0,0 +1,70 @@
+/**
+ * Copyright (C) 2014 Microsoft Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.microsoft.tang.implementation.mapped;
+
+import com.microsoft.tang.types.NamedParameterNode;
+
+final class MappedNamedParameterNode<T> extends MappedNode implements NamedParameterNode<T> {
+
+  MappedNamedParameterNode(final MappedClassHierarchy ch, final int id) {
+    super(ch, id);
+  }
+
+  @Override
+  public String toString() {
+    return getSimpleArgName() + " " + getName();
+  }
+
+  @Override
+  public String getDocumentation() {
+    return ch.string(ch.field(id, MappedClassHierarchy.A));
+  }
+
+  @Override
+  public String getShortName() {
+    return ch.string(ch.field(id, MappedClassHierarchy.B));
+  }
+
+  @Override
+  public String[] getDefaultInstanceAsStrings() {
+    final int start = ch.field(id, MappedClassHierarchy.LIST_START);
+    final String[] defaults = new String[ch.field(id, MappedClassHierarchy.LIST_COUNT)];
+    for (int i = 0; i < defaults.length; i++) {
+      defaults[i] = ch.string(ch.intAt(start + i));
+    }
+    return defaults;
+  }
+
+  @Override
+  public String getSimpleArgName() {
+    return ch.string(ch.field(id, MappedClassHierarchy.C));
+  }
+
+  @Override
+  public String getFullArgName() {
+    return ch.string(ch.field(id, MappedClassHierarchy.D));
+  }
+
+  @Override
+  public boolean isSet() {
+    return (ch.flags(id) & MappedClassHierarchy.FLAG_SET) != 0;
+  }
+
+  @Override
+  public boolean isList() {
+    return (ch.flags(id) & MappedClassHierarchy.FLAG_LIST) != 0;
+  }
+}
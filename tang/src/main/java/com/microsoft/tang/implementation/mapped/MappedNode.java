@@ -0,0 +1,111 @@
+/**
+ * Copyright (C) 2014 Microsoft Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.microsoft.tang.implementation.mapped;
+
+import com.microsoft.tang.types.Node;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * A view of one node record of a MappedClassHierarchy.  Views are created as
+ * nodes are looked up; two views of the same record are equal.
+ */
+abstract class MappedNode implements Node {
+
+  protected final MappedClassHierarchy ch;
+  protected final int id;
+  private volatile String fullName;
+
+  MappedNode(final MappedClassHierarchy ch, final int id) {
+    this.ch = ch;
+    this.id = id;
+  }
+
+  @Override
+  public String getName() {
+    return ch.string(ch.field(id, MappedClassHierarchy.NAME));
+  }
+
+  @Override
+  public String getFullName() {
+    if (fullName == null) {
+      fullName = ch.string(ch.field(id, MappedClassHierarchy.FULL_NAME));
+    }
+    return fullName;
+  }
+
+  @Override
+  public boolean contains(final String key) {
+    return ch.child(id, key) >= 0;
+  }
+
+  @Override
+  public Node get(final String key) {
+    final int child = ch.child(id, key);
+    return child < 0 ? null : ch.node(child);
+  }
+
+  @Override
+  public Node getParent() {
+    final int parent = ch.field(id, MappedClassHierarchy.PARENT);
+    return parent < 0 ? null : ch.node(parent);
+  }
+
+  @Override
+  public void put(final Node node) {
+    throw new UnsupportedOperationException("Mapped class hierarchies are read only");
+  }
+
+  @Override
+  public Collection<Node> getChildren() {
+    final int start = ch.field(id, MappedClassHierarchy.CHILD_START);
+    final int count = ch.field(id, MappedClassHierarchy.CHILD_COUNT);
+    final List<Node> children = new ArrayList<>(count);
+    for (int i = 0; i < count; i++) {
+      children.add(ch.node(ch.intAt(start + i)));
+    }
+    return children;
+  }
+
+  @Override
+  public boolean equals(final Object o) {
+    if (o == this) {
+      return true;
+    }
+    if (!(o instanceof MappedNode)) {
+      return false;
+    }
+    final MappedNode n = (MappedNode) o;
+    return n.ch == ch && n.id == id;
+  }
+
+  @Override
+  public int hashCode() {
+    return id;
+  }
+
+  @Override
+  public int compareTo(final Node n) {
+    return getFullName().compareTo(n.getFullName());
+  }
+
+  @Override
+  public String toString() {
+    return "[" + this.getClass().getSimpleName() + " '" + getFullName() + "']";
+  }
+}
@@ -16,13 +16,23 @@
 package com.microsoft.tang.implementation.protobuf;
 
 import java.io.*;
+import java.lang.ref.SoftReference;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 import com.microsoft.tang.ClassHierarchy;
+import com.microsoft.tang.exceptions.ClassHierarchyException;
 import com.microsoft.tang.exceptions.NameResolutionException;
+import com.microsoft.tang.implementation.types.AbstractNode;
 import com.microsoft.tang.implementation.types.ClassNodeImpl;
 import com.microsoft.tang.implementation.types.ConstructorArgImpl;
 import com.microsoft.tang.implementation.types.ConstructorDefImpl;
@@ -35,12 +45,88 @@ import com.microsoft.tang.types.ConstructorDef;
 import com.microsoft.tang.types.NamedParameterNode;
 import com.microsoft.tang.types.Node;
 import com.microsoft.tang.types.PackageNode;
+import com.microsoft.tang.util.Fingerprint;
 
+/**
+ * A ClassHierarchy read from its protocol buffer representation.
+ * <p/>
+ * Nodes are either all built by the constructor, or, for a lazy instance,
+ * built the first time getNode() reaches them.  A lazy instance only indexes
+ * the protocol buffer records by full name up front; materializing a node
+ * also materializes its enclosing nodes and its known implementations, so
+ * every ClassNode handed out is complete.  getNamespace() and
+ * getFingerprint() need the whole tree and materialize everything.
+ * <p/>
+ * getNode() only returns a node once it and its implementations are
+ * complete; if a record turns out to be corrupt, the nodes built while
+ * reading it are never returned.  Returned nodes only change by gaining
+ * children as nested nodes are materialized, which AbstractNode makes safe
+ * for readers that hold no lock.
+ * Lookups of nodes that were already built take no lock, and one instance
+ * can be shared by any number of threads.
+ */
 public class ProtocolBufferClassHierarchy implements ClassHierarchy {
 
+  /**
+   * A protocol buffer record that has not been turned into a Node yet.
+   */
+  private static final class Unparsed {
+    final ClassHierarchyProto.Node proto;
+    /** Full name of the enclosing node, or null for children of the root. */
+    final String parent;
+
+    Unparsed(final ClassHierarchyProto.Node proto, final String parent) {
+      this.proto = proto;
+      this.parent = parent;
+    }
+  }
+
+  /**
+   * The first bytes of a stream written by serializeStreaming().  A protocol
+   * buffer message written by serialize() can't start with 'T', which
+   * encodes an end-group tag.
+   */
+  private static final byte[] STREAM_MAGIC = { 'T', 'C', 'H', 2 };
+
   private final PackageNode namespace;
   private static final String regex = "[\\.\\$\\+]";
-  private HashMap<String, Node> lookupTable = new HashMap<>();
+  /**
+   * Every record of the protocol buffer, by full name, in pre-order.  Cleared
+   * once all nodes are materialized.
+   */
+  private final Map<String, Unparsed> index = new LinkedHashMap<>();
+  /**
+   * Materialized nodes whose implementations are wired up.  Keyed by the
+   * nodes themselves, so that the table doesn't hold on to a copy of every
+   * full name.
+   */
+  private final Map<FullName, Node> lookupTable = new ConcurrentHashMap<>();
+  /** Nodes built by the current materialize() call.  Guarded by this. */
+  private final Map<String, Node> inProgress = new HashMap<>();
+  /**
+   * Nodes built by a materialize() call that failed.  They may lack some of
+   * their implementations, so they are never published.  Guarded by this.
+   */
+  private final Map<String, Node> broken = new HashMap<>();
+  private volatile boolean complete = false;
+  private Fingerprint fingerprint = null;
+
+  private static final int MERGE_CACHE_SIZE = 16;
+  /**
+   * Recent merge() results, by the fingerprints of the merged hierarchies.
+   * The results are softly reachable, so the cache never keeps a hierarchy
+   * alive under memory pressure. Guarded by itself.
+   */
+  private static final Map<String, SoftReference<ClassHierarchy>> mergeCache =
+      new LinkedHashMap<String, SoftReference<ClassHierarchy>>(MERGE_CACHE_SIZE, 0.75f, true) {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(
+            final Map.Entry<String, SoftReference<ClassHierarchy>> eldest) {
+          return size() > MERGE_CACHE_SIZE;
+        }
+      };
 
   // ############## Serialize implementation ############## 
 
@@ -52,7 +138,7 @@ public class ProtocolBufferClassHierarchy implements ClassHierarchy {
       boolean isExternalConstructor, boolean isUnit,
       List<ClassHierarchyProto.ConstructorDef> injectableConstructors,
       List<ClassHierarchyProto.ConstructorDef> otherConstructors,
-      List<String> implFullNames, Iterable<ClassHierarchyProto.Node> children) {
+      Iterable<String> implFullNames, Iterable<ClassHierarchyProto.Node> children) {
     return ClassHierarchyProto.Node
         .newBuilder()
         .setName(name)
@@ -140,6 +226,32 @@ public class ProtocolBufferClassHierarchy implements ClassHierarchy {
     for (Node child : n.getChildren()) {
       children.add(serializeNode(child));
     }
+    return serializeNode(n, children);
+  }
+
+  /**
+   * Serialize n itself, with the given, already serialized, children.
+   */
+  private static ClassHierarchyProto.Node serializeNode(Node n, List<ClassHierarchyProto.Node> children) {
+    return serializeNode(n, children, implFullNames(n));
+  }
+
+  private static List<String> implFullNames(Node n) {
+    List<String> implFullNames = new ArrayList<>();
+    if (n instanceof ClassNode) {
+      for (ClassNode<?> impl : ((ClassNode<?>) n).getKnownImplementations()) {
+        implFullNames.add(impl.getFullName());
+      }
+    }
+    return implFullNames;
+  }
+
+  /**
+   * Serialize n itself, with the given children and, if n is a ClassNode,
+   * the given known implementations.
+   */
+  private static ClassHierarchyProto.Node serializeNode(Node n, List<ClassHierarchyProto.Node> children,
+                                                        Collection<String> implFullNames) {
     if (n instanceof ClassNode) {
       ClassNode<?> cn = (ClassNode<?>) n;
       ConstructorDef<?>[] injectable = cn.getInjectableConstructors();
@@ -155,10 +267,6 @@ public class ProtocolBufferClassHierarchy implements ClassHierarchy {
       for (ConstructorDef<?> other : others) {
         otherConstructors.add(serializeConstructorDef(other));
       }
-      List<String> implFullNames = new ArrayList<>();
-      for (ClassNode<?> impl : cn.getKnownImplementations()) {
-        implFullNames.add(impl.getFullName());
-      }
       return newClassNode(cn.getName(), cn.getFullName(),
           cn.isInjectionCandidate(), cn.isExternalConstructor(), cn.isUnit(),
           injectableConstructors, otherConstructors, implFullNames, children);
@@ -198,6 +306,122 @@ public class ProtocolBufferClassHierarchy implements ClassHierarchy {
     output.close();
   }
 
+  /**
+   * Serialize a class hierarchy into a file, using the streaming format.
+   * @see #serializeStreaming(OutputStream, ClassHierarchy)
+   */
+  public static void serializeStreaming(final String fileName, final ClassHierarchy classHierarchy)
+      throws IOException {
+    try (final OutputStream out = new BufferedOutputStream(new FileOutputStream(fileName))) {
+      serializeStreaming(out, classHierarchy);
+    }
+  }
+
+  /**
+   * Serialize a class hierarchy in the streaming format.  Unlike serialize(),
+   * this writes the hierarchy one node at a time, and never holds more than
+   * one node's protocol buffer in memory.  It is not constant-memory though:
+   * the full name, parent position and offset of every node are kept until
+   * the end, to write the trailing index, so memory use is still O(n) in the
+   * number of nodes.  The layout is:
+   * <pre>
+   *   magic    'T' 'C' 'H' 2
+   *   records  one per node, root first, in preorder:
+   *              varint number of children,
+   *              varint length, followed by a ClassHierarchyProto.Node
+   *              that has no children
+   *   index    varint number of records, then for each record, in order:
+   *              varint length and UTF-8 bytes of its full name,
+   *              varint position of its parent plus one (zero for the root),
+   *              varint offset of the record from the start of the stream
+   *   footer   8 byte offset of the index, then the magic again
+   * </pre>
+   * The trailing index lets a reader that can seek find a node's record
+   * without reading the ones before it.  deserialize() reads sequentially
+   * and does not use it.  The output stream is not closed.
+   */
+  public static void serializeStreaming(final OutputStream out, final ClassHierarchy classHierarchy)
+      throws IOException {
+    final List<String> names = new ArrayList<>();
+    final List<Integer> parents = new ArrayList<>();
+    final List<Long> offsets = new ArrayList<>();
+    out.write(STREAM_MAGIC);
+    final long indexOffset = writeRecords(out, classHierarchy.getNamespace(), -1,
+        STREAM_MAGIC.length, names, parents, offsets);
+
+    final ByteArrayOutputStream buf = new ByteArrayOutputStream();
+    writeVarint(buf, names.size());
+    for (int i = 0; i < names.size(); i++) {
+      final byte[] name = names.get(i).getBytes("UTF-8");
+      writeVarint(buf, name.length);
+      buf.write(name);
+      writeVarint(buf, parents.get(i) + 1);
+      writeVarint(buf, offsets.get(i));
+      if (buf.size() >= 1 << 16) {
+        buf.writeTo(out);
+        buf.reset();
+      }
+    }
+    buf.writeTo(out);
+    final DataOutputStream footer = new DataOutputStream(out);
+    footer.writeLong(indexOffset);
+    footer.write(STREAM_MAGIC);
+    footer.flush();
+  }
+
+  /**
+   * Write the records of n and its descendants, starting at the given offset.
+   * @return the offset following the last record written.
+   */
+  private static long writeRecords(final OutputStream out, final Node n, final int parent, long offset,
+                                   final List<String> names, final List<Integer> parents, final List<Long> offsets)
+      throws IOException {
+    final int self = names.size();
+    names.add(n.getFullName());
+    parents.add(parent);
+    offsets.add(offset);
+
+    final Collection<Node> children = n.getChildren();
+    final byte[] record = serializeNode(n, new ArrayList<ClassHierarchyProto.Node>(0)).toByteArray();
+    offset += writeVarint(out, children.size());
+    offset += writeVarint(out, record.length);
+    out.write(record);
+    offset += record.length;
+    for (Node child : children) {
+      offset = writeRecords(out, child, self, offset, names, parents, offsets);
+    }
+    return offset;
+  }
+
+  /**
+   * @return the number of bytes written.
+   */
+  private static int writeVarint(final OutputStream out, long value) throws IOException {
+    int written = 1;
+    while ((value & ~0x7FL) != 0) {
+      out.write((int) ((value & 0x7F) | 0x80));
+      value >>>= 7;
+      written++;
+    }
+    out.write((int) value);
+    return written;
+  }
+
+  private static long readVarint(final InputStream in) throws IOException {
+    long value = 0;
+    for (int shift = 0; shift < 64; shift += 7) {
+      final int b = in.read();
+      if (b < 0) {
+        throw new EOFException("Truncated class hierarchy stream");
+      }
+      value |= (long) (b & 0x7F) << shift;
+      if ((b & 0x80) == 0) {
+        return value;
+      }
+    }
+    throw new IOException("Malformed varint in class hierarchy stream");
+  }
+
   /**
    * Deserialize a class hierarchy from a file. The file can be generated from either Java or C#
    * @param fileName
@@ -205,11 +429,34 @@ public class ProtocolBufferClassHierarchy implements ClassHierarchy {
    * @throws IOException
    */
   public static ClassHierarchy deserialize(final String fileName) throws IOException {
-    final InputStream stream = new FileInputStream(fileName);
-
-    final ClassHierarchyProto.Node root = ClassHierarchyProto.Node.parseFrom(stream);
+    try (final InputStream stream = new BufferedInputStream(new FileInputStream(fileName))) {
+      return deserialize(stream);
+    }
+  }
 
-    return new ProtocolBufferClassHierarchy(root);
+  /**
+   * Deserialize a class hierarchy written either by serialize(), as a single
+   * protocol buffer message, or by serializeStreaming().  The format is
+   * detected from the first bytes of the stream.  Streams in the streaming
+   * format are read one record at a time.
+   */
+  public static ClassHierarchy deserialize(final InputStream stream) throws IOException {
+    final InputStream in = stream.markSupported() ? stream : new BufferedInputStream(stream);
+    in.mark(STREAM_MAGIC.length);
+    final byte[] magic = new byte[STREAM_MAGIC.length];
+    int read = 0;
+    while (read < magic.length) {
+      final int r = in.read(magic, read, magic.length - read);
+      if (r < 0) {
+        break;
+      }
+      read += r;
+    }
+    if (Arrays.equals(magic, STREAM_MAGIC)) {
+      return new ProtocolBufferClassHierarchy(in);
+    }
+    in.reset();
+    return new ProtocolBufferClassHierarchy(ClassHierarchyProto.Node.parseFrom(in));
   }
 
   /**
@@ -219,31 +466,167 @@ public class ProtocolBufferClassHierarchy implements ClassHierarchy {
    * as snapshots of Java class hierarchies.
    */
   public ProtocolBufferClassHierarchy(ClassHierarchyProto.Node root) {
+    this(root, false);
+  }
+
+  /**
+   * Deserialize a class hierarchy from a protocol buffer object.
+   *
+   * @param root the root package node of the protocol buffer.
+   * @param lazy if true, nodes are only built when first looked up.  Errors in
+   *             a record are then reported by the lookup that reaches it.
+   */
+  public ProtocolBufferClassHierarchy(ClassHierarchyProto.Node root, boolean lazy) {
     namespace = new PackageNodeImpl();
     if (!root.hasPackageNode()) {
       throw new IllegalArgumentException("Expected a package node.  Got: "
           + root);
     }
-    // Register all the classes.
     for (ClassHierarchyProto.Node child : root.getChildrenList()) {
-      parseSubHierarchy(namespace, child);
+      buildIndex(child, null);
     }
-    buildLookupTable(namespace);
-    // Now, register the implementations
-    for (ClassHierarchyProto.Node child : root.getChildrenList()) {
-      wireUpInheritanceRelationships(child);
+    if (!lazy) {
+      materializeAll();
     }
   }
 
-    private void buildLookupTable(Node n)
-    {
-        for (Node child : n.getChildren()) {
-            lookupTable.put(child.getFullName(), child);
-            buildLookupTable(child);
+  /**
+   * A node whose children are still being read, and how many are left.
+   */
+  private static final class Frame {
+    final Node node;
+    long remaining;
+
+    Frame(final Node node, final long remaining) {
+      this.node = node;
+      this.remaining = remaining;
+    }
+  }
+
+  /**
+   * Read the records of the streaming format, after the magic.  Reading
+   * stops after the last record: the trailing index only helps readers that
+   * seek to single records, which this one doesn't, so it is never read.
+   */
+  @SuppressWarnings({ "rawtypes", "unchecked" })
+  private ProtocolBufferClassHierarchy(final InputStream in) throws IOException {
+    namespace = new PackageNodeImpl();
+    final long rootChildren = readVarint(in);
+    final ClassHierarchyProto.Node root = readRecord(in);
+    if (!root.hasPackageNode()) {
+      throw new IllegalArgumentException("Expected a package node.  Got: "
+          + root);
+    }
+    final Map<ClassNode, List<String>> impls = new HashMap<>();
+    final ArrayDeque<Frame> stack = new ArrayDeque<>();
+    stack.push(new Frame(namespace, rootChildren));
+    while (!stack.isEmpty()) {
+      final Frame top = stack.peek();
+      if (top.remaining == 0) {
+        stack.pop();
+        continue;
+      }
+      top.remaining--;
+      final long children = readVarint(in);
+      final ClassHierarchyProto.Node n = readRecord(in);
+      final Node parsed = parseNode(top.node, n);
+      lookupTable.put(new FullName(parsed), parsed);
+      if (n.hasClassNode() && n.getClassNode().getImplFullNamesCount() > 0) {
+        impls.put((ClassNode) parsed, n.getClassNode().getImplFullNamesList());
+      }
+      if (children > 0) {
+        stack.push(new Frame(parsed, children));
+      }
+    }
+    for (Map.Entry<ClassNode, List<String>> e : impls.entrySet()) {
+      for (String impl : e.getValue()) {
+        final Node implNode = lookupTable.get(new FullName(impl));
+        if (!(implNode instanceof ClassNode)) {
+          throw new IllegalStateException("When reading protocol buffer node "
+              + e.getKey().getFullName() + " found implementation " + impl
+              + " which is not a ClassNode!");
         }
+        e.getKey().putImpl((ClassNode) implNode);
+      }
+    }
+    complete = true;
+  }
+
+  private static ClassHierarchyProto.Node readRecord(final InputStream in) throws IOException {
+    final long length = readVarint(in);
+    if (length > Integer.MAX_VALUE) {
+      throw new IOException("Class hierarchy record of " + length + " bytes is too large");
+    }
+    final byte[] record = new byte[(int) length];
+    new DataInputStream(in).readFully(record);
+    return ClassHierarchyProto.Node.parseFrom(record);
+  }
+
+  private void buildIndex(final ClassHierarchyProto.Node n, final String parent) {
+    index.put(n.getFullName(), new Unparsed(n, parent));
+    for (ClassHierarchyProto.Node child : n.getChildrenList()) {
+      buildIndex(child, n.getFullName());
     }
+  }
 
-  private static void parseSubHierarchy(Node parent, ClassHierarchyProto.Node n) {
+  /**
+   * Fingerprint everything the protocol buffer records about n, including
+   * its known implementations.
+   */
+  private static Fingerprint fingerprint(final Node n) {
+    // Covers every field that serializeNode() writes, so that hierarchies
+    // with equal fingerprints merge without conflicts.
+    final List<String> parts = new ArrayList<>();
+    parts.add(n.getFullName());
+    parts.add(n.getName());
+    if (n instanceof ClassNode) {
+      final ClassNode<?> cn = (ClassNode<?>) n;
+      parts.add("class");
+      parts.add(cn.isInjectionCandidate() + "," + cn.isExternalConstructor() + "," + cn.isUnit());
+      parts.add(cn.getDefaultImplementation());
+      parts.add(Integer.toString(cn.getAllConstructors().length));
+      for (ConstructorDef<?> def : cn.getAllConstructors()) {
+        addConstructorDef(parts, def);
+      }
+      parts.add(Integer.toString(cn.getInjectableConstructors().length));
+      for (ConstructorDef<?> def : cn.getInjectableConstructors()) {
+        addConstructorDef(parts, def);
+      }
+    } else if (n instanceof NamedParameterNode) {
+      final NamedParameterNode<?> np = (NamedParameterNode<?>) n;
+      parts.add("named-parameter");
+      parts.add(np.getFullArgName());
+      parts.add(np.getSimpleArgName());
+      parts.add(np.isSet() + "," + np.isList());
+      parts.add(np.getDocumentation());
+      parts.add(np.getShortName());
+      parts.addAll(Arrays.asList(np.getDefaultInstanceAsStrings()));
+    } else {
+      parts.add("package");
+    }
+    Fingerprint f = Fingerprint.of(parts.toArray(new String[0]));
+    if (n instanceof ClassNode) {
+      for (ClassNode<?> impl : ((ClassNode<?>) n).getKnownImplementations()) {
+        f = f.plus(Fingerprint.of("impl", n.getFullName(), impl.getFullName()));
+      }
+    }
+    return f;
+  }
+
+  private static void addConstructorDef(final List<String> parts, final ConstructorDef<?> def) {
+    parts.add(def.getClassName());
+    parts.add(Integer.toString(def.getArgs().length));
+    for (ConstructorArg arg : def.getArgs()) {
+      parts.add(arg.getType());
+      parts.add(arg.getNamedParameterName());
+      parts.add(Boolean.toString(arg.isInjectionFuture()));
+    }
+  }
+
+  /**
+   * Build the Node for a single record and attach it to its parent.
+   */
+  private static Node parseNode(Node parent, ClassHierarchyProto.Node n) {
     final Node parsed;
     if (n.hasPackageNode()) {
       parsed = new PackageNodeImpl(parent, n.getName(), n.getFullName());
@@ -280,9 +663,7 @@ public class ProtocolBufferClassHierarchy implements ClassHierarchy {
       throw new IllegalStateException("Bad protocol buffer: got abstract node"
           + n);
     }
-    for (ClassHierarchyProto.Node child : n.getChildrenList()) {
-      parseSubHierarchy(parsed, child);
-    }
+    return parsed;
   }
 
   private static ConstructorDef<?> parseConstructorDef(
@@ -297,41 +678,108 @@ public class ProtocolBufferClassHierarchy implements ClassHierarchy {
         args.toArray(new ConstructorArg[0]), isInjectable);
   }
 
+  private synchronized Node materializeNode(final String fullName) throws NameResolutionException {
+    boolean success = false;
+    try {
+      final Node ret = materialize(fullName);
+      success = true;
+      return ret;
+    } finally {
+      finishMaterialize(success);
+    }
+  }
+
+  /**
+   * Publish the nodes built by the last materialize() call if it succeeded,
+   * or set them aside if it did not.
+   */
+  private void finishMaterialize(final boolean success) {
+    if (success) {
+      for (final Node n : inProgress.values()) {
+        lookupTable.put(new FullName(n), n);
+      }
+    } else {
+      broken.putAll(inProgress);
+    }
+    inProgress.clear();
+  }
+
+  private synchronized void materializeAll() {
+    if (complete) {
+      return;
+    }
+    boolean success = false;
+    try {
+      for (String fullName : index.keySet()) {
+        materialize(fullName);
+      }
+      success = true;
+    } catch (NameResolutionException e) {
+      throw new IllegalStateException("Protocol buffer refers to a node it does not contain", e);
+    } finally {
+      finishMaterialize(success);
+    }
+    complete = true;
+    // Every node is built, so the records, and the full names they repeat,
+    // are no longer needed.
+    index.clear();
+  }
+
+  /**
+   * Build the node with the given name, its enclosing nodes and its known
+   * implementations, unless they have been built already.  Nodes are
+   * registered in inProgress before their implementations are wired up,
+   * which ends recursion through classes that implement an enclosing
+   * interface.
+   */
   @SuppressWarnings({ "rawtypes", "unchecked" })
-  private void wireUpInheritanceRelationships(final ClassHierarchyProto.Node n) {
-    if (n.hasClassNode()) {
-      final ClassHierarchyProto.ClassNode cn = n.getClassNode();
-      final ClassNode iface;
-      try {
-        iface = (ClassNode) getNode(n.getFullName());
-      } catch (NameResolutionException e) {
-        throw new IllegalStateException("When reading protocol buffer node "
-            + n.getFullName() + " does not exist.  Full record is " + n, e);
-      }
-      for (String impl : cn.getImplFullNamesList()) {
+  private Node materialize(final String fullName) throws NameResolutionException {
+    Node ret = lookupTable.get(new FullName(fullName));
+    if (ret == null) {
+      ret = inProgress.get(fullName);
+    }
+    if (ret != null) {
+      return ret;
+    }
+    if (broken.containsKey(fullName)) {
+      // Its record was parsed, and attached to its parent, by a call that
+      // failed; parsing it again would fail the same way.
+      throw new IllegalStateException("Could not read protocol buffer node " + fullName);
+    }
+    final Unparsed u = index.get(fullName);
+    if (u == null) {
+      throw new NameResolutionException(fullName, "");
+    }
+    final Node parent = u.parent == null ? namespace : materialize(u.parent);
+    // The parent may be an interface that this node implements, in which
+    // case building the parent built this node too.
+    ret = inProgress.get(fullName);
+    if (ret != null) {
+      return ret;
+    }
+    ret = parseNode(parent, u.proto);
+    inProgress.put(fullName, ret);
+
+    if (u.proto.hasClassNode()) {
+      final ClassNode iface = (ClassNode) ret;
+      for (String impl : u.proto.getClassNode().getImplFullNamesList()) {
+        final Node implNode;
         try {
-          iface.putImpl((ClassNode) getNode(impl));
+          implNode = materialize(impl);
         } catch (NameResolutionException e) {
           throw new IllegalStateException("When reading protocol buffer node "
-              + n + " refers to non-existent implementation:" + impl);
-        } catch (ClassCastException e) {
-          try {
-            throw new IllegalStateException(
-                "When reading protocol buffer node " + n
-                    + " found implementation" + getNode(impl)
-                    + " which is not a ClassNode!");
-          } catch (NameResolutionException e2) {
-            throw new IllegalStateException(
-                "Got 'cant happen' exception when producing error message for "
-                    + e);
-          }
+              + u.proto + " refers to non-existent implementation:" + impl);
+        }
+        if (!(implNode instanceof ClassNode)) {
+          throw new IllegalStateException(
+              "When reading protocol buffer node " + u.proto
+                  + " found implementation" + implNode
+                  + " which is not a ClassNode!");
         }
+        iface.putImpl((ClassNode) implNode);
       }
     }
-
-    for (ClassHierarchyProto.Node child : n.getChildrenList()) {
-      wireUpInheritanceRelationships(child);
-    }
+    return ret;
   }
 
   private static String getNthPrefix(String str, int n) {
@@ -355,7 +803,10 @@ public class ProtocolBufferClassHierarchy implements ClassHierarchy {
   @Override
   public Node getNode(String fullName) throws NameResolutionException {
 
-     Node ret = lookupTable.get(fullName);
+    Node ret = lookupTable.get(new FullName(fullName));
+    if (ret == null && !complete) {
+      ret = materializeNode(fullName);
+    }
 /*    String[] tok = fullName.split(regex);
 
     Node ret = namespace.get(fullName);
@@ -384,18 +835,186 @@ public class ProtocolBufferClassHierarchy implements ClassHierarchy {
     return impl.isImplementationOf(inter);
   }
 
+  /**
+   * Merge with another ProtocolBufferClassHierarchy.
+   * <p/>
+   * The result holds the union of both package trees, and each class holds
+   * the union of the known implementations recorded on either side.  Nodes
+   * present on both sides must agree on everything else; all disagreements
+   * are reported together in one ClassHierarchyException.  Both trees are
+   * walked once, side by side.  If one side already contains everything the
+   * other one does, that side is returned as is.
+   * <p/>
+   * Results are cached by the fingerprints of the two inputs, so merging the
+   * same pair of hierarchies again, in either order, returns the earlier
+   * result.
+   */
   @Override
   public ClassHierarchy merge(ClassHierarchy ch) {
     if (this == ch) {
       return this;
     }
-    throw new UnsupportedOperationException(
-        "Cannot merge ExternalClassHierarchies yet!");
+    if (!(ch instanceof ProtocolBufferClassHierarchy)) {
+      throw new UnsupportedOperationException(
+          "Can't merge protocol buffer and non-protocol buffer class hierarchies yet!");
+    }
+    final String mine = getFingerprint().toString();
+    final String theirs = ch.getFingerprint().toString();
+    if (mine.equals(theirs)) {
+      return this;
+    }
+    final String key = mine.compareTo(theirs) < 0 ? mine + theirs : theirs + mine;
+    synchronized (mergeCache) {
+      final SoftReference<ClassHierarchy> ref = mergeCache.get(key);
+      final ClassHierarchy cached = ref == null ? null : ref.get();
+      if (cached != null) {
+        return cached;
+      }
+      if (ref != null) {
+        mergeCache.remove(key);
+      }
+    }
+
+    final Merge m = new Merge();
+    final ClassHierarchyProto.Node root = m.merge(getNamespace(), ch.getNamespace());
+    if (!m.conflicts.isEmpty()) {
+      final StringBuilder sb = new StringBuilder("Cannot merge class hierarchies, found "
+          + m.conflicts.size() + " conflicting node(s):");
+      for (String conflict : m.conflicts) {
+        sb.append("\n  " + conflict);
+      }
+      throw new ClassHierarchyException(sb.toString());
+    }
+    final ClassHierarchy merged;
+    if (!m.addedFromOther) {
+      merged = this;
+    } else if (!m.addedFromThis) {
+      merged = ch;
+    } else {
+      merged = new ProtocolBufferClassHierarchy(root);
+    }
+    synchronized (mergeCache) {
+      mergeCache.put(key, new SoftReference<>(merged));
+    }
+    return merged;
+  }
+
+  /**
+   * The state of one merge() call.
+   */
+  private static final class Merge {
+    final List<String> conflicts = new ArrayList<>();
+    /** Whether the result holds nodes or implementations only found in the first tree. */
+    boolean addedFromThis = false;
+    /** Whether the result holds nodes or implementations only found in the second tree. */
+    boolean addedFromOther = false;
+
+    /**
+     * Merge two nodes with the same full name, and their descendants.
+     */
+    ClassHierarchyProto.Node merge(final Node a, final Node b) {
+      final List<ClassHierarchyProto.Node> children = new ArrayList<>();
+      for (Node child : a.getChildren()) {
+        final Node other = b.get(key(a, child));
+        if (other == null) {
+          addedFromThis = true;
+          children.add(serializeNode(child));
+        } else {
+          children.add(merge(child, other));
+        }
+      }
+      for (Node other : b.getChildren()) {
+        if (!a.contains(key(b, other))) {
+          addedFromOther = true;
+          children.add(serializeNode(other));
+        }
+      }
+
+      final List<ClassHierarchyProto.Node> none = new ArrayList<>(0);
+      final List<String> noImpls = new ArrayList<>(0);
+      if (!serializeNode(a, none, noImpls).equals(serializeNode(b, none, noImpls))) {
+        conflicts.add(a.getFullName() + ": " + a + " vs. " + b);
+      }
+
+      final Set<String> impls = new LinkedHashSet<>(implFullNames(a));
+      final List<String> otherImpls = implFullNames(b);
+      if (!otherImpls.containsAll(impls)) {
+        addedFromThis = true;
+      }
+      if (impls.addAll(otherImpls)) {
+        addedFromOther = true;
+      }
+      return serializeNode(a, children, impls);
+    }
+
+    /**
+     * @return the key under which parent holds child.  Package nodes key
+     * their children by full name.
+     */
+    private static String key(final Node parent, final Node child) {
+      return parent instanceof PackageNode ? child.getFullName() : child.getName();
+    }
+  }
+
+  /**
+   * A lookupTable key: either a node, whose full name is compared without
+   * being built, or the full name being looked up.
+   */
+  private static final class FullName {
+    private final Node node;
+    private final String name;
+    private final int hash;
+
+    FullName(final Node node) {
+      this.node = node;
+      this.name = null;
+      this.hash = AbstractNode.fullNameHashCode(node);
+    }
+
+    FullName(final String name) {
+      this.node = null;
+      this.name = name;
+      this.hash = name.hashCode();
+    }
+
+    @Override
+    public int hashCode() {
+      return hash;
+    }
+
+    @Override
+    public boolean equals(final Object o) {
+      if (!(o instanceof FullName)) {
+        return false;
+      }
+      final FullName f = (FullName) o;
+      if (f.hash != hash) {
+        return false;
+      } else if (node == null) {
+        return f.node == null ? name.equals(f.name) : AbstractNode.compareFullName(f.node, name) == 0;
+      } else {
+        return f.node == null ? AbstractNode.compareFullName(node, f.name) == 0 : node.compareTo(f.node) == 0;
+      }
+    }
   }
 
   @Override
   public Node getNamespace() {
+    materializeAll();
     return namespace;
   }
 
+  @Override
+  public synchronized Fingerprint getFingerprint() {
+    if (fingerprint == null) {
+      materializeAll();
+      Fingerprint f = Fingerprint.EMPTY;
+      for (Node n : lookupTable.values()) {
+        f = f.plus(fingerprint(n));
+      }
+      fingerprint = f;
+    }
+    return fingerprint;
+  }
+
 }
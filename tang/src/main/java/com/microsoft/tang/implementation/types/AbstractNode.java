@@ -15,26 +15,141 @@
  */
 package com.microsoft.tang.implementation.types;
 
+import java.util.Arrays;
 import java.util.Collection;
-import java.util.Map;
+import java.util.Collections;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListMap;
 
 import com.microsoft.tang.types.Node;
-import com.microsoft.tang.util.MonotonicTreeMap;
 
 public abstract class AbstractNode implements Node {
+  /**
+   * Up to this many children are kept in a sorted array.
+   */
+  private static final int SMALL = 8;
+
+  /**
+   * Children are returned in key order.  While there are at most SMALL of
+   * them, the returned collection doesn't change as children are added;
+   * beyond that, it is a live, weakly consistent view.
+   */
+  @SuppressWarnings("unchecked")
   @Override
   public Collection<Node> getChildren() {
-    return children.values();
+    final Object c = children;
+    if (c == null) {
+      return Collections.emptyList();
+    } else if (c instanceof Node[]) {
+      return Collections.unmodifiableList(Arrays.asList((Node[]) c));
+    } else {
+      return Collections.unmodifiableCollection(((ConcurrentMap<String, Node>) c).values());
+    }
   }
 
   private final Node parent;
   private final String name;
-  private final String fullName;
-  protected final Map<String, Node> children = new MonotonicTreeMap<>();
+  /**
+   * The full name, if it is not derived from the parent's, or once it has
+   * been cached.
+   */
+  private volatile String fullName;
+  /**
+   * If non-zero, the full name is the parent's full name, followed by this
+   * character and the name.
+   */
+  private final char separator;
+  /**
+   * The children: null for leaves, which are the vast majority of nodes, an
+   * array sorted by key while there are at most SMALL of them, and a
+   * ConcurrentSkipListMap from key to child beyond that.
+   * <p/>
+   * Nodes may be read by other threads while children are being added, so
+   * arrays are replaced, never modified, and the field is volatile.  put()
+   * is synchronized, so concurrent writers don't lose each other's children.
+   */
+  private volatile Object children = null;
 
+  /**
+   * Full names are mostly made of the full names of enclosing packages and
+   * classes, so most nodes don't store theirs, and derive it from their
+   * parent's instead.  Nodes with children cache their full name the first
+   * time it is asked for, so a lookup never walks more than one level up.
+   * Leaves never keep theirs; compareTo() and the lookup of children by full
+   * name work on the parent chain instead of building it.
+   */
   @Override
   public String getFullName() {
-    return fullName;
+    String ret = fullName;
+    if (ret == null) {
+      ret = parent.getFullName() + separator + name;
+      if (children != null) {
+        fullName = ret;
+      }
+    }
+    return ret;
+  }
+
+  /**
+   * @return the length of the full name of n.
+   */
+  private static int fullNameLength(final Node n) {
+    if (n instanceof AbstractNode) {
+      final AbstractNode a = (AbstractNode) n;
+      final String f = a.fullName;
+      return f != null ? f.length() : fullNameLength(a.parent) + 1 + a.name.length();
+    }
+    return n.getFullName().length();
+  }
+
+  /**
+   * @return the i-th character of the full name of n, whose length is len.
+   */
+  private static char fullNameCharAt(Node n, int len, final int i) {
+    while (n instanceof AbstractNode) {
+      final AbstractNode a = (AbstractNode) n;
+      final String f = a.fullName;
+      if (f != null) {
+        return f.charAt(i);
+      }
+      final int nameStart = len - a.name.length();
+      if (i >= nameStart) {
+        return a.name.charAt(i - nameStart);
+      } else if (i == nameStart - 1) {
+        return a.separator;
+      }
+      len = nameStart - 1;
+      n = a.parent;
+    }
+    return n.getFullName().charAt(i);
+  }
+
+  /**
+   * Compare the full name of n to s, like String.compareTo() would, without
+   * building the full name of n.
+   */
+  public static int compareFullName(final Node n, final String s) {
+    final int len = fullNameLength(n);
+    final int common = Math.min(len, s.length());
+    for (int i = 0; i < common; i++) {
+      final char c = fullNameCharAt(n, len, i);
+      if (c != s.charAt(i)) {
+        return c - s.charAt(i);
+      }
+    }
+    return len - s.length();
+  }
+
+  /**
+   * @return the hash code of the full name of n, without building it.
+   */
+  public static int fullNameHashCode(final Node n) {
+    final int len = fullNameLength(n);
+    int h = 0;
+    for (int i = 0; i < len; i++) {
+      h = 31 * h + fullNameCharAt(n, len, i);
+    }
+    return h;
   }
 
   @Override
@@ -61,8 +176,13 @@ public abstract class AbstractNode implements Node {
 
   public AbstractNode(Node parent, String name, String fullName) {
     this.parent = parent;
-    this.name = name;
-    this.fullName = fullName;
+    this.name = name.intern();
+    final char sep = (parent == null || parent.getParent() == null)
+        ? 0 : separator(parent.getFullName(), name, fullName);
+    this.separator = sep;
+    if (sep == 0) {
+      this.fullName = fullName.equals(name) ? this.name : fullName;
+    }
     if (parent != null) {
       if (name.length() == 0) {
         throw new IllegalArgumentException(
@@ -72,6 +192,19 @@ public abstract class AbstractNode implements Node {
     }
   }
 
+  /**
+   * @return the character between prefix and name, if fullName is made of
+   * these three parts, or zero otherwise.
+   */
+  private static char separator(String prefix, String name, String fullName) {
+    final int n = prefix.length();
+    if (fullName.length() == n + 1 + name.length()
+        && fullName.startsWith(prefix) && fullName.endsWith(name)) {
+      return fullName.charAt(n);
+    }
+    return 0;
+  }
+
   @Override 
   public Node getParent() {
     return parent;
@@ -79,17 +212,96 @@ public abstract class AbstractNode implements Node {
   
   @Override
   public boolean contains(String key) {
-    return children.containsKey(key);
+    return get(key) != null;
   }
 
+  @SuppressWarnings("unchecked")
   @Override
   public Node get(String key) {
-    return children.get(key);
+    final Object c = children;
+    if (c == null) {
+      return null;
+    } else if (c instanceof Node[]) {
+      final Node[] array = (Node[]) c;
+      final int i = indexOf(array, key);
+      return i < 0 ? null : array[i];
+    } else {
+      return ((ConcurrentMap<String, Node>) c).get(key);
+    }
   }
 
+  /**
+   * @return the key that this node files the given child under.
+   */
+  protected String childKey(Node n) {
+    return n.getName();
+  }
+
+  /**
+   * Compare the key of child to key, without building the key if it is
+   * derived.  Must agree with childKey().
+   */
+  protected int compareKey(Node child, String key) {
+    return child.getName().compareTo(key);
+  }
+
+  /**
+   * Binary search a sorted array of children.
+   * @return the index of the child with the given key, or, if there is none,
+   * (-(insertion point) - 1).
+   */
+  private int indexOf(Node[] array, String key) {
+    int lo = 0;
+    int hi = array.length - 1;
+    while (lo <= hi) {
+      final int mid = (lo + hi) >>> 1;
+      final int c = compareKey(array[mid], key);
+      if (c < 0) {
+        lo = mid + 1;
+      } else if (c > 0) {
+        hi = mid - 1;
+      } else {
+        return mid;
+      }
+    }
+    return -(lo + 1);
+  }
+
+  @SuppressWarnings("unchecked")
   @Override
-  public void put(Node n) {
-    children.put(n.getName(), n);
+  public synchronized void put(Node n) {
+    final String key = childKey(n);
+    if (children == null) {
+      children = new Node[] { n };
+    } else if (children instanceof Node[]) {
+      final Node[] array = (Node[]) children;
+      final int i = indexOf(array, key);
+      if (i >= 0) {
+        throw new IllegalArgumentException("Attempt to re-add: [" + key
+            + "]\n old value: " + array[i] + " new value " + n);
+      }
+      if (array.length < SMALL) {
+        final int at = -(i + 1);
+        final Node[] grown = new Node[array.length + 1];
+        System.arraycopy(array, 0, grown, 0, at);
+        grown[at] = n;
+        System.arraycopy(array, at, grown, at + 1, array.length - at);
+        children = grown;
+      } else {
+        final ConcurrentMap<String, Node> map = new ConcurrentSkipListMap<>();
+        for (Node child : array) {
+          map.put(childKey(child), child);
+        }
+        map.put(key, n);
+        children = map;
+      }
+    } else {
+      final Node old = ((ConcurrentMap<String, Node>) children).putIfAbsent(key, n);
+      if (old != null) {
+        throw new IllegalArgumentException("Attempt to re-add: [" + key
+            + "]\n old value: " + old + " new value " + n);
+      }
+    }
   }
 
   @SuppressWarnings("unused")
@@ -100,7 +312,7 @@ public abstract class AbstractNode implements Node {
     }
     sb.append(toString() + "\n");
     if (children != null) {
-      for (Node n : children.values()) {
+      for (Node n : getChildren()) {
         sb.append(((AbstractNode)n).toIndentedString(level + 1));
       }
     }
@@ -119,6 +331,19 @@ public abstract class AbstractNode implements Node {
 
   @Override
   public int compareTo(Node n) {
-    return getFullName().compareTo(n.getFullName());
+    if (this == n) {
+      return 0;
+    }
+    final int len = fullNameLength(this);
+    final int otherLen = fullNameLength(n);
+    final int common = Math.min(len, otherLen);
+    for (int i = 0; i < common; i++) {
+      final char c = fullNameCharAt(this, len, i);
+      final char other = fullNameCharAt(n, otherLen, i);
+      if (c != other) {
+        return c - other;
+      }
+    }
+    return len - otherLen;
   }
 }
\ No newline at end of file
@@ -16,8 +16,12 @@
 package com.microsoft.tang.implementation.types;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.ConcurrentSkipListSet;
 
 import com.microsoft.tang.exceptions.BindException;
 import com.microsoft.tang.types.ClassNode;
@@ -31,7 +35,16 @@ public class ClassNodeImpl<T> extends AbstractNode implements ClassNode<T> {
   private final boolean externalConstructor;
   private final ConstructorDef<T>[] injectableConstructors;
   private final ConstructorDef<T>[] allConstructors;
-  private final MonotonicSet<ClassNode<T>> knownImpls;
+  /**
+   * Most classes have no known implementations, and few have many.  So this
+   * is null, an array sorted like a MonotonicSet while there are at most
+   * SMALL implementations, and a ConcurrentSkipListSet beyond that.
+   * <p/>
+   * Implementations may be added while other threads read this node, so
+   * arrays are replaced, never modified, and the field is volatile.
+   */
+  private volatile Object knownImpls = null;
+  private static final int SMALL = 8;
   private final String defaultImpl;
   
   public ClassNodeImpl(Node parent, String simpleName, String fullName,
@@ -45,7 +58,6 @@ public class ClassNodeImpl<T> extends AbstractNode implements ClassNode<T> {
     this.externalConstructor = externalConstructor;
     this.injectableConstructors = injectableConstructors;
     this.allConstructors = allConstructors;
-    this.knownImpls = new MonotonicSet<>();
     this.defaultImpl = defaultImplementation;
   }
 
@@ -96,14 +108,63 @@ public class ClassNodeImpl<T> extends AbstractNode implements ClassNode<T> {
         + getFullName());
   }
 
+  @SuppressWarnings("unchecked")
   @Override
-  public void putImpl(ClassNode<T> impl) {
-    knownImpls.add(impl);
+  public synchronized void putImpl(ClassNode<T> impl) {
+    if (knownImpls == null) {
+      knownImpls = new ClassNode<?>[] { impl };
+    } else if (knownImpls instanceof ClassNode<?>[]) {
+      final ClassNode<?>[] array = (ClassNode<?>[]) knownImpls;
+      final int i = Arrays.binarySearch(array, impl);
+      if (i >= 0) {
+        throw new IllegalArgumentException("Attempt to re-add " + impl
+            + " to MonotonicSet!");
+      }
+      if (array.length < SMALL) {
+        final int at = -(i + 1);
+        final ClassNode<?>[] grown = new ClassNode<?>[array.length + 1];
+        System.arraycopy(array, 0, grown, 0, at);
+        grown[at] = impl;
+        System.arraycopy(array, at, grown, at + 1, array.length - at);
+        knownImpls = grown;
+      } else {
+        final Set<ClassNode<?>> set = new ConcurrentSkipListSet<>(Arrays.asList(array));
+        set.add(impl);
+        knownImpls = set;
+      }
+    } else if (!((Set<ClassNode<?>>) knownImpls).add(impl)) {
+      throw new IllegalArgumentException("Attempt to re-add " + impl
+          + " to MonotonicSet!");
+    }
   }
 
+  @SuppressWarnings("unchecked")
   @Override
   public Set<ClassNode<T>> getKnownImplementations() {
-   return new MonotonicSet<>(knownImpls);
+    final MonotonicSet<ClassNode<T>> ret = new MonotonicSet<>();
+    for (ClassNode<?> impl : knownImplementations(this)) {
+      ret.add((ClassNode<T>) impl);
+    }
+    return ret;
+  }
+
+  /**
+   * The known implementations of cn, without copying them if cn is a
+   * ClassNodeImpl.
+   */
+  @SuppressWarnings({ "unchecked", "rawtypes" })
+  private static Collection<ClassNode<?>> knownImplementations(ClassNode<?> cn) {
+    if (!(cn instanceof ClassNodeImpl)) {
+      return (Set) cn.getKnownImplementations();
+    }
+    final Object impls = ((ClassNodeImpl<?>) cn).knownImpls;
+    if (impls == null) {
+      return Collections.emptyList();
+    } else if (impls instanceof ClassNode<?>[]) {
+      return Arrays.asList((ClassNode<?>[]) impls);
+    } else {
+      return (Set) impls;
+    }
   }
 
   @Override
@@ -120,8 +181,7 @@ public class ClassNodeImpl<T> extends AbstractNode implements ClassNode<T> {
     worklist.add(inter);
     while (!worklist.isEmpty()) {
       ClassNode<?> cn = worklist.remove(worklist.size() - 1);
-      @SuppressWarnings({ "rawtypes", "unchecked" })
-      Set<ClassNode<?>> impls = (Set) cn.getKnownImplementations();
+      Collection<ClassNode<?>> impls = knownImplementations(cn);
       if (impls.contains(this)) {
         return true;
       }
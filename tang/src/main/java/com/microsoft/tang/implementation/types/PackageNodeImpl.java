@@ -31,8 +31,13 @@ public class PackageNodeImpl extends AbstractNode implements PackageNode {
    * we insert nodes into the root.
    */
   @Override
-  public void put(Node n) {
-    super.children.put(n.getFullName(), n);
+  protected String childKey(Node n) {
+    return n.getFullName();
+  }
+
+  @Override
+  protected int compareKey(Node child, String key) {
+    return compareFullName(child, key);
   }
 
 }
\ No newline at end of file
@@ -0,0 +1,165 @@
+/**
+ * Copyright (C) 2014 Microsoft Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.microsoft.tang.util;
+
+import com.microsoft.tang.ClassHierarchy;
+import com.microsoft.tang.Configuration;
+import com.microsoft.tang.Tang;
+import com.microsoft.tang.exceptions.InjectionException;
+import com.microsoft.tang.formats.ConfigurationSerializer;
+import com.microsoft.tang.implementation.InjectionPlan;
+import com.microsoft.tang.implementation.LazyConfigurationImpl;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * Decodes and validates many serialized configurations against one shared
+ * ClassHierarchy, in parallel on a caller supplied executor.
+ * <p/>
+ * This is the batch counterpart of ValidateConfiguration.  Each item is
+ * deserialized with ConfigurationSerializer.fromByteArray(), which checks
+ * every binding against the ClassHierarchy; configurations read lazily are
+ * validated in full.  If a target class is given, it must be injectable
+ * from the result.  A failure only affects its own item, and the outcome of
+ * every item is reported in a Result.
+ * <p/>
+ * The ClassHierarchy is shared by the worker threads.  ClassHierarchyImpl
+ * registers classes under its lock, and nodes publish the children and known
+ * implementations added to them safely, so readers never see a node in an
+ * inconsistent state.  Classes are registered as the items mention them,
+ * though, so the known implementations of an interface may grow while other
+ * items are being validated.  Register every class the batch refers to
+ * beforehand if the results must not depend on scheduling.
+ */
+public final class ConfigurationBatchValidator {
+
+  /**
+   * The outcome of validating one serialized configuration.
+   */
+  public static final class Result {
+    private final Configuration configuration;
+    private final Exception error;
+
+    private Result(final Configuration configuration, final Exception error) {
+      this.configuration = configuration;
+      this.error = error;
+    }
+
+    /**
+     * @return true if the configuration was decoded and validated.
+     */
+    public boolean isValid() {
+      return error == null;
+    }
+
+    /**
+     * @return the validated configuration, or null if validation failed.
+     */
+    public Configuration getConfiguration() {
+      return configuration;
+    }
+
+    /**
+     * @return the reason validation failed, or null if it succeeded.
+     */
+    public Exception getError() {
+      return error;
+    }
+
+    @Override
+    public String toString() {
+      return isValid() ? "valid" : "invalid: " + error;
+    }
+  }
+
+  private final ConfigurationSerializer serializer;
+  private final ClassHierarchy classHierarchy;
+  private final ExecutorService executor;
+
+  /**
+   * @param serializer     decodes the items.
+   * @param classHierarchy the ClassHierarchy all items are validated against.
+   * @param executor       runs one task per item.  It is not shut down.
+   */
+  public ConfigurationBatchValidator(final ConfigurationSerializer serializer,
+                                     final ClassHierarchy classHierarchy,
+                                     final ExecutorService executor) {
+    this.serializer = serializer;
+    this.classHierarchy = classHierarchy;
+    this.executor = executor;
+  }
+
+  /**
+   * Decode and validate the given configurations.
+   *
+   * @param serialized the serialized configurations.
+   * @return one Result per item, in the same order.
+   * @throws InterruptedException if interrupted while waiting for the executor.
+   */
+  public List<Result> validate(final List<byte[]> serialized) throws InterruptedException {
+    return validate(serialized, null);
+  }
+
+  /**
+   * Decode and validate the given configurations, and check that the target
+   * can be injected from each of them.
+   *
+   * @param serialized the serialized configurations.
+   * @param target     full name of the class to check, or null to skip that check.
+   * @return one Result per item, in the same order.
+   * @throws InterruptedException if interrupted while waiting for the executor.
+   */
+  public List<Result> validate(final List<byte[]> serialized, final String target) throws InterruptedException {
+    final List<Callable<Configuration>> tasks = new ArrayList<>(serialized.size());
+    for (final byte[] bytes : serialized) {
+      tasks.add(new Callable<Configuration>() {
+        @Override
+        public Configuration call() throws Exception {
+          final Configuration conf = serializer.fromByteArray(bytes, classHierarchy);
+          if (conf instanceof LazyConfigurationImpl) {
+            ((LazyConfigurationImpl) conf).validateAll();
+          }
+          if (target != null) {
+            final InjectionPlan<?> ip = Tang.Factory.getTang().newInjector(conf).getInjectionPlan(target);
+            if (!ip.isInjectable()) {
+              throw new InjectionException(target + " is not injectable: " + ip.toCantInjectString());
+            }
+          }
+          return conf;
+        }
+      });
+    }
+
+    final List<Result> results = new ArrayList<>(tasks.size());
+    for (final Future<Configuration> f : executor.invokeAll(tasks)) {
+      try {
+        results.add(new Result(f.get(), null));
+      } catch (final ExecutionException e) {
+        if (e.getCause() instanceof Exception) {
+          results.add(new Result(null, (Exception) e.getCause()));
+        } else {
+          throw (Error) e.getCause();
+        }
+      }
+    }
+    return results;
+  }
+}
@@ -0,0 +1,125 @@
+/**
+ * Copyright (C) 2014 Microsoft Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.microsoft.tang.util;
+
+/**
+ * An immutable 128-bit content fingerprint.
+ * <p/>
+ * Fingerprints of individual items are computed with of(), and combined with
+ * plus().  Since plus() is commutative, the fingerprint of a collection does
+ * not depend on the order in which its items were added, so it can be
+ * maintained incrementally as the collection grows.  Fingerprints only
+ * depend on the characters of the hashed strings, and are therefore stable
+ * across JVMs.
+ * <p/>
+ * Equal fingerprints do not guarantee equal content, but collisions are
+ * vanishingly unlikely for use as cache keys.
+ */
+public final class Fingerprint {
+  /**
+   * The fingerprint of the empty collection.
+   */
+  public static final Fingerprint EMPTY = new Fingerprint(0L, 0L);
+
+  private static final long SEED1 = 0xcbf29ce484222325L;
+  private static final long SEED2 = 0x84222325cbf29ce4L;
+  private static final long PRIME1 = 0x100000001b3L;
+  private static final long PRIME2 = 0x9e3779b97f4a7c15L;
+
+  private final long high;
+  private final long low;
+
+  public Fingerprint(final long high, final long low) {
+    this.high = high;
+    this.low = low;
+  }
+
+  /**
+   * Fingerprint a single item, described by a tuple of strings.  The parts
+   * are length-prefixed, so ("ab", "c") and ("a", "bc") hash differently.
+   * Null parts are allowed.
+   */
+  public static Fingerprint of(final String... parts) {
+    long h1 = SEED1;
+    long h2 = SEED2;
+    for (final String part : parts) {
+      final int len = part == null ? -1 : part.length();
+      h1 = (h1 ^ len) * PRIME1;
+      h2 = (h2 ^ len) * PRIME2;
+      for (int i = 0; i < len; i++) {
+        final char c = part.charAt(i);
+        h1 = (h1 ^ c) * PRIME1;
+        h2 = (h2 ^ c) * PRIME2;
+      }
+    }
+    h1 += h2;
+    h2 += h1;
+    h1 = mix(h1);
+    h2 = mix(h2);
+    h1 += h2;
+    h2 += h1;
+    return new Fingerprint(h1, h2);
+  }
+
+  /**
+   * MurmurHash3's 64-bit finalizer.
+   */
+  private static long mix(long k) {
+    k ^= k >>> 33;
+    k *= 0xff51afd7ed558ccdL;
+    k ^= k >>> 33;
+    k *= 0xc4ceb9fe1a85ec53L;
+    k ^= k >>> 33;
+    return k;
+  }
+
+  /**
+   * @return the fingerprint of the union of two disjoint collections.
+   */
+  public Fingerprint plus(final Fingerprint other) {
+    return new Fingerprint(high + other.high, low + other.low);
+  }
+
+  public long getHigh() {
+    return high;
+  }
+
+  public long getLow() {
+    return low;
+  }
+
+  @Override
+  public boolean equals(final Object o) {
+    if (this == o) {
+      return true;
+    }
+    if (o == null || getClass() != o.getClass()) {
+      return false;
+    }
+    final Fingerprint that = (Fingerprint) o;
+    return high == that.high && low == that.low;
+  }
+
+  @Override
+  public int hashCode() {
+    return (int) (low ^ (low >>> 32));
+  }
+
+  @Override
+  public String toString() {
+    return String.format("%016x%016x", high, low);
+  }
+}
@@ -15,39 +15,37 @@
  */
 package com.microsoft.tang.util;
 
+import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
-import java.io.PrintStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
 import java.lang.reflect.Field;
 import java.lang.reflect.Modifier;
-import java.net.MalformedURLException;
 import java.net.URL;
+import java.nio.charset.Charset;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
-import java.util.TreeSet;
-
-import javax.inject.Inject;
-
-import org.reflections.Reflections;
-import org.reflections.scanners.MethodAnnotationsScanner;
-import org.reflections.scanners.MethodParameterScanner;
-import org.reflections.scanners.SubTypesScanner;
-import org.reflections.scanners.TypeAnnotationsScanner;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import com.microsoft.tang.ExternalConstructor;
 import com.microsoft.tang.JavaClassHierarchy;
 import com.microsoft.tang.Tang;
 import com.microsoft.tang.annotations.DefaultImplementation;
-import com.microsoft.tang.annotations.Name;
-import com.microsoft.tang.annotations.NamedParameter;
-import com.microsoft.tang.annotations.Parameter;
-import com.microsoft.tang.annotations.Unit;
 import com.microsoft.tang.exceptions.ClassHierarchyException;
 import com.microsoft.tang.exceptions.NameResolutionException;
 import com.microsoft.tang.formats.ConfigurationModule;
-import com.microsoft.tang.formats.ConfigurationModuleBuilder;
 import com.microsoft.tang.types.ClassNode;
 import com.microsoft.tang.types.ConstructorArg;
 import com.microsoft.tang.types.ConstructorDef;
@@ -88,52 +86,25 @@ public class Tint {
     this(jars, false);
   }
 
-  @SuppressWarnings("unchecked")
   public Tint(URL[] jars, boolean checkTang) {
-    Object[] args = new Object[jars.length + 6];
-    for(int i = 0; i < jars.length; i++){
-      args[i] = jars[i];
-    }
-    args[args.length-1] = new TypeAnnotationsScanner();
-    args[args.length-2] = new SubTypesScanner();
-    args[args.length-3] = new MethodAnnotationsScanner();
-    args[args.length-4] = new MethodParameterScanner();
-    args[args.length-5] = "com.microsoft";
-    args[args.length-6] = "org.apache";
-    Reflections r = new Reflections(args);
-//    Set<Class<?>> classes = new MonotonicSet<>();
-    Set<String> strings = new TreeSet<>();
-    Set<String> moduleBuilders = new MonotonicSet<>();
+    this(jars, checkTang, (File) null);
+  }
 
-    // Workaround bug in Reflections by keeping things stringly typed, and using Tang to parse them.
-//  Set<Constructor<?>> injectConstructors = (Set<Constructor<?>>)(Set)r.getMethodsAnnotatedWith(Inject.class);
-//  for(Constructor<?> c : injectConstructors) {
-//    classes.add(c.getDeclaringClass());
-//  }
-    Set<String> injectConstructors = r.getStore().getConstructorsAnnotatedWith(ReflectionUtilities.getFullName(Inject.class));
-    for(String s : injectConstructors) {
-      strings.add(s.replaceAll("\\.<.+$",""));
-    }
-    Set<String> parameterConstructors = r.getStore().get(MethodParameterScanner.class, ReflectionUtilities.getFullName(Parameter.class));
-    for(String s : parameterConstructors) {
-      strings.add(s.replaceAll("\\.<.+$",""));
-    }
-//    Set<Class> r.getConstructorsWithAnyParamAnnotated(Parameter.class);
-//    for(Constructor<?> c : parameterConstructors) {
-//      classes.add(c.getDeclaringClass());
-//    }
-    Set<String> defaultStrings = r.getStore().get(TypeAnnotationsScanner.class, ReflectionUtilities.getFullName(DefaultImplementation.class));
-    strings.addAll(defaultStrings);
-    strings.addAll(r.getStore().get(TypeAnnotationsScanner.class, ReflectionUtilities.getFullName(NamedParameter.class)));
-    strings.addAll(r.getStore().get(TypeAnnotationsScanner.class, ReflectionUtilities.getFullName(Unit.class)));
-//    classes.addAll(r.getTypesAnnotatedWith(DefaultImplementation.class));
-//    classes.addAll(r.getTypesAnnotatedWith(NamedParameter.class));
-//    classes.addAll(r.getTypesAnnotatedWith(Unit.class));
-    
-    strings.addAll(r.getStore().get(SubTypesScanner.class, ReflectionUtilities.getFullName(Name.class)));
-    
-    moduleBuilders.addAll(r.getStore().get(SubTypesScanner.class, ReflectionUtilities.getFullName(ConfigurationModuleBuilder.class)));
-//    classes.addAll(r.getSubTypesOf(Name.class));
+  /**
+   * @param jars      the jars to analyze, in addition to the classpath.
+   * @param checkTang whether to report on Tang's own classes.
+   * @param cacheDir  where to keep the scan results of each jar between
+   *                  runs, so that only changed jars are scanned again; null
+   *                  to scan every jar.
+   */
+  public Tint(URL[] jars, boolean checkTang, File cacheDir) {
+    this(jars, checkTang, TintScan.scan(jars, cacheDir));
+  }
+
+  @SuppressWarnings("unchecked")
+  Tint(URL[] jars, boolean checkTang, TintScan scan) {
+    Set<String> strings = scan.names;
+    Set<String> moduleBuilders = scan.moduleBuilders;
 
     ch = Tang.Factory.getTang().getDefaultClassHierarchy(jars, (Class<? extends ExternalConstructor<?>>[])new Class[0]);
 //    for(String s : defaultStrings) {
@@ -465,69 +436,65 @@ public class Tint {
   }
   
   public String cell(String s, String clazz) {
+    StringBuilder sb = new StringBuilder();
+    appendCell(sb, s, clazz);
+    return sb.toString();
+  }
+  public String cell(StringBuffer sb, String clazz) {
+    return cell(sb.toString(), clazz);
+  }
+  public String row(StringBuffer sb) {
+    return sb.toString();
+  }
+  private void appendCell(StringBuilder sb, CharSequence s, String clazz) {
+    final String tag = divs.contains(clazz) ? "div" : "span";
+    sb.append('<').append(tag).append(" class=\"").append(clazz).append("\">");
     if(clazz.equals(USES) && s.length()>0) {
-      s = "<em>Used by:</em><br>" + s;
+      sb.append("<em>Used by:</em><br>");
     }
     if(clazz.equals(SETTERS) && s.length()>0) {
-      s = "<em>Set by:</em><br>" + s;
+      sb.append("<em>Set by:</em><br>");
     }
     if(clazz.equals(FULLNAME)) {
-      s = "&nbsp;" + s;
-    }
-    if(divs.contains(clazz)) {
-      return "<div class=\""+clazz+"\">" + s + "</div>";
-    } else {
-      return "<span class=\""+clazz+"\">" + s + "</span>";
+      sb.append("&nbsp;");
     }
+    sb.append(s).append("</").append(tag).append('>');
   }
-  public String cell(StringBuffer sb, String clazz) {
-    return cell(sb.toString(), clazz);
+  private void appendLinks(StringBuilder sb, Set<String> targets, String clazz, String pack) {
+    StringBuilder links = new StringBuilder();
+    for(String t : targets) {
+      links.append("<a href='#").append(t).append("'>").append(stripPrefix(t, pack)).append("</a> ");
+    }
+    appendCell(sb, links, clazz);
   }
-  public String row(StringBuffer sb) {
+  public String toHtmlString(NamedParameterNode<?> n, String pack) {
+    StringBuilder sb = new StringBuilder();
+    appendHtml(sb, n, pack);
     return sb.toString();
   }
-  public String toHtmlString(NamedParameterNode<?> n, String pack) {
-    String fullName = stripPrefix(n.getFullName(), pack);
-    StringBuffer sb = new StringBuffer();
-
-    sb.append("<div id='"+n.getFullName()+"' class='decl-margin'>");
+  private void appendHtml(StringBuilder sb, NamedParameterNode<?> n, String pack) {
+    sb.append("<div id='").append(n.getFullName()).append("' class='decl-margin'>");
     sb.append("<div class='decl'>");
-    
-    sb.append(cell(n.getSimpleArgName(), "simpleName") + cell(fullName, FULLNAME));
-    final String instance;
+    appendCell(sb, n.getSimpleArgName(), "simpleName");
+    appendCell(sb, stripPrefix(n.getFullName(), pack), FULLNAME);
+    final StringBuilder instance = new StringBuilder();
     final String[] instances = n.getDefaultInstanceAsStrings();
-    if(instances.length != 0) {
-      StringBuffer sb2 = new StringBuffer(" = " + stripPrefix(instances[0], pack));
-      for(int i = 1; i < instances.length; i++) {
-        sb2.append("," + stripPrefix(instances[i], pack));
-      }
-      instance = sb2.toString();
-    } else {
-      instance = "";
-    }
-    sb.append(cell(instance, "instance"));
-    StringBuffer doc = new StringBuffer();
-    if(!n.getDocumentation().equals("")) {
-      doc.append(n.getDocumentation());
+    for(int i = 0; i < instances.length; i++) {
+      instance.append(i == 0 ? " = " : ",").append(stripPrefix(instances[i], pack));
     }
-    sb.append(cell(doc, "doc"));
-    StringBuffer uses = new StringBuffer();
-    for(String u : getUsesOf(n)) {
-      uses.append("<a href='#"+u+"'>"+stripPrefix(u, pack) + "</a> ");
-    }
-    sb.append(cell(uses, USES));
-    StringBuffer setters = new StringBuffer();
-    for(String f : getSettersOf(n)) {
-      setters.append("<a href='#"+f+"'>"+stripPrefix(f, pack) + "</a> ");
-    }
-    sb.append(cell(setters, SETTERS));
+    appendCell(sb, instance, "instance");
+    appendCell(sb, n.getDocumentation(), "doc");
+    appendLinks(sb, getUsesOf(n), USES, pack);
+    appendLinks(sb, getSettersOf(n), SETTERS, pack);
     sb.append("</div>");
     sb.append("</div>");
-       return row(sb);
   }
   public String toHtmlString(ClassNode<?> n, String pack) {
-    String fullName = stripPrefix(n.getFullName(), pack);
-    
+    StringBuilder sb = new StringBuilder();
+    appendHtml(sb, n, pack);
+    return sb.toString();
+  }
+  private void appendHtml(StringBuilder sb, ClassNode<?> n, String pack) {
     final String type;
     try {
       if(ch.classForName(n.getFullName()).isInterface()) {
@@ -538,32 +505,20 @@ public class Tint {
     } catch(ClassNotFoundException e) {
       throw new RuntimeException(e);
     }
-    StringBuffer sb = new StringBuffer();
- 
-    sb.append("<div class='decl-margin' id='"+n.getFullName()+"'>");
+    sb.append("<div class='decl-margin' id='").append(n.getFullName()).append("'>");
     sb.append("<div class='decl'>");
-    sb.append(cell(type, "simpleName") + cell(fullName, FULLNAME));
-    final String instance;
+    appendCell(sb, type, "simpleName");
+    appendCell(sb, stripPrefix(n.getFullName(), pack), FULLNAME);
     if(n.getDefaultImplementation() != null) {
-      instance = " = " + stripPrefix(n.getDefaultImplementation(), pack);
+      appendCell(sb, " = " + stripPrefix(n.getDefaultImplementation(), pack), "simpleName");
     } else {
-      instance = "";
-    }
-    sb.append(cell(instance, "simpleName"));
-    sb.append(cell("", "fullName")); // TODO: Documentation string?
-    StringBuffer uses = new StringBuffer();
-    for(String u : getUsesOf(n)) {
-      uses.append("<a href='#"+u+"'>"+stripPrefix(u, pack) + "</a> ");
-    }
-    sb.append(cell(uses, USES));
-    StringBuffer setters = new StringBuffer();
-    for(String f : getSettersOf(n)) {
-      setters.append("<a href='#"+f+"'>"+stripPrefix(f, pack) + "</a> ");
+      appendCell(sb, "", "simpleName");
     }
-    sb.append(cell(setters, SETTERS));
+    appendCell(sb, "", "fullName"); // TODO: Documentation string?
+    appendLinks(sb, getUsesOf(n), USES, pack);
+    appendLinks(sb, getSettersOf(n), SETTERS, pack);
     sb.append("</div>");
     sb.append("</div>");
-    return row(sb);
   }
   public String startPackage(String pack) {
     return "<div class=\"package\">" + pack + "</div>";
@@ -572,16 +527,195 @@ public class Tint {
   public String endPackage() {
     return "";
   }
-  
+
+  /**
+   * The package a documented name is listed under: its leading lower case
+   * components, but no more than five.
+   */
+  private static String docPackage(String fullName) {
+    String tok[] = fullName.split("\\.");
+    StringBuilder sb = new StringBuilder(tok[0]);
+    for(int j = 1; j < tok.length; j++) {
+      if(tok[j].matches("^[A-Z].*") || j > 4) {
+        break;
+      } else
+        sb.append('.').append(tok[j]);
+    }
+    return sb.toString();
+  }
+
+  private static final String NL = System.lineSeparator();
+
+  /**
+   * Write the declarations of one package section, preceded by its heading.
+   */
+  private void writePackage(Appendable out, String pack, List<Node> nodes) throws IOException {
+    out.append(endPackage()).append(NL);
+    out.append(startPackage(pack)).append(NL);
+    StringBuilder sb = new StringBuilder();
+    for(Node n : nodes) {
+      sb.setLength(0);
+      if(n instanceof NamedParameterNode<?>) {
+        appendHtml(sb, (NamedParameterNode<?>)n, pack);
+      } else if (n instanceof ClassNode<?>) {
+        appendHtml(sb, (ClassNode<?>)n, pack);
+      } else {
+        throw new IllegalStateException();
+      }
+      out.append(sb).append(NL);
+    }
+  }
+
+  /**
+   * Number of package sections rendered ahead of the one being written, when
+   * rendering in parallel.  Bounds the memory used for pending output.
+   */
+  private static final int DOC_WINDOW = 16;
+
+  /**
+   * Write the TangDoc HTML page for everything this Tint has found.
+   * <p/>
+   * The page is streamed to out one package section at a time, so only the
+   * declarations of the current section are held in memory.  If an executor
+   * is given, up to DOC_WINDOW sections are rendered on it ahead of the one
+   * being written.  The output is the same either way.
+   *
+   * @param out       where to write the page.
+   * @param checkTang whether to list Tang's own classes.
+   * @param executor  renders package sections in parallel, or null to render
+   *                  them in the calling thread.
+   */
+  public void writeDoc(final Appendable out, final boolean checkTang, final ExecutorService executor) throws IOException {
+    out.append("<html><head><title>TangDoc</title>").append(NL);
+
+    out.append("<style>").append(NL);
+    out.append("body { font-family: 'Segoe UI', 'Comic Sans MS'; font-size:12pt; font-weight: 200; margin: 1em; column-count: 2; }").append(NL);
+    out.append(".package { font-size:18pt; font-weight: 500; column-span: all; }").append(NL);
+    out.append(".decl-margin { padding: 8pt; break-inside: avoid; }").append(NL);
+    out.append(".module-margin { padding: 8pt; column-span: all; break-inside: avoid; }").append(NL);
+    out.append(".decl { background-color: aliceblue; padding: 6pt;}").append(NL);
+    out.append(".fullName { font-size: 11pt; font-weight: 400; }").append(NL);
+    out.append(".simpleName { font-size: 11pt; font-weight: 400; }").append(NL);
+    out.append(".constructorArg { padding-left: 16pt; }").append(NL);
+    out.append("."+SETTERS+" { padding-top: 6pt; font-size: 10pt; }").append(NL);
+    out.append("."+USES+" { padding-top: 6pt; font-size: 10pt; }").append(NL);
+    out.append("pre { font-size: 10pt; }").append(NL);
+    out.append("</style>").append(NL);
+
+    out.append("</head><body>").append(NL);
+
+    // Names come sorted, so the names of a package are adjacent.
+    final Deque<Future<String>> pending = new ArrayDeque<>();
+    String currentPackage = "";
+    List<Node> section = new ArrayList<>();
+    try {
+      for (final Node n : getNamesUsedAndSet()) {
+        String pack = docPackage(n.getFullName());
+        if (!currentPackage.equals(pack)) {
+          flushPackage(out, currentPackage, section, executor, pending);
+          currentPackage = pack;
+          section = new ArrayList<>();
+        }
+        section.add(n);
+      }
+      flushPackage(out, currentPackage, section, executor, pending);
+      while (!pending.isEmpty()) {
+        out.append(pending.removeFirst().get());
+      }
+    } catch (final InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted while rendering TangDoc", e);
+    } catch (final ExecutionException e) {
+      if (e.getCause() instanceof RuntimeException) {
+        throw (RuntimeException)e.getCause();
+      }
+      throw new IOException(e.getCause());
+    } finally {
+      for (final Future<String> f : pending) {
+        f.cancel(true);
+      }
+    }
+    out.append("</div>").append(NL);
+    out.append(endPackage()).append(NL);
+    out.append("<div class='package'>Module definitions</div>").append(NL);
+    for (final Field f : modules.keySet()) {
+      String moduleName = ReflectionUtilities.getFullName(f);
+      out.append("<div class='module-margin' id='"+moduleName+"'><div class='decl'><span class='fullName'>" + moduleName + "</span>").append(NL);
+      out.append("<pre>").append(NL);
+      String conf = modules.get(f).toPrettyString();
+      for (final String line : conf.split("\n")) {
+        out.append(stripPrefix(line, "no.such.prefix")).append(NL);
+      }
+      out.append("</pre>").append(NL);
+      out.append("</div></div>").append(NL);
+    }
+
+    out.append("<div class='package'>Interfaces and injectable classes</div>").append(NL);
+    for (final ClassNode<?> c : knownClasses) {
+      if(classFilter(checkTang, c.getFullName())) {
+        Class<?> clz = null;
+        try {
+          clz = ch.classForName(c.getFullName());
+        } catch (ClassNotFoundException e) {
+          // TODO Auto-generated catch block
+          e.printStackTrace();
+        }
+        String typ = clz.isInterface() ? "interface" : "class";
+        out.append("<div class='module-margin' id='"+c.getFullName()+"'><div class='decl'><span class='fullName'>" + typ + " " + c.getFullName() + "</span>").append(NL);
+        for(ConstructorDef<?> d : c.getInjectableConstructors()) {
+          out.append("<div class='uses'>" + c.getFullName() + "(").append(NL);
+          for(ConstructorArg a : d.getArgs()) {
+            if(a.getNamedParameterName() != null) {
+              out.append("<div class='constructorArg'><a href='#"+a.getType()+"'>" + stripPrefix(a.getType(),"xxx") + "</a> <a href='#" + a.getNamedParameterName() + "'>" + a.getNamedParameterName() + "</a></div>");
+            } else {
+              out.append("<div class='constructorArg'><a href='#"+a.getType()+"'>" + stripPrefix(a.getType(),"xxx") + "</a></div>");
+            }
+          }
+          out.append(")</div>").append(NL);
+        }
+        out.append("</div></div>").append(NL);
+      }
+    }
+    out.append("</body></html>").append(NL);
+  }
+
+  /**
+   * Write a finished package section, or queue it for rendering on the
+   * executor, writing out queued sections once DOC_WINDOW are pending.
+   */
+  private void flushPackage(final Appendable out, final String pack, final List<Node> nodes,
+      final ExecutorService executor, final Deque<Future<String>> pending)
+      throws IOException, InterruptedException, ExecutionException {
+    if (nodes.isEmpty()) {
+      return;
+    }
+    if (executor == null) {
+      writePackage(out, pack, nodes);
+      return;
+    }
+    pending.addLast(executor.submit(new Callable<String>() {
+      @Override
+      public String call() throws IOException {
+        final StringBuilder sb = new StringBuilder();
+        writePackage(sb, pack, nodes);
+        return sb.toString();
+      }
+    }));
+    while (pending.size() > DOC_WINDOW) {
+      out.append(pending.removeFirst().get());
+    }
+  }
+
   /**
    * @param args
-   * @throws FileNotFoundException 
-   * @throws MalformedURLException 
+   * @throws IOException
    */
-  public static void main(String[] args) throws FileNotFoundException, MalformedURLException {
+  public static void main(String[] args) throws IOException {
     int i = 0;
     String doc = null;
     String jar = null;
+    String cache = null;
+    int threads = 1;
     boolean tangTests = false;
     while(i < args.length) {
       if(args[i].equals("--doc")) {
@@ -590,6 +724,12 @@ public class Tint {
       } else if(args[i].equals("--jar")) {
         i++;
         jar = args[i];
+      } else if(args[i].equals("--cache")) {
+        i++;
+        cache = args[i];
+      } else if(args[i].equals("--doc-threads")) {
+        i++;
+        threads = Integer.parseInt(args[i]);
       } else if(args[i].equals("--tang-tests")) {
         tangTests = true;
       }
@@ -597,131 +737,26 @@ public class Tint {
       i++;
     }
 
+    final File cacheDir = cache == null ? null : new File(cache);
     final Tint t;
     if (jar != null) {
       final File f = new File(jar);
       if (!f.exists()) {
         throw new FileNotFoundException(jar);
       }
-      t = new Tint(new URL[] { f.toURI().toURL() }, tangTests);
+      t = new Tint(new URL[] { f.toURI().toURL() }, tangTests, cacheDir);
     } else {
-      t = new Tint(new URL[0], tangTests);
+      t = new Tint(new URL[0], tangTests, cacheDir);
     }
 
     if (doc != null) {
-      try (final PrintStream out = new PrintStream(new FileOutputStream(new File(doc)))) {
-        out.println("<html><head><title>TangDoc</title>");
-
-        out.println("<style>");
-        out.println("body { font-family: 'Segoe UI', 'Comic Sans MS'; font-size:12pt; font-weight: 200; margin: 1em; column-count: 2; }" );
-        out.println(".package { font-size:18pt; font-weight: 500; column-span: all; }" );
-//      out.println(".class { break-after: never; }");
-//      out.println(".doc { break-before: never; }");
-        out.println(".decl-margin { padding: 8pt; break-inside: avoid; }");
-        out.println(".module-margin { padding: 8pt; column-span: all; break-inside: avoid; }");
-        out.println(".decl { background-color: aliceblue; padding: 6pt;}");
-        out.println(".fullName { font-size: 11pt; font-weight: 400; }");
-        out.println(".simpleName { font-size: 11pt; font-weight: 400; }");
-        out.println(".constructorArg { padding-left: 16pt; }");
-        out.println("."+SETTERS+" { padding-top: 6pt; font-size: 10pt; }");
-        out.println("."+USES+" { padding-top: 6pt; font-size: 10pt; }");
-        out.println("pre { font-size: 10pt; }");
-        out.println("</style>");
-
-        out.println("</head><body>");
-//      out.println("<table border='1'><tr><th>Type</th><th>Name</th><th>Default value</th><th>Documentation</th><th>Used by</th><th>Set by</th></tr>");
-
-        String currentPackage = "";
-//      int numcols = 0;
-        for (final Node n : t.getNamesUsedAndSet()) {
-          String fullName = n.getFullName();
-          String tok[] = fullName.split("\\.");
-          StringBuffer sb = new StringBuffer(tok[0]);
-          for(int j = 1; j < tok.length; j++) {
-            if(tok[j].matches("^[A-Z].*") || j > 4) {
-              break;
-            } else
-              sb.append("." + tok[j]);
-          }
-          String pack = sb.toString();
-          if (!currentPackage.equals(pack)) {
-            currentPackage = pack;
-            out.println(t.endPackage());
-            out.println(t.startPackage(currentPackage));
-//          numcols = 0;
-//          out.println("<div class='row'>");
-          }
-//        numcols++;
-//        if(numcols == NUMCOLS) {
-//          out.println("</div><div class='row'>");
-//        }
-          if(n instanceof NamedParameterNode<?>) {
-            out.println(t.toHtmlString((NamedParameterNode<?>)n, currentPackage));
-          } else if (n instanceof ClassNode<?>) {
-            out.println(t.toHtmlString((ClassNode<?>)n, currentPackage));
-          } else {
-            throw new IllegalStateException();
-          }
-        }
-        out.println("</div>");
-        out.println(t.endPackage());
-//      out.println("</table>");
-        out.println("<div class='package'>Module definitions</div>");
-        for (final Field f : t.modules.keySet()) {
-          String moduleName = ReflectionUtilities.getFullName(f);
-//        String declaringClassName = ReflectionUtilities.getFullName(f.getDeclaringClass());
-          out.println("<div class='module-margin' id='"+moduleName+"'><div class='decl'><span class='fullName'>" + moduleName + "</span>");
-          out.println("<pre>");
-          String conf = t.modules.get(f).toPrettyString();
-          String[] tok = conf.split("\n");
-          for (final String line : tok) {
-            out.println(stripPrefix(line, "no.such.prefix"));//t.modules.get(f).toPrettyString());
-          }
-//        List<Entry<String,String>> lines = t.modules.get(f).toStringPairs();
-//        for(Entry<String,String> line : lines) {
-//          String k = t.stripPrefix(line.getKey(), declaringClassName);
-//          String v = t.stripPrefix(line.getValue(), declaringClassName);
-//          out.println(k+"="+v);
-//        }
-          out.println("</pre>");
-          out.println("</div></div>");
-        }
-
-        out.println("<div class='package'>Interfaces and injectable classes</div>");
-        for (final ClassNode<?> c : t.knownClasses) {
-          if(t.classFilter(tangTests, c.getFullName())) {
-          Class<?> clz = null;
-          try {
-            clz = t.ch.classForName(c.getFullName());
-          } catch (ClassNotFoundException e) {
-            // TODO Auto-generated catch block
-            e.printStackTrace();
-          }
-          String typ = clz.isInterface() ? "interface" : "class";
-          out.println("<div class='module-margin' id='"+c.getFullName()+"'><div class='decl'><span class='fullName'>" + typ + " " + c.getFullName() + "</span>");
-          for(ConstructorDef<?> d : c.getInjectableConstructors()) {
-            out.println("<div class='uses'>" + c.getFullName() + "(");
-            for(ConstructorArg a : d.getArgs()) {
-              if(a.getNamedParameterName() != null) {
-                out.print("<div class='constructorArg'><a href='#"+a.getType()+"'>" + stripPrefix(a.getType(),"xxx") + "</a> <a href='#" + a.getNamedParameterName() + "'>" + a.getNamedParameterName() + "</a></div>");
-              } else {
-                out.print("<div class='constructorArg'><a href='#"+a.getType()+"'>" + stripPrefix(a.getType(),"xxx") + "</a></div>");
-              }
-            }
-            out.println(")</div>");
-          }
-          out.println("</div></div>");
-        }
-/*
-      out.println("<h1>Default usage of classes and constants</h1>");
-      for(String s : t.usages.keySet()) {
-        out.println("<h2>" + s + "</h2>");
-        for(Node n : t.usages.getValuesForKey(s)) {
-          out.println("<p>" + n.getFullName() + "</p>");
-        }
-      } */
+      final ExecutorService executor = threads > 1 ? Executors.newFixedThreadPool(threads) : null;
+      try (final Writer out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(new File(doc)), Charset.defaultCharset()))) {
+        t.writeDoc(out, tangTests, executor);
+      } finally {
+        if (executor != null) {
+          executor.shutdownNow();
         }
-        out.println("</body></html>");
       }
     }
   }
@@ -0,0 +1,314 @@
+/**
+ * Copyright (C) 2014 Microsoft Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.microsoft.tang.util;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.inject.Inject;
+
+import org.reflections.Reflections;
+import org.reflections.scanners.MethodAnnotationsScanner;
+import org.reflections.scanners.MethodParameterScanner;
+import org.reflections.scanners.SubTypesScanner;
+import org.reflections.scanners.TypeAnnotationsScanner;
+import org.reflections.util.ClasspathHelper;
+import org.reflections.util.ConfigurationBuilder;
+import org.reflections.util.FilterBuilder;
+
+import com.microsoft.tang.annotations.DefaultImplementation;
+import com.microsoft.tang.annotations.Name;
+import com.microsoft.tang.annotations.NamedParameter;
+import com.microsoft.tang.annotations.Parameter;
+import com.microsoft.tang.annotations.Unit;
+import com.microsoft.tang.formats.ConfigurationModuleBuilder;
+
+/**
+ * The classpath scan behind Tint, done one classpath entry at a time.
+ * <p/>
+ * Every jar (or class directory) is scanned on its own by org.reflections,
+ * in parallel, and yields the names of the classes Tint has to load into
+ * its ClassHierarchy.  Since all the indexes Tint reads are keyed by
+ * annotation or direct supertype, the union of the per-jar results equals
+ * the result of one scan over the whole classpath.
+ * <p/>
+ * If a cache directory is given, the result for each entry is stored there
+ * under a digest of the entry's content, and reused by later runs until the
+ * entry changes.  Jars are digested by content; directories by the paths,
+ * sizes and modification times of their files.
+ */
+final class TintScan {
+  private static final Logger LOG = Logger.getLogger(TintScan.class.getName());
+
+  /**
+   * Bump this whenever the scan or the cache file format changes.
+   */
+  private static final String VERSION = "tint-scan 1";
+  private static final String[] PACKAGES = { "org.apache", "com.microsoft" };
+  private static final Charset UTF8 = Charset.forName("UTF-8");
+
+  /**
+   * Classes with injectable constructors, default implementations, named
+   * parameters, units and names, in sorted order.
+   */
+  final Set<String> names = new TreeSet<>();
+  /**
+   * Subclasses of ConfigurationModuleBuilder, in sorted order.
+   */
+  final Set<String> moduleBuilders = new TreeSet<>();
+
+  TintScan() {
+  }
+
+  /**
+   * Scan the given jars, plus the classpath entries that contain Tint's
+   * default packages, just like Tint always has.
+   *
+   * @param jars     the jars to scan.
+   * @param cacheDir where to keep per-jar results, or null to always scan.
+   */
+  static TintScan scan(final URL[] jars, final File cacheDir) {
+    final Map<String, URL> urls = new LinkedHashMap<>();
+    for (final URL jar : jars) {
+      urls.put(jar.toExternalForm(), jar);
+    }
+    for (final String p : PACKAGES) {
+      for (final URL u : ClasspathHelper.forPackage(p)) {
+        if (!urls.containsKey(u.toExternalForm())) {
+          urls.put(u.toExternalForm(), u);
+        }
+      }
+    }
+    if (cacheDir != null && !cacheDir.isDirectory() && !cacheDir.mkdirs()) {
+      LOG.log(Level.WARNING, "Could not create Tint cache " + cacheDir + "; scanning everything");
+    }
+
+    final int threads = Math.max(1, Math.min(urls.size(), Runtime.getRuntime().availableProcessors()));
+    final ExecutorService pool = Executors.newFixedThreadPool(threads);
+    try {
+      final List<Future<TintScan>> results = new ArrayList<>(urls.size());
+      for (final URL u : urls.values()) {
+        results.add(pool.submit(new Callable<TintScan>() {
+          @Override
+          public TintScan call() throws IOException {
+            return scanEntry(u, cacheDir);
+          }
+        }));
+      }
+      final TintScan all = new TintScan();
+      for (final Future<TintScan> f : results) {
+        final TintScan one = f.get();
+        all.names.addAll(one.names);
+        all.moduleBuilders.addAll(one.moduleBuilders);
+      }
+      return all;
+    } catch (final InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException("Interrupted while scanning the classpath", e);
+    } catch (final ExecutionException e) {
+      throw new IllegalStateException("Could not scan the classpath", e.getCause());
+    } finally {
+      pool.shutdownNow();
+    }
+  }
+
+  /**
+   * Scan one classpath entry, or read its result from the cache.
+   */
+  private static TintScan scanEntry(final URL url, final File cacheDir) throws IOException {
+    final File file = toFile(url);
+    final File cached = (cacheDir == null || file == null || !file.exists()) ? null
+        : new File(cacheDir, digest(file) + ".tint");
+    if (cached != null && cached.isFile()) {
+      try {
+        return read(cached);
+      } catch (final IOException e) {
+        LOG.log(Level.WARNING, "Ignoring unreadable Tint cache entry " + cached, e);
+      }
+    }
+    final TintScan result = reflect(url);
+    if (cached != null && cached.getParentFile().isDirectory()) {
+      try {
+        write(result, cached);
+      } catch (final IOException e) {
+        LOG.log(Level.WARNING, "Could not write Tint cache entry " + cached, e);
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Run org.reflections over one classpath entry.
+   */
+  private static TintScan reflect(final URL url) {
+    final FilterBuilder filter = new FilterBuilder();
+    for (final String p : PACKAGES) {
+      filter.includePackage(p);
+    }
+    final Reflections r = new Reflections(new ConfigurationBuilder()
+        .addUrls(url)
+        .filterInputsBy(filter)
+        .setScanners(new TypeAnnotationsScanner(), new SubTypesScanner(),
+            new MethodAnnotationsScanner(), new MethodParameterScanner()));
+
+    // Workaround bug in Reflections by keeping things stringly typed, and using Tang to parse them.
+    final TintScan result = new TintScan();
+    for (final String s : r.getStore().getConstructorsAnnotatedWith(ReflectionUtilities.getFullName(Inject.class))) {
+      result.names.add(s.replaceAll("\\.<.+$", ""));
+    }
+    for (final String s : r.getStore().get(MethodParameterScanner.class, ReflectionUtilities.getFullName(Parameter.class))) {
+      result.names.add(s.replaceAll("\\.<.+$", ""));
+    }
+    result.names.addAll(r.getStore().get(TypeAnnotationsScanner.class, ReflectionUtilities.getFullName(DefaultImplementation.class)));
+    result.names.addAll(r.getStore().get(TypeAnnotationsScanner.class, ReflectionUtilities.getFullName(NamedParameter.class)));
+    result.names.addAll(r.getStore().get(TypeAnnotationsScanner.class, ReflectionUtilities.getFullName(Unit.class)));
+    result.names.addAll(r.getStore().get(SubTypesScanner.class, ReflectionUtilities.getFullName(Name.class)));
+    result.moduleBuilders.addAll(r.getStore().get(SubTypesScanner.class, ReflectionUtilities.getFullName(ConfigurationModuleBuilder.class)));
+    return result;
+  }
+
+  /**
+   * @return the local file or directory behind url, or null if it has none.
+   */
+  private static File toFile(final URL url) {
+    if (!"file".equals(url.getProtocol())) {
+      return null;
+    }
+    try {
+      return new File(url.toURI());
+    } catch (final URISyntaxException | IllegalArgumentException e) {
+      return null;
+    }
+  }
+
+  static String digest(final File file) throws IOException {
+    final MessageDigest md;
+    try {
+      md = MessageDigest.getInstance("SHA-1");
+    } catch (final NoSuchAlgorithmException e) {
+      throw new IllegalStateException("SHA-1 is not available", e);
+    }
+    md.update(VERSION.getBytes(UTF8));
+    if (file.isDirectory()) {
+      digestDirectory(md, file, "");
+    } else {
+      final byte[] buf = new byte[1 << 16];
+      try (final InputStream in = new FileInputStream(file)) {
+        for (int n = in.read(buf); n != -1; n = in.read(buf)) {
+          md.update(buf, 0, n);
+        }
+      }
+    }
+    final StringBuilder sb = new StringBuilder();
+    for (final byte b : md.digest()) {
+      sb.append(String.format("%02x", b & 0xff));
+    }
+    return sb.toString();
+  }
+
+  private static void digestDirectory(final MessageDigest md, final File dir, final String prefix) {
+    final String[] children = dir.list();
+    if (children == null) {
+      return;
+    }
+    Arrays.sort(children);
+    for (final String c : children) {
+      final File f = new File(dir, c);
+      final String path = prefix + "/" + c;
+      if (f.isDirectory()) {
+        digestDirectory(md, f, path);
+      } else {
+        md.update((path + "\0" + f.length() + "\0" + f.lastModified() + "\n").getBytes(UTF8));
+      }
+    }
+  }
+
+  /**
+   * Cache files hold the version line, followed by one name per line,
+   * prefixed with "n " for names and "m " for module builders.
+   */
+  static TintScan read(final File file) throws IOException {
+    try (final BufferedReader in = new BufferedReader(new InputStreamReader(new FileInputStream(file), UTF8))) {
+      if (!VERSION.equals(in.readLine())) {
+        throw new IOException("Unknown format");
+      }
+      final TintScan result = new TintScan();
+      for (String line = in.readLine(); line != null; line = in.readLine()) {
+        if (line.startsWith("n ")) {
+          result.names.add(line.substring(2));
+        } else if (line.startsWith("m ")) {
+          result.moduleBuilders.add(line.substring(2));
+        } else {
+          throw new IOException("Malformed line: " + line);
+        }
+      }
+      return result;
+    }
+  }
+
+  /**
+   * Write to a temporary file first, so that concurrent or interrupted runs
+   * never see a partial entry.
+   */
+  static void write(final TintScan scan, final File file) throws IOException {
+    final File tmp = File.createTempFile(file.getName(), ".tmp", file.getParentFile());
+    try {
+      try (final Writer out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(tmp), UTF8))) {
+        out.write(VERSION + "\n");
+        for (final String s : scan.names) {
+          out.write("n " + s + "\n");
+        }
+        for (final String s : scan.moduleBuilders) {
+          out.write("m " + s + "\n");
+        }
+      }
+      if (!tmp.renameTo(file) && !file.isFile()) {
+        throw new IOException("Could not rename " + tmp + " to " + file);
+      }
+    } finally {
+      if (tmp.exists() && !tmp.delete()) {
+        tmp.deleteOnExit();
+      }
+    }
+  }
+}
@@ -17,8 +17,28 @@ package com.microsoft.tang.util.walk;
 
 import com.microsoft.tang.types.Traversable;
 
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicBoolean;
+
 /**
  * Generic graph traversal.
+ * <p/>
+ * All walks use explicit stacks or queues rather than recursion, so they
+ * handle arbitrarily deep graphs.  Each node is visited at most once, even
+ * if several edges lead to it, which also makes the walks safe on graphs
+ * with cycles.  Edges are visited every time they are traversed, including
+ * edges to nodes that have been visited already.
+ * <p/>
+ * A node visitor may return false to skip the descendants of the node, and
+ * an edge visitor may return false to stop the walk.
  */
 public final class Walk {
 
@@ -30,9 +50,25 @@ public final class Walk {
     throw new IllegalAccessException("Do not instantiate this class.");
   }
 
+  private static <T> Set<T> newVisitedSet() {
+    return Collections.newSetFromMap(new IdentityHashMap<T, Boolean>());
+  }
+
+  /**
+   * A node, and the children of it that have not been walked yet.
+   */
+  private static final class Frame<T extends Traversable<T>> {
+    final T node;
+    final Iterator<T> children;
+
+    Frame(final T node) {
+      this.node = node;
+      this.children = node.getChildren().iterator();
+    }
+  }
+
   /**
    * Traverse the configuration (sub)tree in preorder, starting from the given node.
-   * FIXME: handle loopy graphs correctly!
    * @param nodeVisitor node visitor. Can be null.
    * @param edgeVisitor edge visitor. Can be null.
    * @param node current node of the configuration tree.
@@ -41,23 +77,197 @@ public final class Walk {
   public static <T extends Traversable<T>> boolean preorder(
       final NodeVisitor<T> nodeVisitor, final EdgeVisitor<T> edgeVisitor, final T node)
   {
-    if (nodeVisitor != null && nodeVisitor.visit(node)) {
-      if(edgeVisitor != null) {
-        for (final T child : node.getChildren()) {
-          if (!(edgeVisitor.visit(node, child)
-                  && preorder(nodeVisitor, edgeVisitor, child)))
-          {
-            return false;
-          }
+    return preorder(nodeVisitor, edgeVisitor, node, Integer.MAX_VALUE);
+  }
+
+  /**
+   * Traverse the configuration (sub)tree in preorder, starting from the given
+   * node, down to the given depth.  Nodes at maxDepth are visited, but their
+   * children, and the edges leading to them, are not.
+   * @param nodeVisitor node visitor. Can be null.
+   * @param edgeVisitor edge visitor. Can be null.
+   * @param node root node of the walk, at depth zero.
+   * @param maxDepth depth of the deepest nodes to visit.
+   * @return true if all nodes has been walked, false if visitor stopped early.
+   */
+  public static <T extends Traversable<T>> boolean preorder(
+      final NodeVisitor<T> nodeVisitor, final EdgeVisitor<T> edgeVisitor, final T node,
+      final int maxDepth)
+  {
+    if (nodeVisitor == null || !nodeVisitor.visit(node) || maxDepth <= 0) {
+      return true;
+    }
+    final Set<T> visited = newVisitedSet();
+    visited.add(node);
+    final ArrayDeque<Frame<T>> stack = new ArrayDeque<>();
+    stack.push(new Frame<>(node));
+    while (!stack.isEmpty()) {
+      final Frame<T> top = stack.peek();
+      if (!top.children.hasNext()) {
+        stack.pop();
+        continue;
+      }
+      final T child = top.children.next();
+      if (edgeVisitor != null && !edgeVisitor.visit(top.node, child)) {
+        return false;
+      }
+      // The stack holds the child's ancestors, so its size is the child's depth.
+      if (visited.add(child) && nodeVisitor.visit(child) && stack.size() < maxDepth) {
+        stack.push(new Frame<>(child));
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Traverse the configuration (sub)tree in postorder, starting from the
+   * given node: each node is visited after all of its descendants.  Edges
+   * are visited on the way down.  Since the descendants have been walked
+   * already, a node visitor that returns false stops the walk.
+   * @param nodeVisitor node visitor. Can be null.
+   * @param edgeVisitor edge visitor. Can be null.
+   * @param node root node of the walk.
+   * @return true if all nodes has been walked, false if visitor stopped early.
+   */
+  public static <T extends Traversable<T>> boolean postorder(
+      final NodeVisitor<T> nodeVisitor, final EdgeVisitor<T> edgeVisitor, final T node)
+  {
+    final Set<T> visited = newVisitedSet();
+    visited.add(node);
+    final ArrayDeque<Frame<T>> stack = new ArrayDeque<>();
+    stack.push(new Frame<>(node));
+    while (!stack.isEmpty()) {
+      final Frame<T> top = stack.peek();
+      if (!top.children.hasNext()) {
+        stack.pop();
+        if (nodeVisitor != null && !nodeVisitor.visit(top.node)) {
+          return false;
         }
-      } else {
-        for(final T child : node.getChildren()) {
-          if(!preorder(nodeVisitor, edgeVisitor, child)) {
-            return false;
-          }
+        continue;
+      }
+      final T child = top.children.next();
+      if (edgeVisitor != null && !edgeVisitor.visit(top.node, child)) {
+        return false;
+      }
+      if (visited.add(child)) {
+        stack.push(new Frame<>(child));
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Traverse the configuration (sub)tree in breadth-first order, starting
+   * from the given node.  The edges to the children of a node are visited
+   * right after the node itself.
+   * @param nodeVisitor node visitor. Can be null.
+   * @param edgeVisitor edge visitor. Can be null.
+   * @param node root node of the walk.
+   * @return true if all nodes has been walked, false if visitor stopped early.
+   */
+  public static <T extends Traversable<T>> boolean breadthFirst(
+      final NodeVisitor<T> nodeVisitor, final EdgeVisitor<T> edgeVisitor, final T node)
+  {
+    final Set<T> visited = newVisitedSet();
+    visited.add(node);
+    final ArrayDeque<T> queue = new ArrayDeque<>();
+    queue.add(node);
+    while (!queue.isEmpty()) {
+      final T current = queue.remove();
+      if (nodeVisitor != null && !nodeVisitor.visit(current)) {
+        continue;
+      }
+      for (final T child : current.getChildren()) {
+        if (edgeVisitor != null && !edgeVisitor.visit(current, child)) {
+          return false;
+        }
+        if (visited.add(child)) {
+          queue.add(child);
         }
       }
     }
     return true;
   }
+
+  /**
+   * Traverse the configuration (sub)tree in parallel on the given pool.  As
+   * in preorder(), each node is visited before its descendants, and a node
+   * visitor that returns false skips them, but there is no order between
+   * siblings or between separate subtrees.  The visitors are called from
+   * several threads at once, and must be thread safe; they should not modify
+   * the graph.  Once an edge visitor returns false, no new nodes or edges are
+   * visited, but calls in progress on other threads finish.
+   * @param nodeVisitor node visitor. Can be null.
+   * @param edgeVisitor edge visitor. Can be null.
+   * @param node root node of the walk.
+   * @param pool the pool to run the walk on.  This call blocks until the walk
+   *             is done.
+   * @return true if all nodes has been walked, false if visitor stopped early.
+   */
+  public static <T extends Traversable<T>> boolean parallel(
+      final NodeVisitor<T> nodeVisitor, final EdgeVisitor<T> edgeVisitor, final T node,
+      final ForkJoinPool pool)
+  {
+    if (nodeVisitor == null || !nodeVisitor.visit(node)) {
+      return true;
+    }
+    final Set<T> visited = Collections.synchronizedSet(Walk.<T>newVisitedSet());
+    visited.add(node);
+    final AtomicBoolean stopped = new AtomicBoolean(false);
+    pool.invoke(new ParallelWalk<>(nodeVisitor, edgeVisitor, node, visited, stopped));
+    return !stopped.get();
+  }
+
+  /**
+   * Walks the descendants of an already visited node.  Walks down one child
+   * itself, and forks a new task for each of its other children.
+   */
+  private static final class ParallelWalk<T extends Traversable<T>> extends RecursiveAction {
+    private static final long serialVersionUID = 1L;
+
+    private final NodeVisitor<T> nodeVisitor;
+    private final EdgeVisitor<T> edgeVisitor;
+    private final T node;
+    private final Set<T> visited;
+    private final AtomicBoolean stopped;
+
+    ParallelWalk(final NodeVisitor<T> nodeVisitor, final EdgeVisitor<T> edgeVisitor, final T node,
+                 final Set<T> visited, final AtomicBoolean stopped) {
+      this.nodeVisitor = nodeVisitor;
+      this.edgeVisitor = edgeVisitor;
+      this.node = node;
+      this.visited = visited;
+      this.stopped = stopped;
+    }
+
+    @Override
+    protected void compute() {
+      final List<ParallelWalk<T>> forked = new ArrayList<>();
+      T current = node;
+      while (current != null && !stopped.get()) {
+        T next = null;
+        for (final T child : current.getChildren()) {
+          if (stopped.get()) {
+            break;
+          }
+          if (edgeVisitor != null && !edgeVisitor.visit(current, child)) {
+            stopped.set(true);
+            break;
+          }
+          if (visited.add(child) && nodeVisitor.visit(child)) {
+            if (next != null) {
+              final ParallelWalk<T> task = new ParallelWalk<>(nodeVisitor, edgeVisitor, next, visited, stopped);
+              task.fork();
+              forked.add(task);
+            }
+            next = child;
+          }
+        }
+        current = next;
+      }
+      for (final ParallelWalk<T> task : forked) {
+        task.join();
+      }
+    }
+  }
 }
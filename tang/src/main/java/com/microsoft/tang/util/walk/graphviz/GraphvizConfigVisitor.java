@@ -26,6 +26,8 @@ import com.microsoft.tang.util.walk.Walk;
 import com.microsoft.tang.util.walk.EdgeVisitor;
 import com.microsoft.tang.util.walk.AbstractClassHierarchyNodeVisitor;
 
+import java.io.IOException;
+
 /**
  * Build a Graphviz representation of the configuration graph.
  */
@@ -58,10 +60,11 @@ public final class GraphvizConfigVisitor
     + "    }\n"
     + "  }\n";
 
-  /** Accumulate string representation of the graph here. */
-  private final transient StringBuilder graphStr = new StringBuilder(
-    "digraph ConfigMain {\n"
-    + "  rankdir=LR;\n");
+  /** Write the graph here, either a StringBuilder or a caller supplied stream. */
+  private final transient Appendable graphStr;
+
+  /** First error writing to graphStr.  Once set, the visitor stops the walk. */
+  private transient IOException error = null;
 
   /**
    * Entire TANG configuration object.
@@ -73,6 +76,15 @@ public final class GraphvizConfigVisitor
    */
   private final transient boolean showImpl;
 
+  /** Stop the walk once this many nodes have been plotted. */
+  private final transient int maxNodes;
+
+  /** Number of nodes plotted so far. */
+  private transient int nodes = 0;
+
+  /** True if the walk was stopped because maxNodes was reached. */
+  private transient boolean truncated = false;
+
   /**
    * Create a new TANG configuration visitor.
    * @param aConfig Entire TANG configuration object.
@@ -81,11 +93,60 @@ public final class GraphvizConfigVisitor
    */
   public GraphvizConfigVisitor(final Configuration config,
           final boolean showImpl, final boolean showLegend) {
+    this(config, showImpl, showLegend, Integer.MAX_VALUE, new StringBuilder());
+  }
+
+  /**
+   * Create a new TANG configuration visitor that writes the graph to out as
+   * it goes.  Call finish() after the walk to complete the graph.
+   * @param aConfig Entire TANG configuration object.
+   * @param aShowImpl If true, plot IS-A edges for know implementations.
+   * @param aShowLegend If true, add legend to the plot.
+   * @param maxNodes Stop the walk once this many nodes have been plotted.
+   * @param out Destination of the graph.
+   */
+  public GraphvizConfigVisitor(final Configuration config,
+          final boolean showImpl, final boolean showLegend,
+          final int maxNodes, final Appendable out) {
     super();
     this.config = config;
     this.showImpl = showImpl;
+    this.maxNodes = maxNodes;
+    this.graphStr = out;
+    write("digraph ConfigMain {\n  rankdir=LR;\n");
     if (showLegend) {
-      this.graphStr.append(LEGEND);
+      write(LEGEND);
+    }
+  }
+
+  /**
+   * Append str to the graph, unless an earlier write failed.
+   * @return false if this or an earlier write failed.
+   */
+  private boolean write(final CharSequence str) {
+    if (this.error != null) {
+      return false;
+    }
+    try {
+      this.graphStr.append(str);
+      return true;
+    } catch (final IOException e) {
+      this.error = e;
+      return false;
+    }
+  }
+
+  /**
+   * Complete the graph written to the Appendable given to the constructor.
+   * @throws IOException if writing the graph failed.
+   */
+  public void finish() throws IOException {
+    if (this.truncated) {
+      write("  truncated [label=\"Graph truncated after " + this.nodes + " nodes\", shape=plaintext];\n");
+    }
+    write("}\n");
+    if (this.error != null) {
+      throw this.error;
     }
   }
 
@@ -105,7 +166,8 @@ public final class GraphvizConfigVisitor
   @Override
   public boolean visit(final ClassNode<?> node) {
 
-    this.graphStr
+    ++this.nodes;
+    final StringBuilder sb = new StringBuilder()
             .append("  ")
             .append(node.getName())
             .append(" [label=\"")
@@ -116,7 +178,7 @@ public final class GraphvizConfigVisitor
 
     final ClassNode<?> boundImplNode = config.getBoundImplementation(node);
     if (boundImplNode != null) {
-      this.graphStr
+      sb
               .append("  ")
               .append(node.getName())
               .append(" -> ")
@@ -129,7 +191,7 @@ public final class GraphvizConfigVisitor
       if (implNode != boundImplNode && implNode != node
               && (implNode.isExternalConstructor() || this.showImpl))
       {
-        this.graphStr
+        sb
                 .append("  ")
                 .append(node.getName())
                 .append(" -> ")
@@ -140,7 +202,7 @@ public final class GraphvizConfigVisitor
       }
     }
 
-    return true;
+    return write(sb);
   }
 
   /**
@@ -151,14 +213,15 @@ public final class GraphvizConfigVisitor
   @Override
   public boolean visit(final PackageNode node) {
     if (!node.getName().isEmpty()) {
-      this.graphStr
+      ++this.nodes;
+      return write(new StringBuilder()
               .append("  ")
               .append(node.getName())
               .append(" [label=\"")
               .append(node.getFullName())
-              .append("\", shape=folder];\n");
+              .append("\", shape=folder];\n"));
     }
-    return true;
+    return this.error == null;
   }
 
   /**
@@ -168,7 +231,8 @@ public final class GraphvizConfigVisitor
    */
   @Override
   public boolean visit(final NamedParameterNode<?> node) {
-    this.graphStr
+    ++this.nodes;
+    return write(new StringBuilder()
             .append("  ")
             .append(node.getName())
             .append(" [label=\"")
@@ -179,8 +243,7 @@ public final class GraphvizConfigVisitor
             .append(config.getNamedParameter(node))   // bound value, e.g. "16"
             .append("\\n(default = ")
             .append(instancesToString(node.getDefaultInstanceAsStrings())) // default value, e.g. "4"
-            .append(")\", shape=oval];\n");
-    return true;
+            .append(")\", shape=oval];\n"));
   }
 
   private String instancesToString(String[] s) {
@@ -207,15 +270,19 @@ public final class GraphvizConfigVisitor
    */
   @Override
   public boolean visit(final Node nodeFrom, final Node nodeTo) {
+    if (this.nodes >= this.maxNodes) {
+      this.truncated = true;
+      return false;
+    }
     if (!nodeFrom.getName().isEmpty()) {
-      this.graphStr
+      return write(new StringBuilder()
               .append("  ")
               .append(nodeFrom.getName())
               .append(" -> ")
               .append(nodeTo.getName())
-              .append(" [style=solid, dir=back, arrowtail=diamond];\n");
+              .append(" [style=solid, dir=back, arrowtail=diamond];\n"));
     }
-    return true;
+    return this.error == null;
   }
 
   /**
@@ -233,4 +300,43 @@ public final class GraphvizConfigVisitor
     Walk.preorder(visitor, visitor, root);
     return visitor.toString();
   }
+
+  /**
+   * Write a Graphviz DOT graph for a given TANG configuration to out, as the
+   * configuration is walked.  The graph is never held in memory as a whole.
+   * @param config TANG configuration object.
+   * @param showImpl If true, plot IS-A edges for know implementations.
+   * @param showLegend If true, add legend to the plot.
+   * @param out Destination of the graph.  It is neither flushed nor closed.
+   * @throws IOException if writing to out failed.
+   */
+  public static void writeGraphviz(final Configuration config,
+          final boolean showImpl, final boolean showLegend, final Appendable out)
+      throws IOException
+  {
+    writeGraphviz(config, showImpl, showLegend, Integer.MAX_VALUE, Integer.MAX_VALUE, out);
+  }
+
+  /**
+   * Write a Graphviz DOT graph for a given TANG configuration to out, as the
+   * configuration is walked, plotting at most the given number of levels and
+   * nodes.  A truncated graph says so in a separate node.
+   * @param config TANG configuration object.
+   * @param showImpl If true, plot IS-A edges for know implementations.
+   * @param showLegend If true, add legend to the plot.
+   * @param maxDepth Do not plot nodes further than this from the root.
+   * @param maxNodes Stop once this many nodes have been plotted.
+   * @param out Destination of the graph.  It is neither flushed nor closed.
+   * @throws IOException if writing to out failed.
+   */
+  public static void writeGraphviz(final Configuration config,
+          final boolean showImpl, final boolean showLegend,
+          final int maxDepth, final int maxNodes, final Appendable out)
+      throws IOException
+  {
+    final GraphvizConfigVisitor visitor =
+        new GraphvizConfigVisitor(config, showImpl, showLegend, maxNodes, out);
+    Walk.preorder(visitor, visitor, config.getClassHierarchy().getNamespace(), maxDepth);
+    visitor.finish();
+  }
 }
@@ -24,6 +24,8 @@ import com.microsoft.tang.util.walk.Walk;
 import com.microsoft.tang.util.walk.EdgeVisitor;
 import com.microsoft.tang.util.walk.AbstractInjectionPlanNodeVisitor;
 
+import java.io.IOException;
+
 /**
  * Build a Graphviz representation of the injection plan graph.
  */
@@ -42,19 +44,93 @@ public final class GraphvizInjectionPlanVisitor
     + "    Subplan -> Constructor -> RequiredSingleton -> JavaInstance [style=invis];\n"
     + "  }\n";
 
-  /** Accumulate string representation of the graph here. */
-  private final transient StringBuilder graphStr =
-          new StringBuilder("digraph InjectionPlanMain {\n");
+  /** Write the graph here, either a StringBuilder or a caller supplied stream. */
+  private final transient Appendable graphStr;
+
+  /** First error writing to graphStr.  Once set, the visitor stops the walk. */
+  private transient IOException error = null;
+
+  /** Number of nodes plotted so far. */
+  private transient int nodes = 0;
+
+  /** Stop the walk once this many nodes have been plotted. */
+  private final transient int maxNodes;
+
+  /** True if the walk was stopped because maxNodes was reached. */
+  private transient boolean truncated = false;
 
   /**
    * Create a new visitor to build a graphviz string for the injection plan.
    * @param aShowLegend if true, show legend on the graph.
    */
   public GraphvizInjectionPlanVisitor(final boolean showLegend) {
+    this(showLegend, Integer.MAX_VALUE, new StringBuilder());
+  }
+
+  /**
+   * Create a new visitor that writes the graph of the injection plan to out
+   * as it goes.  Call finish() after the walk to complete the graph.
+   * @param aShowLegend if true, show legend on the graph.
+   * @param maxNodes Stop the walk once this many nodes have been plotted.
+   * @param out Destination of the graph.
+   */
+  public GraphvizInjectionPlanVisitor(final boolean showLegend,
+          final int maxNodes, final Appendable out) {
+    this.maxNodes = maxNodes;
+    this.graphStr = out;
+    write("digraph InjectionPlanMain {\n");
     if (showLegend) {
-      this.graphStr.append(LEGEND);
+      write(LEGEND);
+    }
+    write("subgraph cluster_main {\n  style=invis;\n");
+  }
+
+  /**
+   * Append str to the graph, unless an earlier write failed.
+   * @return false if this or an earlier write failed.
+   */
+  private boolean write(final CharSequence str) {
+    if (this.error != null) {
+      return false;
+    }
+    try {
+      this.graphStr.append(str);
+      return true;
+    } catch (final IOException e) {
+      this.error = e;
+      return false;
+    }
+  }
+
+  /**
+   * @return Graphviz id of an injection plan node.
+   */
+  private static String getId(final InjectionPlan<?> node) {
+    return node.getClass() + "_" + node.getNode().getName();
+  }
+
+  /**
+   * Plot a node.  Walk visits every plan node once, so this never repeats
+   * a node, and distinct plans that share an id are all walked.
+   * @return true to walk the children of the node.
+   */
+  private boolean plot(final InjectionPlan<?> node, final String attributes) {
+    ++this.nodes;
+    return write("  \"" + getId(node) + "\" [label=\"" + attributes + "];\n");
+  }
+
+  /**
+   * Complete the graph written to the Appendable given to the constructor.
+   * @throws IOException if writing the graph failed.
+   */
+  public void finish() throws IOException {
+    if (this.truncated) {
+      write("  truncated [label=\"Graph truncated after " + this.nodes + " nodes\", shape=plaintext];\n");
+    }
+    write("}}\n");
+    if (this.error != null) {
+      throw this.error;
     }
-    this.graphStr.append("subgraph cluster_main {\n  style=invis;\n");
   }
 
   /**
@@ -64,15 +140,7 @@ public final class GraphvizInjectionPlanVisitor
    */
   @Override
   public boolean visit(final Constructor<?> node) {
-    this.graphStr
-            .append("  \"")
-            .append(node.getClass())
-            .append('_')
-            .append(node.getNode().getName())
-            .append("\" [label=\"")
-            .append(node.getNode().getName())
-            .append("\", shape=box];\n");
-    return true;
+    return plot(node, node.getNode().getName() + "\", shape=box");
   }
 
   /**
@@ -82,17 +150,8 @@ public final class GraphvizInjectionPlanVisitor
    */
   @Override
   public boolean visit(final JavaInstance<?> node) {
-    this.graphStr
-            .append("  \"")
-            .append(node.getClass())
-            .append('_')
-            .append(node.getNode().getName())
-            .append("\" [label=\"")
-            .append(node.getNode().getName())
-            .append(" = ")
-            .append(node.getInstanceAsString())
-            .append("\", shape=box, style=bold];\n");
-    return true;
+    return plot(node, node.getNode().getName() + " = " + node.getInstanceAsString()
+        + "\", shape=box, style=bold");
   }
 
   /**
@@ -102,15 +161,7 @@ public final class GraphvizInjectionPlanVisitor
    */
   @Override
   public boolean visit(final Subplan<?> node) {
-    this.graphStr
-            .append("  \"")
-            .append(node.getClass())
-            .append('_')
-            .append(node.getNode().getName())
-            .append("\" [label=\"")
-            .append(node.getNode().getName())
-            .append("\", shape=oval, style=dashed];\n");
-    return true;
+    return plot(node, node.getNode().getName() + "\", shape=oval, style=dashed");
   }
 
   /**
@@ -121,17 +172,11 @@ public final class GraphvizInjectionPlanVisitor
    */
   @Override
   public boolean visit(final InjectionPlan<?> nodeFrom, final InjectionPlan<?> nodeTo) {
-    this.graphStr
-           .append("  \"")
-           .append(nodeFrom.getClass())
-           .append('_')
-           .append(nodeFrom.getNode().getName())
-           .append("\" -> \"")
-           .append(nodeTo.getClass())
-           .append('_')
-           .append(nodeTo.getNode().getName())
-           .append("\" [style=solid];\n");
-    return true;
+    if (this.nodes >= this.maxNodes) {
+      this.truncated = true;
+      return false;
+    }
+    return write("  \"" + getId(nodeFrom) + "\" -> \"" + getId(nodeTo) + "\" [style=solid];\n");
   }
 
   /**
@@ -155,4 +200,39 @@ public final class GraphvizInjectionPlanVisitor
     Walk.preorder(visitor, visitor, injectionPlan);
     return visitor.toString();
   }
+
+  /**
+   * Write a Graphviz DOT graph for a given TANG injection plan to out, as the
+   * plan is walked.  The graph is never held in memory as a whole.
+   * @param injectionPlan TANG injection plan.
+   * @param showLegend if true, show legend on the graph.
+   * @param out Destination of the graph.  It is neither flushed nor closed.
+   * @throws IOException if writing to out failed.
+   */
+  public static void writeGraphviz(final InjectionPlan<?> injectionPlan,
+          final boolean showLegend, final Appendable out) throws IOException
+  {
+    writeGraphviz(injectionPlan, showLegend, Integer.MAX_VALUE, Integer.MAX_VALUE, out);
+  }
+
+  /**
+   * Write a Graphviz DOT graph for a given TANG injection plan to out, as the
+   * plan is walked, plotting at most the given number of levels and nodes.
+   * A truncated graph says so in a separate node.
+   * @param injectionPlan TANG injection plan.
+   * @param showLegend if true, show legend on the graph.
+   * @param maxDepth Do not plot nodes further than this from the root.
+   * @param maxNodes Stop once this many nodes have been plotted.
+   * @param out Destination of the graph.  It is neither flushed nor closed.
+   * @throws IOException if writing to out failed.
+   */
+  public static void writeGraphviz(final InjectionPlan<?> injectionPlan,
+          final boolean showLegend, final int maxDepth, final int maxNodes,
+          final Appendable out) throws IOException
+  {
+    final GraphvizInjectionPlanVisitor visitor =
+        new GraphvizInjectionPlanVisitor(showLegend, maxNodes, out);
+    Walk.preorder(visitor, visitor, injectionPlan, maxDepth);
+    visitor.finish();
+  }
 }
@@ -76,6 +76,28 @@ public class TestConfFileParser {
     Assert.assertTrue(t.newInjector(cb.build()).isParameterSet(Foo.class));
   }
   
+  @Test
+  public void testEscapesAndImportsFromString() throws BindException, InjectionException {
+    // Parsed in memory; must behave exactly like the file based parser.
+    final String value = "a \"quoted\" \\ value";
+    final JavaConfigurationBuilder src = Tang.Factory.getTang().newConfigurationBuilder();
+    src.bindNamedParameter(RemoteIdentifier.class, value);
+    final String conf = "import=" + ReflectionUtilities.getFullName(RemoteIdentifier.class) + "\n"
+        + ConfigurationFile.toConfigurationString(src.build());
+
+    final JavaConfigurationBuilder fromString = Tang.Factory.getTang().newConfigurationBuilder();
+    ConfigurationFile.addConfiguration(fromString, conf);
+    Assert.assertEquals(value, Tang.Factory.getTang().newInjector(fromString.build())
+        .getNamedInstance(RemoteIdentifier.class));
+
+    final JavaConfigurationBuilder shortName = Tang.Factory.getTang().newConfigurationBuilder();
+    ConfigurationFile.addConfiguration(shortName,
+        "import=" + ReflectionUtilities.getFullName(RemoteIdentifier.class) + "\n"
+            + "RemoteIdentifier=woot\n");
+    Assert.assertEquals("woot", Tang.Factory.getTang().newInjector(shortName.build())
+        .getNamedInstance(RemoteIdentifier.class));
+  }
+
   @NamedParameter()
   class Foo implements Name<String> { }
   
@@ -0,0 +1,123 @@
+/**
+ * Copyright (C) 2014 Microsoft Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.microsoft.tang;
+
+import com.microsoft.tang.annotations.Name;
+import com.microsoft.tang.annotations.NamedParameter;
+import com.microsoft.tang.exceptions.BindException;
+import com.microsoft.tang.formats.AvroConfigurationSerializer;
+import com.microsoft.tang.types.NamedParameterNode;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+
+public class TestConfigurations {
+
+  @Rule
+  public ExpectedException thrown = ExpectedException.none();
+
+  @NamedParameter
+  static class Host implements Name<String> {
+  }
+
+  @NamedParameter
+  static class TaskId implements Name<String> {
+  }
+
+  @NamedParameter
+  static class Tags implements Name<Set<String>> {
+  }
+
+  private static JavaConfigurationBuilder baseBuilder() {
+    final JavaConfigurationBuilder cb = Tang.Factory.getTang().newConfigurationBuilder();
+    cb.bindNamedParameter(Host.class, "localhost");
+    cb.bindSetEntry(Tags.class, "a");
+    return cb;
+  }
+
+  @Test
+  public void testDiffAndApply() throws Exception {
+    final Configuration base = baseBuilder().build();
+    final JavaConfigurationBuilder cb = baseBuilder();
+    cb.bindNamedParameter(TaskId.class, "task-17");
+    cb.bindSetEntry(Tags.class, "b");
+    final Configuration derived = cb.build();
+
+    final Configuration delta = Configurations.diff(base, derived);
+    Assert.assertEquals(1, delta.getNamedParameters().size());
+    final NamedParameterNode<?> np = delta.getNamedParameters().iterator().next();
+    Assert.assertEquals(TaskId.class.getName(), np.getFullName());
+    Assert.assertEquals("task-17", delta.getNamedParameter(np));
+    Assert.assertEquals(derived.getFingerprint(), Configurations.apply(base, delta).getFingerprint());
+
+    // Deltas are Configurations, so they go over the wire like any other.
+    final AvroConfigurationSerializer serializer = new AvroConfigurationSerializer();
+    final Configuration received = serializer.fromByteArray(serializer.toByteArray(delta), base.getClassHierarchy());
+    Assert.assertEquals(derived.getFingerprint(), Configurations.apply(base, received).getFingerprint());
+    Assert.assertTrue(serializer.toByteArray(delta).length < serializer.toByteArray(derived).length);
+  }
+
+  @Test
+  public void testDiffOfEqualConfigurationsIsEmpty() throws Exception {
+    final Configuration base = baseBuilder().build();
+    final Configuration delta = Configurations.diff(base, baseBuilder().build());
+    Assert.assertTrue(delta.getNamedParameters().isEmpty());
+    Assert.assertFalse(delta.getBoundSets().iterator().hasNext());
+  }
+
+  @Test
+  public void testDiffRejectsChangedBinding() throws Exception {
+    thrown.expect(BindException.class);
+    thrown.expectMessage("Derived configuration does not extend base configuration");
+    final Configuration base = baseBuilder().build();
+    final JavaConfigurationBuilder cb = Tang.Factory.getTang().newConfigurationBuilder();
+    cb.bindNamedParameter(Host.class, "remotehost");
+    cb.bindSetEntry(Tags.class, "a");
+    Configurations.diff(base, cb.build());
+  }
+  @Test
+  public void testBulkMergeMatchesSequentialMerge() throws Exception {
+    final List<Configuration> confs = new ArrayList<>();
+    confs.add(baseBuilder().build());
+    confs.add(Tang.Factory.getTang().newConfigurationBuilder().bindNamedParameter(TaskId.class, "task-17").build());
+    for (int i = 0; i < 100; i++) {
+      confs.add(Tang.Factory.getTang().newConfigurationBuilder().bindSetEntry(Tags.class, "t" + i).build());
+    }
+    final ConfigurationBuilder sequential = Tang.Factory.getTang().newConfigurationBuilder();
+    for (final Configuration c : confs) {
+      sequential.addConfiguration(c);
+    }
+    final Configuration merged = Configurations.merge(confs);
+    Assert.assertEquals(sequential.build().getFingerprint(), merged.getFingerprint());
+    Assert.assertEquals(merged.getFingerprint(),
+        Configurations.merge(confs.toArray(new Configuration[confs.size()])).getFingerprint());
+  }
+
+  @Test
+  public void testBulkMergeReportsConflictsLikeAddConfiguration() throws Exception {
+    thrown.expect(IllegalArgumentException.class);
+    thrown.expectMessage("Attempt to re-add: [" + Tang.Factory.getTang().getDefaultClassHierarchy().getNode(Host.class.getName()));
+    Configurations.merge(Arrays.asList(
+        baseBuilder().build(),
+        Tang.Factory.getTang().newConfigurationBuilder().bindNamedParameter(Host.class, "remotehost").build()));
+  }
+}
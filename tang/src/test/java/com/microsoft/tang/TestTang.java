@@ -113,6 +113,32 @@ public class TestTang {
     i.getInstance(OneNamedSingletonArgs.class);
   }
 
+  // The (infeasible) plan for OneNamedSingletonArgs is cached by the injector;
+  // the volatile binding of A must invalidate it.
+  @Test
+  public void testVolatileParameterInvalidatesCachedPlan() throws BindException, InjectionException {
+    final Injector i = tang.newInjector();
+    Assert.assertFalse(i.isInjectable(OneNamedSingletonArgs.class));
+    Assert.assertTrue(i.isInjectable(MustBeSingleton.class));
+    i.bindVolatileParameter(OneNamedSingletonArgs.A.class,
+        i.getInstance(MustBeSingleton.class));
+    Assert.assertTrue(i.isInjectable(OneNamedSingletonArgs.class));
+    i.getInstance(OneNamedSingletonArgs.class);
+  }
+
+  // Greeter has no bound or default implementation, so its cached plan is
+  // built from the constructors of its known implementations; the volatile
+  // binding of Greeting must invalidate it.
+  @Test
+  public void testVolatileParameterInvalidatesInterfacePlan() throws BindException, InjectionException, NameResolutionException {
+    final JavaConfigurationBuilder cb = tang.newConfigurationBuilder();
+    cb.getClassHierarchy().getNode(ReflectionUtilities.getFullName(ConfiguredGreeter.class));
+    final Injector i = tang.newInjector(cb.build());
+    Assert.assertTrue(i.getInjectionPlan(Greeter.class).toString().contains("Greeting = null"));
+    i.bindVolatileParameter(ConfiguredGreeter.Greeting.class, "hi");
+    Assert.assertTrue(i.getInjectionPlan(Greeter.class).toString().contains("Greeting = hi"));
+  }
+
   @Test
   public void testRepeatedNamedOKArgs() throws BindException,
       InjectionException {
@@ -1134,4 +1160,19 @@ class ForksInjectorInConstructor {
     cb.bindImplementation(Number.class, Integer.class);
     i.forkInjector(cb.build());
   }
-}
\ No newline at end of file
+}
+interface Greeter {
+  String greet();
+}
+class ConfiguredGreeter implements Greeter {
+  @NamedParameter
+  class Greeting implements Name<String> { }
+  private final String greeting;
+  @Inject ConfiguredGreeter(@Parameter(Greeting.class) String greeting) {
+    this.greeting = greeting;
+  }
+  @Override
+  public String greet() {
+    return greeting;
+  }
+}
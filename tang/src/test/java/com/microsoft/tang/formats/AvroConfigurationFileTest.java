@@ -0,0 +1,133 @@
+/**
+ * Copyright (C) 2014 Microsoft Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.microsoft.tang.formats;
+
+import com.microsoft.tang.Configuration;
+import com.microsoft.tang.Tang;
+import com.microsoft.tang.annotations.Name;
+import com.microsoft.tang.annotations.NamedParameter;
+import com.microsoft.tang.types.NamedParameterNode;
+import org.apache.avro.file.CodecFactory;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+public final class AvroConfigurationFileTest {
+
+  @NamedParameter
+  static final class TaskIndex implements Name<Integer> {
+  }
+
+  private static final int COUNT = 1000;
+
+  private static Configuration task(final int i) {
+    return Tang.Factory.getTang().newConfigurationBuilder()
+        .bindNamedParameter(TaskIndex.class, "" + i)
+        .build();
+  }
+
+  private static int taskIndex(final Configuration c) {
+    final NamedParameterNode<?> np = c.getNamedParameters().iterator().next();
+    Assert.assertEquals(TaskIndex.class.getName(), np.getFullName());
+    return Integer.parseInt(c.getNamedParameter(np));
+  }
+
+  private static File writeTasks() throws Exception {
+    final File file = File.createTempFile("TangTest", ".avroconfs");
+    file.deleteOnExit();
+    // A tiny sync interval, so that the file has many blocks.
+    try (final AvroConfigurationFileWriter writer =
+             new AvroConfigurationFileWriter(file, CodecFactory.deflateCodec(1), 256)) {
+      for (int i = 0; i < COUNT; i++) {
+        writer.append(task(i));
+      }
+      Assert.assertEquals(COUNT, writer.getCount());
+    }
+    return file;
+  }
+
+  @Test
+  public void testIterate() throws Exception {
+    try (final AvroConfigurationFileReader reader = new AvroConfigurationFileReader(writeTasks())) {
+      int i = 0;
+      for (final Configuration c : reader) {
+        Assert.assertEquals(i++, taskIndex(c));
+      }
+      Assert.assertEquals(COUNT, i);
+    }
+  }
+
+  @Test
+  public void testIteratorRestartsAndEnds() throws Exception {
+    try (final AvroConfigurationFileReader reader = new AvroConfigurationFileReader(writeTasks())) {
+      for (int pass = 0; pass < 2; pass++) {
+        final Iterator<Configuration> it = reader.iterator();
+        for (int i = 0; i < COUNT; i++) {
+          Assert.assertTrue(it.hasNext());
+          Assert.assertEquals(i, taskIndex(it.next()));
+        }
+        Assert.assertFalse(it.hasNext());
+        try {
+          it.next();
+          Assert.fail("next() past the last configuration should throw");
+        } catch (final NoSuchElementException e) {
+          // expected
+        }
+      }
+    }
+  }
+
+  @Test
+  public void testGetByIndex() throws Exception {
+    try (final AvroConfigurationFileReader reader = new AvroConfigurationFileReader(writeTasks())) {
+      Assert.assertEquals(500, taskIndex(reader.get(500)));
+      for (int i = COUNT - 1; i >= 0; i -= 7) {
+        Assert.assertEquals(i, taskIndex(reader.get(i)));
+      }
+      Assert.assertEquals(COUNT, reader.size());
+      Assert.assertEquals(0, taskIndex(reader.iterator().next()));
+    }
+  }
+
+  @Test
+  public void testIndexCoversEveryBlock() throws Exception {
+    try (final AvroConfigurationFileReader reader = new AvroConfigurationFileReader(writeTasks())) {
+      Assert.assertEquals(COUNT, reader.size());
+      Assert.assertTrue(reader.getIndexedBlockCount() > 1);
+      Assert.assertEquals(COUNT - 1, taskIndex(reader.get(COUNT - 1)));
+    }
+  }
+
+  @Test(expected = IndexOutOfBoundsException.class)
+  public void testGetPastEnd() throws Exception {
+    try (final AvroConfigurationFileReader reader = new AvroConfigurationFileReader(writeTasks())) {
+      reader.get(COUNT);
+    }
+  }
+
+  @Test
+  public void testSingleConfigurationFileIsCompatible() throws Exception {
+    final File file = File.createTempFile("TangTest", ".avroconf");
+    file.deleteOnExit();
+    new AvroConfigurationSerializer().toFile(task(17), file);
+    try (final AvroConfigurationFileReader reader = new AvroConfigurationFileReader(file)) {
+      Assert.assertEquals(17, taskIndex(reader.get(0)));
+    }
+  }
+}
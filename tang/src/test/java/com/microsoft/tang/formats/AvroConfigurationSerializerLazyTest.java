@@ -0,0 +1,160 @@
+/**
+ * Copyright (C) 2014 Microsoft Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.microsoft.tang.formats;
+
+import com.microsoft.tang.Configuration;
+import com.microsoft.tang.Injector;
+import com.microsoft.tang.JavaConfigurationBuilder;
+import com.microsoft.tang.Tang;
+import com.microsoft.tang.annotations.Name;
+import com.microsoft.tang.annotations.NamedParameter;
+import com.microsoft.tang.exceptions.BindException;
+import com.microsoft.tang.implementation.LazyConfigurationImpl;
+import com.microsoft.tang.implementation.TangImpl;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+import javax.inject.Inject;
+import java.util.HashMap;
+import java.util.Map;
+
+// Top level, so that registering one of them doesn't register the others.
+interface LazyAlpha { }
+
+interface LazyBeta { }
+
+final class LazyAlphaBeta implements LazyAlpha, LazyBeta {
+  @Inject
+  LazyAlphaBeta() { }
+}
+
+public class AvroConfigurationSerializerLazyTest {
+
+  @NamedParameter
+  final static class Port implements Name<Integer> { }
+
+  @NamedParameter
+  final static class Host implements Name<String> { }
+
+  @NamedParameter
+  final static class Retries implements Name<Integer> { }
+
+  @Rule
+  public ExpectedException thrown = ExpectedException.none();
+
+  private final AvroConfigurationSerializer serializer = new AvroConfigurationSerializer(true);
+
+  private static Configuration getConfiguration() throws BindException {
+    final JavaConfigurationBuilder cb = Tang.Factory.getTang().newConfigurationBuilder();
+    cb.bindNamedParameter(Port.class, "8080");
+    cb.bindNamedParameter(Host.class, "localhost");
+    cb.bindNamedParameter(Retries.class, "3");
+    return cb.build();
+  }
+
+  @Test
+  public void bindingsResolvedOnFirstUseTest() throws Exception {
+    final LazyConfigurationImpl conf =
+        (LazyConfigurationImpl) serializer.fromString(serializer.toString(getConfiguration()));
+    Assert.assertEquals(3, conf.getUnresolvedCount());
+
+    final Injector i = Tang.Factory.getTang().newInjector(conf);
+    Assert.assertEquals(8080, (int) i.getNamedInstance(Port.class));
+    Assert.assertEquals(2, conf.getUnresolvedCount());
+
+    conf.validateAll();
+    Assert.assertEquals(0, conf.getUnresolvedCount());
+    Assert.assertEquals("localhost", i.getNamedInstance(Host.class));
+  }
+
+  @Test
+  public void fingerprintMatchesEagerTest() throws Exception {
+    final Configuration conf = getConfiguration();
+    final byte[] bytes = serializer.toByteArray(conf);
+    Assert.assertEquals(new AvroConfigurationSerializer().fromByteArray(bytes).getFingerprint(),
+        serializer.fromByteArray(bytes).getFingerprint());
+  }
+
+  @Test
+  public void hashCodeStableAcrossUseTest() throws Exception {
+    final String s = serializer.toString(getConfiguration());
+    final Configuration fresh = serializer.fromString(s);
+    final Configuration used = serializer.fromString(s);
+    final int hash = used.hashCode();
+    Tang.Factory.getTang().newInjector(used).getNamedInstance(Port.class);
+    Assert.assertEquals(hash, used.hashCode());
+    Assert.assertEquals(fresh.hashCode(), used.hashCode());
+  }
+
+  @Test
+  public void badBindingHashableTest() throws Exception {
+    final String bad = serializer.toString(getConfiguration()).replace("\"3\"", "\"three\"");
+    final LazyConfigurationImpl conf = (LazyConfigurationImpl) serializer.fromString(bad);
+    final Map<Configuration, String> map = new HashMap<>();
+    map.put(conf, "bad");
+    Assert.assertEquals("bad", map.get(conf));
+    Assert.assertEquals(conf, conf);
+
+    thrown.expect(BindException.class);
+    thrown.expectMessage("Failed to process configuration tuple");
+    conf.validateAll();
+  }
+
+  private static String injectionPlan(final Configuration conf, final Class<?> clazz) throws Exception {
+    return Tang.Factory.getTang().newInjector(conf).getInjectionPlan(clazz).toString();
+  }
+
+  // Reading a configuration registers the classes it binds, which can change
+  // the plans for classes it doesn't bind.  Lazy reads must do so as well.
+  @Test
+  public void injectionPlansMatchEagerTest() throws Exception {
+    final JavaConfigurationBuilder cb = Tang.Factory.getTang().newConfigurationBuilder();
+    cb.bindImplementation(LazyAlpha.class, LazyAlphaBeta.class);
+    final String s = serializer.toString(cb.build());
+
+    TangImpl.reset();
+    final String eager = injectionPlan(new AvroConfigurationSerializer().fromString(s), LazyBeta.class);
+    TangImpl.reset();
+    final String lazy = injectionPlan(serializer.fromString(s), LazyBeta.class);
+    Assert.assertTrue(eager, eager.contains(LazyAlphaBeta.class.getSimpleName()));
+    Assert.assertEquals(eager, lazy);
+  }
+
+  @Test
+  public void badBindingIgnoredUntilUsedTest() throws Exception {
+    final String bad = serializer.toString(getConfiguration()).replace("\"3\"", "\"three\"");
+    final LazyConfigurationImpl conf = (LazyConfigurationImpl) serializer.fromString(bad);
+
+    final Injector i = Tang.Factory.getTang().newInjector(conf);
+    Assert.assertEquals("localhost", i.getNamedInstance(Host.class));
+
+    thrown.expect(BindException.class);
+    thrown.expectMessage("Failed to process configuration tuple");
+    conf.validateAll();
+  }
+
+  @Test
+  public void badBindingReportedOnUseTest() throws Exception {
+    final String bad = serializer.toString(getConfiguration()).replace("\"3\"", "\"three\"");
+    final Injector i = Tang.Factory.getTang().newInjector(serializer.fromString(bad));
+
+    thrown.expect(BindException.class);
+    thrown.expectMessage("Failed to process configuration tuple");
+    i.getNamedInstance(Retries.class);
+  }
+}
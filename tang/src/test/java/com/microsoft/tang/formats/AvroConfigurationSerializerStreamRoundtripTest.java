@@ -0,0 +1,48 @@
+/**
+ * Copyright (C) 2014 Microsoft Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.microsoft.tang.formats;
+
+import com.microsoft.tang.Configuration;
+import com.microsoft.tang.test.RoundTripTest;
+import org.junit.Assert;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.util.Arrays;
+
+/**
+ * A RoundTripTest that uses avro to serialize to a stream.  The configuration
+ * is written twice, and the second copy is returned, to check that reading
+ * the first one leaves the stream positioned at the second.
+ */
+public final class AvroConfigurationSerializerStreamRoundtripTest extends RoundTripTest {
+  @Override
+  public Configuration roundTrip(Configuration configuration) throws Exception {
+    final AvroConfigurationSerializer serializer = new AvroConfigurationSerializer();
+    final ByteArrayOutputStream out = new ByteArrayOutputStream();
+    serializer.toStream(configuration, out);
+    final int length = out.size();
+    serializer.toStream(configuration, out);
+    Assert.assertArrayEquals(serializer.toByteArray(configuration), Arrays.copyOf(out.toByteArray(), length));
+
+    final InputStream in = new ByteArrayInputStream(out.toByteArray());
+    serializer.fromStream(in);
+    final Configuration ret = serializer.fromStream(in);
+    Assert.assertEquals(-1, in.read());
+    return ret;
+  }
+}
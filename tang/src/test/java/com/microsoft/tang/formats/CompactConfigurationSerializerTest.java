@@ -0,0 +1,110 @@
+/**
+ * Copyright (C) 2014 Microsoft Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.microsoft.tang.formats;
+
+import com.microsoft.tang.Configuration;
+import com.microsoft.tang.test.ObjectTreeTest;
+import com.microsoft.tang.util.Fingerprint;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+public final class CompactConfigurationSerializerTest {
+
+  private final CompactConfigurationSerializer compact = new CompactConfigurationSerializer();
+  private final AvroConfigurationSerializer avro = new AvroConfigurationSerializer();
+
+  /**
+   * Reading a Configuration back turns its bindings into strings, which
+   * changes its fingerprint, so round trips are compared to an Avro one.
+   */
+  private Fingerprint expectedFingerprint(final Configuration conf) throws Exception {
+    return avro.fromByteArray(avro.toByteArray(conf)).getFingerprint();
+  }
+
+  @Test
+  public void testEquivalentToAvro() throws Exception {
+    final Configuration conf = ObjectTreeTest.getConfigurationWithoutList();
+    final Configuration viaCompact = compact.fromByteArray(compact.toByteArray(conf));
+    final Configuration viaAvro = avro.fromByteArray(avro.toByteArray(conf));
+    Assert.assertEquals(viaAvro.getFingerprint(), viaCompact.getFingerprint());
+    // And across formats.
+    Assert.assertEquals(viaAvro.getFingerprint(),
+        compact.fromByteArray(compact.toByteArray(avro.fromString(avro.toString(conf)))).getFingerprint());
+  }
+
+  @Test
+  public void testSmallerThanAvro() throws Exception {
+    final Configuration conf = ObjectTreeTest.getConfigurationWithoutList();
+    final int compactSize = compact.toByteArray(conf).length;
+    final int avroSize = avro.toByteArray(conf).length;
+    Assert.assertTrue("compact: " + compactSize + " avro: " + avroSize, compactSize < avroSize * 2 / 3);
+  }
+
+  @Test
+  public void testStringAndStream() throws Exception {
+    final Configuration conf = ObjectTreeTest.getConfigurationWithoutList();
+    final Fingerprint expected = expectedFingerprint(conf);
+    Assert.assertEquals(expected, compact.fromString(compact.toString(conf)).getFingerprint());
+
+    final ByteArrayOutputStream out = new ByteArrayOutputStream();
+    compact.toStream(conf, out);
+    compact.toStream(conf, out);
+    final InputStream in = new ByteArrayInputStream(out.toByteArray());
+    Assert.assertEquals(expected, compact.fromStream(in).getFingerprint());
+    Assert.assertEquals(expected, compact.fromStream(in).getFingerprint());
+    Assert.assertEquals(-1, in.read());
+  }
+
+  @Test
+  public void testDirectByteBuffer() throws Exception {
+    final Configuration conf = ObjectTreeTest.getConfigurationWithoutList();
+    final Fingerprint expected = expectedFingerprint(conf);
+    final byte[] bytes = compact.toByteArray(conf);
+    final ByteBuffer buffer = ByteBuffer.allocateDirect(bytes.length * 2);
+    buffer.put(bytes).put(bytes).flip();
+    Assert.assertEquals(expected, compact.fromByteBuffer(buffer).getFingerprint());
+    Assert.assertEquals(bytes.length, buffer.position());
+    Assert.assertEquals(expected, compact.fromByteBuffer(buffer).getFingerprint());
+    Assert.assertFalse(buffer.hasRemaining());
+  }
+
+  @Test
+  public void testFile() throws Exception {
+    final Configuration conf = ObjectTreeTest.getConfigurationWithoutList();
+    final Fingerprint expected = expectedFingerprint(conf);
+    final File file = File.createTempFile("TangTest", ".compactconf");
+    file.deleteOnExit();
+    compact.toFile(conf, file);
+    Assert.assertEquals(expected, compact.fromFile(file).getFingerprint());
+  }
+
+  @Test(expected = IOException.class)
+  public void testRejectsInvalidBase64() throws Exception {
+    compact.fromString(compact.toString(ObjectTreeTest.getConfigurationWithoutList()) + "!");
+  }
+
+  @Test(expected = IOException.class)
+  public void testRejectsAvro() throws Exception {
+    compact.fromByteArray(avro.toByteArray(ObjectTreeTest.getConfigurationWithoutList()));
+  }
+}
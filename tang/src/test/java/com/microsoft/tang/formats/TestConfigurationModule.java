@@ -33,6 +33,9 @@ import org.junit.rules.ExpectedException;
 import javax.inject.Inject;
 import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 import java.util.Set;
 
 /*
@@ -108,6 +111,11 @@ final class MyMissingBindConfigurationModule extends ConfigurationModuleBuilder
 
 }
 
+final class MyUnusedOptionConfigurationModule extends ConfigurationModuleBuilder {
+  // Declared, but never bound.
+  public static final OptionalParameter<Integer> FOO_NESS = new OptionalParameter<>();
+}
+
 public class TestConfigurationModule {
   /*
    *  Toy class hierarchy: FooImpl implements Foo, has a Fooness named
@@ -325,6 +333,102 @@ public class TestConfigurationModule {
     Assert.assertEquals(7, i2.getInstance(Foo.class).getFooness());
   }
 
+  @Test
+  public void bindErrorsDeferredToBuildTest() throws Throwable {
+    // Concrete bindings are only checked once, by build(), which throws what
+    // bindNamedParameter() itself used to.
+    final ConfigurationModuleBuilder b = new MyBadConfigurationModule()
+        .bindNamedParameter(Fooness.class, "not a number");
+    thrown.expect(NumberFormatException.class);
+    b.build();
+  }
+
+  @Test
+  public void unusedOptionReportedBeforeBadBindingTest() throws Throwable {
+    final ConfigurationModuleBuilder b = new MyUnusedOptionConfigurationModule()
+        .bindNamedParameter(Fooness.class, "not a number");
+    thrown.expect(ClassHierarchyException.class);
+    thrown.expectMessage("Found declared options that were not used in binds: { FOO_NESS }");
+    b.build();
+  }
+
+  @NamedParameter
+  class Fooes implements Name<List<String>> {
+  }
+
+  static class FooList {
+    final List<String> fooes;
+
+    @Inject
+    FooList(@Parameter(Fooes.class) List<String> fooes) {
+      this.fooes = fooes;
+    }
+  }
+
+  @Test
+  public void bindListCopiesListTest() throws BindException, InjectionException {
+    final List<String> fooes = new ArrayList<>(Arrays.asList("a", "b"));
+    final ConfigurationModuleBuilder b = new MyBadConfigurationModule().bindList(Fooes.class, fooes);
+    fooes.add("c");
+    Assert.assertEquals(Arrays.asList("a", "b"),
+        Tang.Factory.getTang().newInjector(b.build().build()).getInstance(FooList.class).fooes);
+  }
+
+  @Test
+  public void branchedBindTest() throws BindException, InjectionException {
+    final ConfigurationModuleBuilder base = new MyBadConfigurationModule()
+        .bindImplementation(Foo.class, FooImpl.class);
+    final ConfigurationModule seven = base.bindNamedParameter(Fooness.class, "7").build();
+    final ConfigurationModule eight = base.bindNamedParameter(Fooness.class, "8").build();
+    Assert.assertEquals(42, Tang.Factory.getTang().newInjector(base.build().build()).getInstance(Foo.class).getFooness());
+    Assert.assertEquals(7, Tang.Factory.getTang().newInjector(seven.build()).getInstance(Foo.class).getFooness());
+    Assert.assertEquals(8, Tang.Factory.getTang().newInjector(eight.build()).getInstance(Foo.class).getFooness());
+  }
+
+  @Test
+  public void branchedSetTest() throws BindException, InjectionException {
+    // set() on a module that has already been extended must not see (or
+    // clobber) the settings of the other branch.
+    final ConfigurationModule base = SetConfigurationModule.CONF.set(SetConfigurationModule.P, "a");
+    final ConfigurationModule left = base.set(SetConfigurationModule.P, "b");
+    final ConfigurationModule right = base.set(SetConfigurationModule.P, "c").set(SetConfigurationModule.P, "b");
+    Assert.assertEquals(1, Tang.Factory.getTang().newInjector(base.build()).getNamedInstance(SetName.class).size());
+    Assert.assertEquals(2, Tang.Factory.getTang().newInjector(left.build()).getNamedInstance(SetName.class).size());
+    final Set<String> s = Tang.Factory.getTang().newInjector(right.build()).getNamedInstance(SetName.class);
+    Assert.assertEquals(3, s.size());
+    Assert.assertTrue(s.contains("c"));
+  }
+
+  @Test
+  public void memoizedBuildTest() throws BindException, InjectionException {
+    final ConfigurationModule conf = SetConfigurationModule.CONF.memoize(2);
+    conf.assertStaticClean();
+    final Configuration ab = conf.set(SetConfigurationModule.P, "a").set(SetConfigurationModule.P, "b").build();
+    Assert.assertSame(ab, conf.set(SetConfigurationModule.P, "b").set(SetConfigurationModule.P, "a").build());
+    Assert.assertNotSame(ab, conf.set(SetConfigurationModule.P, "c").build());
+    Assert.assertEquals(2, Tang.Factory.getTang().newInjector(ab).getNamedInstance(SetName.class).size());
+
+    final ConfigurationModule.BuildCache cache = conf.getBuildCache();
+    Assert.assertEquals(1, cache.getHits());
+    Assert.assertEquals(2, cache.getMisses());
+    Assert.assertEquals(1.0 / 3, cache.getHitRate(), 1e-9);
+
+    // The least recently used entry ({a, b}) is evicted first.
+    conf.set(SetConfigurationModule.P, "d").build();
+    Assert.assertEquals(2, cache.size());
+    Assert.assertNotSame(ab, conf.set(SetConfigurationModule.P, "a").set(SetConfigurationModule.P, "b").build());
+    Assert.assertNull(SetConfigurationModule.CONF.getBuildCache());
+  }
+
+  @Test
+  public void doubleSetTest() throws BindException, InjectionException {
+    thrown.expect(IllegalArgumentException.class);
+    thrown.expectMessage("Attempt to re-add");
+    MyConfigurationModule.CONF
+        .set(MyConfigurationModule.FOO_NESS, 1)
+        .set(MyConfigurationModule.FOO_NESS, 2);
+  }
+
 
   @Test
   public void setParamTest() throws BindException, InjectionException {
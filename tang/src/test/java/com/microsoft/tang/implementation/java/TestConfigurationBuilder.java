@@ -16,6 +16,7 @@
 
 package com.microsoft.tang.implementation.java;
 
+import com.microsoft.tang.ClassHierarchy;
 import com.microsoft.tang.Configuration;
 import com.microsoft.tang.Tang;
 import com.microsoft.tang.annotations.Name;
@@ -23,6 +24,8 @@ import com.microsoft.tang.annotations.NamedParameter;
 import com.microsoft.tang.annotations.Parameter;
 import com.microsoft.tang.formats.AvroConfigurationSerializer;
 import com.microsoft.tang.formats.avro.AvroConfiguration;
+import com.microsoft.tang.util.Fingerprint;
+import org.junit.Assert;
 import org.junit.Rule;
 import org.junit.Test;
 import org.junit.rules.ExpectedException;
@@ -46,6 +49,42 @@ public class TestConfigurationBuilder {
                 .build();
     }
 
+    @Test
+    public void fingerprintIgnoresBindingOrderTest() {
+        final Configuration c1 = Tang.Factory.getTang().newConfigurationBuilder()
+                .bindNamedParameter(NamedParamterNoDefault.NamedString.class, "a")
+                .bindNamedParameter(OtherNamedString.class, "b")
+                .build();
+        final Configuration c2 = Tang.Factory.getTang().newConfigurationBuilder()
+                .bindNamedParameter(OtherNamedString.class, "b")
+                .bindNamedParameter(NamedParamterNoDefault.NamedString.class, "a")
+                .build();
+        final Configuration c3 = Tang.Factory.getTang().newConfigurationBuilder()
+                .bindNamedParameter(OtherNamedString.class, "a")
+                .bindNamedParameter(NamedParamterNoDefault.NamedString.class, "b")
+                .build();
+        Assert.assertEquals(c1.getFingerprint(), c2.getFingerprint());
+        Assert.assertEquals(c1.hashCode(), c2.hashCode());
+        Assert.assertNotEquals(c1.getFingerprint(), c3.getFingerprint());
+        Assert.assertNotEquals(c1, c3);
+        Assert.assertNotEquals(Fingerprint.EMPTY, c1.getFingerprint());
+    }
+
+    @Test
+    public void classHierarchyFingerprintTracksRegisteredNodesTest() {
+        final ClassHierarchy ch = new ClassHierarchyImpl();
+        final Fingerprint before = ch.getFingerprint();
+        ch.getNode(OtherNamedString.class.getName());
+        final Fingerprint after = ch.getFingerprint();
+        Assert.assertNotEquals(before, after);
+        ch.getNode(OtherNamedString.class.getName());
+        Assert.assertEquals(after, ch.getFingerprint());
+    }
+
+    @NamedParameter()
+    static class OtherNamedString implements Name<String> {
+    }
+
     static class NamedParamterNoDefault {
         final private String str;
 
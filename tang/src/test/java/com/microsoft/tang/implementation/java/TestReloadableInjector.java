@@ -0,0 +1,153 @@
+/**
+ * Copyright (C) 2014 Microsoft Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.microsoft.tang.implementation.java;
+
+import com.microsoft.tang.Tang;
+import com.microsoft.tang.annotations.Name;
+import com.microsoft.tang.annotations.NamedParameter;
+import com.microsoft.tang.annotations.Parameter;
+import com.microsoft.tang.exceptions.InjectionException;
+import com.microsoft.tang.formats.AvroConfigurationSerializer;
+import org.junit.Assert;
+import org.junit.Test;
+
+import javax.inject.Inject;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * TestReloadableInjector
+ */
+public class TestReloadableInjector {
+
+  @NamedParameter(default_value = "0")
+  static class Size implements Name<Integer> {
+  }
+
+  static class Sized {
+    final int size;
+
+    @Inject
+    Sized(@Parameter(Size.class) int size) {
+      this.size = size;
+    }
+  }
+
+  static class Unrelated {
+    @Inject
+    Unrelated() {
+    }
+  }
+
+  static class UsesSized {
+    final Sized sized;
+
+    @Inject
+    UsesSized(Sized sized) {
+      this.sized = sized;
+    }
+  }
+
+  static class NonNegative {
+    @Inject
+    NonNegative(@Parameter(Size.class) int size) {
+      if (size < 0) {
+        throw new IllegalArgumentException("Negative size " + size);
+      }
+    }
+  }
+
+  private static void write(final AvroConfigurationSerializer serializer, final File file, final int size)
+      throws Exception {
+    serializer.toFile(Tang.Factory.getTang().newConfigurationBuilder()
+        .bindNamedParameter(Size.class, "" + size)
+        .build(), file);
+  }
+
+  @Test
+  public void testReloadRebuildsOnlyAffectedSingletons() throws Exception {
+    final File file = File.createTempFile("TangTest", "avroconf");
+    file.deleteOnExit();
+    final AvroConfigurationSerializer serializer = new AvroConfigurationSerializer();
+    write(serializer, file, 1);
+
+    final ReloadableInjector reloadable = new ReloadableInjector(serializer, file, false);
+    final Unrelated unrelated = reloadable.getInstance(Unrelated.class);
+    final UsesSized usesSized = reloadable.getInstance(UsesSized.class);
+    Assert.assertEquals(1, usesSized.sized.size);
+
+    final List<UsesSized> published = new ArrayList<>();
+    reloadable.addListener(UsesSized.class, new ReloadableInjector.Listener<UsesSized>() {
+      @Override
+      public void onReload(final UsesSized newInstance) {
+        published.add(newInstance);
+      }
+    });
+
+    Assert.assertTrue("Unchanged file should not change anything", reloadable.reload().isEmpty());
+    Assert.assertSame(usesSized, reloadable.getInstance(UsesSized.class));
+
+    write(serializer, file, 2);
+    final Set<String> changed = reloadable.reload();
+    Assert.assertEquals(1, changed.size());
+    Assert.assertTrue(changed.contains(Size.class.getName()));
+
+    Assert.assertSame(unrelated, reloadable.getInstance(Unrelated.class));
+    Assert.assertNotSame(usesSized, reloadable.getInstance(UsesSized.class));
+    Assert.assertEquals(2, reloadable.getInstance(UsesSized.class).sized.size);
+    Assert.assertEquals(1, published.size());
+    Assert.assertSame(reloadable.getInstance(UsesSized.class), published.get(0));
+    reloadable.close();
+  }
+
+  @Test
+  public void testFailedReloadKeepsCurrentInjector() throws Exception {
+    final File file = File.createTempFile("TangTest", "avroconf");
+    file.deleteOnExit();
+    final AvroConfigurationSerializer serializer = new AvroConfigurationSerializer();
+    write(serializer, file, 1);
+
+    final ReloadableInjector reloadable = new ReloadableInjector(serializer, file, false);
+    final List<Object> published = new ArrayList<>();
+    reloadable.addListener(UsesSized.class, new ReloadableInjector.Listener<UsesSized>() {
+      @Override
+      public void onReload(final UsesSized newInstance) {
+        published.add(newInstance);
+      }
+    });
+    reloadable.addListener(NonNegative.class, new ReloadableInjector.Listener<NonNegative>() {
+      @Override
+      public void onReload(final NonNegative newInstance) {
+        published.add(newInstance);
+      }
+    });
+    final UsesSized usesSized = reloadable.getInstance(UsesSized.class);
+
+    write(serializer, file, -1);
+    try {
+      reloadable.reload();
+      Assert.fail("NonNegative should reject the new size");
+    } catch (final InjectionException e) {
+      // expected
+    }
+    Assert.assertTrue(published.isEmpty());
+    Assert.assertSame(usesSized, reloadable.getInstance(UsesSized.class));
+    Assert.assertEquals(1, reloadable.getInstance(UsesSized.class).sized.size);
+    reloadable.close();
+  }
+}
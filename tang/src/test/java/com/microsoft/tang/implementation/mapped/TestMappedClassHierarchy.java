@@ -0,0 +1,163 @@
+/**
+ * Copyright (C) 2014 Microsoft Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.microsoft.tang.implementation.mapped;
+
+import com.microsoft.tang.ClassHierarchy;
+import com.microsoft.tang.Configuration;
+import com.microsoft.tang.ConfigurationBuilder;
+import com.microsoft.tang.JavaClassHierarchy;
+import com.microsoft.tang.Tang;
+import com.microsoft.tang.examples.timer.Timer;
+import com.microsoft.tang.examples.timer.TimerImpl;
+import com.microsoft.tang.exceptions.NameResolutionException;
+import com.microsoft.tang.implementation.TangImpl;
+import com.microsoft.tang.implementation.protobuf.ProtocolBufferClassHierarchy;
+import com.microsoft.tang.types.ClassNode;
+import com.microsoft.tang.types.ConstructorDef;
+import com.microsoft.tang.types.NamedParameterNode;
+import com.microsoft.tang.types.Node;
+import com.microsoft.tang.types.PackageNode;
+import com.microsoft.tang.util.ReflectionUtilities;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+public class TestMappedClassHierarchy {
+
+  private static final String TIMER = ReflectionUtilities.getFullName(Timer.class);
+  private static final String TIMER_IMPL = ReflectionUtilities.getFullName(TimerImpl.class);
+  private static final String SECONDS = ReflectionUtilities.getFullName(Timer.Seconds.class);
+
+  private JavaClassHierarchy java;
+  private File file;
+
+  @Before
+  public void setUp() throws IOException {
+    TangImpl.reset();
+    java = Tang.Factory.getTang().getDefaultClassHierarchy();
+    java.getNode(TimerImpl.class);
+    file = File.createTempFile("testMapped", ".bin");
+  }
+
+  @After
+  public void tearDown() {
+    file.delete();
+  }
+
+  private ClassHierarchy map(final ClassHierarchy ch) throws IOException {
+    MappedClassHierarchy.write(ch, file);
+    return MappedClassHierarchy.open(file);
+  }
+
+  private static void assertSameNodes(final Node expected, final Node actual) {
+    Assert.assertEquals(expected.getFullName(), actual.getFullName());
+    Assert.assertEquals(expected.getName(), actual.getName());
+    Assert.assertEquals(expected.getChildren().size(), actual.getChildren().size());
+    for (final Node child : expected.getChildren()) {
+      final String key = expected instanceof PackageNode ? child.getFullName() : child.getName();
+      Assert.assertTrue(actual.contains(key));
+      assertSameNodes(child, actual.get(key));
+    }
+  }
+
+  @Test
+  public void testNodes() throws IOException, NameResolutionException {
+    final ClassHierarchy mapped = map(java);
+    assertSameNodes(java.getNamespace(), mapped.getNamespace());
+    Assert.assertEquals(java.getFingerprint(), mapped.getFingerprint());
+
+    final Node timer = mapped.getNode(TIMER);
+    Assert.assertEquals(TIMER, timer.getFullName());
+    Assert.assertEquals(timer, mapped.getNode(TIMER));
+    Assert.assertEquals(timer, timer.get("Seconds").getParent());
+    Assert.assertFalse(timer.contains("Minutes"));
+    Assert.assertNull(timer.get("Minutes"));
+  }
+
+  @Test
+  public void testClassNode() throws IOException, NameResolutionException {
+    final ClassHierarchy mapped = map(java);
+    final ClassNode<?> iface = (ClassNode<?>) mapped.getNode(TIMER);
+    final ClassNode<?> impl = (ClassNode<?>) mapped.getNode(TIMER_IMPL);
+    Assert.assertTrue(mapped.isImplementation(iface, impl));
+    Assert.assertTrue(mapped.isImplementation(iface, iface));
+    Assert.assertFalse(mapped.isImplementation(impl, iface));
+    Assert.assertTrue(impl.isImplementationOf((ClassNode<?>) java.getNode(TIMER)));
+    Assert.assertEquals(TIMER_IMPL, iface.getDefaultImplementation());
+    Assert.assertTrue(iface.getKnownImplementations().contains(impl));
+
+    final ClassNode<?> expected = (ClassNode<?>) java.getNode(TIMER_IMPL);
+    Assert.assertEquals(expected.isUnit(), impl.isUnit());
+    Assert.assertEquals(expected.isInjectionCandidate(), impl.isInjectionCandidate());
+    Assert.assertEquals(expected.isExternalConstructor(), impl.isExternalConstructor());
+    Assert.assertEquals(Arrays.<ConstructorDef<?>>asList(expected.getAllConstructors()),
+        Arrays.<ConstructorDef<?>>asList(impl.getAllConstructors()));
+    Assert.assertEquals(Arrays.<ConstructorDef<?>>asList(expected.getInjectableConstructors()),
+        Arrays.<ConstructorDef<?>>asList(impl.getInjectableConstructors()));
+  }
+
+  @Test
+  public void testNamedParameterNode() throws IOException, NameResolutionException {
+    final NamedParameterNode<?> np = (NamedParameterNode<?>) map(java).getNode(SECONDS);
+    final NamedParameterNode<?> expected = (NamedParameterNode<?>) java.getNode(SECONDS);
+    Assert.assertEquals(expected.getDocumentation(), np.getDocumentation());
+    Assert.assertEquals("sec", np.getShortName());
+    Assert.assertArrayEquals(new String[] { "10" }, np.getDefaultInstanceAsStrings());
+    Assert.assertEquals(expected.getSimpleArgName(), np.getSimpleArgName());
+    Assert.assertEquals(expected.getFullArgName(), np.getFullArgName());
+    Assert.assertFalse(np.isSet());
+    Assert.assertFalse(np.isList());
+  }
+
+  @Test
+  public void testFromProtocolBuffer() throws IOException, NameResolutionException {
+    final ClassHierarchy proto = new ProtocolBufferClassHierarchy(ProtocolBufferClassHierarchy.serialize(java));
+    final ByteArrayOutputStream out = new ByteArrayOutputStream();
+    MappedClassHierarchy.write(proto, out);
+    final ClassHierarchy mapped = new MappedClassHierarchy(ByteBuffer.wrap(out.toByteArray()));
+    assertSameNodes(proto.getNamespace(), mapped.getNamespace());
+    Assert.assertEquals(proto.getFingerprint(), mapped.getFingerprint());
+    Assert.assertTrue(mapped.isImplementation(
+        (ClassNode<?>) mapped.getNode(TIMER), (ClassNode<?>) mapped.getNode(TIMER_IMPL)));
+  }
+
+  @Test
+  public void testConfiguration() throws Exception {
+    final ClassHierarchy mapped = map(java);
+    final ConfigurationBuilder cb = Tang.Factory.getTang().newConfigurationBuilder(mapped);
+    cb.bind(TIMER, TIMER_IMPL);
+    cb.bind(SECONDS, "2");
+    final Configuration conf = cb.build();
+    Assert.assertEquals("2", conf.getNamedParameter((NamedParameterNode<?>) mapped.getNode(SECONDS)));
+  }
+
+  @Test(expected = NameResolutionException.class)
+  public void testMissingNode() throws IOException, NameResolutionException {
+    map(java).getNode("com.example.DoesNotExist");
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testBadMagic() {
+    new MappedClassHierarchy(ByteBuffer.wrap(new byte[64]));
+  }
+}
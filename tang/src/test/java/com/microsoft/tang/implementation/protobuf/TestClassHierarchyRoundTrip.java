@@ -16,12 +16,22 @@
 package com.microsoft.tang.implementation.protobuf;
 
 import com.microsoft.tang.ClassHierarchy;
+import com.microsoft.tang.JavaClassHierarchy;
+import com.microsoft.tang.examples.TimerV1;
+import com.microsoft.tang.examples.timer.Timer;
+import com.microsoft.tang.examples.timer.TimerImpl;
+import com.microsoft.tang.examples.timer.TimerMock;
 import com.microsoft.tang.proto.ClassHierarchyProto;
+import com.microsoft.tang.types.ClassNode;
 import com.microsoft.tang.types.Node;
+import com.microsoft.tang.util.ReflectionUtilities;
 import org.junit.Assert;
 import org.junit.Test;
 
+import javax.inject.Inject;
+
 import com.microsoft.tang.Tang;
+import com.microsoft.tang.exceptions.ClassHierarchyException;
 import com.microsoft.tang.exceptions.InjectionException;
 import com.microsoft.tang.exceptions.NameResolutionException;
 import com.microsoft.tang.implementation.TangImpl;
@@ -51,6 +61,21 @@ public class TestClassHierarchyRoundTrip extends TestClassHierarchy{
     }
   }
 
+  private void setup4() {
+    TangImpl.reset();
+    ns = new ProtocolBufferClassHierarchy(ProtocolBufferClassHierarchy.serialize(ns), true);
+  }
+
+  private void setup5() {
+    TangImpl.reset();
+    try {
+      ProtocolBufferClassHierarchy.serializeStreaming("testProto2.bin", ns);
+      ns = ProtocolBufferClassHierarchy.deserialize("testProto2.bin");
+    } catch (IOException e ) {
+      Assert.fail(String.format("IOException when serialize/deserialize streaming proto buffer file", e));
+    }
+  }
+
   @Test
   @Override
   public void testJavaString() throws NameResolutionException {
@@ -60,6 +85,10 @@ public class TestClassHierarchyRoundTrip extends TestClassHierarchy{
     super.testJavaString();
     setup3();
     super.testJavaString();
+    setup4();
+    super.testJavaString();
+    setup5();
+    super.testJavaString();
   }
   
   @Test
@@ -71,6 +100,10 @@ public class TestClassHierarchyRoundTrip extends TestClassHierarchy{
     super.testSimpleConstructors();
     setup3();
     super.testSimpleConstructors();
+    setup4();
+    super.testSimpleConstructors();
+    setup5();
+    super.testSimpleConstructors();
   }
 
   @Test
@@ -82,6 +115,10 @@ public class TestClassHierarchyRoundTrip extends TestClassHierarchy{
     super.testNamedParameterConstructors();
     setup3();
     super.testNamedParameterConstructors();
+    setup4();
+    super.testNamedParameterConstructors();
+    setup5();
+    super.testNamedParameterConstructors();
   }
 
   @Test
@@ -93,6 +130,10 @@ public class TestClassHierarchyRoundTrip extends TestClassHierarchy{
     super.testArray();
     setup3();
     super.testArray();
+    setup4();
+    super.testArray();
+    setup5();
+    super.testArray();
   }
 
   @Test
@@ -104,6 +145,10 @@ public class TestClassHierarchyRoundTrip extends TestClassHierarchy{
     super.testRepeatConstructorArg();
     setup3();
     super.testRepeatConstructorArg();
+    setup4();
+    super.testRepeatConstructorArg();
+    setup5();
+    super.testRepeatConstructorArg();
   }
 
   @Test
@@ -115,6 +160,10 @@ public class TestClassHierarchyRoundTrip extends TestClassHierarchy{
     super.testRepeatConstructorArgClasses();
     setup3();
     super.testRepeatConstructorArgClasses();
+    setup4();
+    super.testRepeatConstructorArgClasses();
+    setup5();
+    super.testRepeatConstructorArgClasses();
   }
 
   @Test
@@ -126,6 +175,10 @@ public class TestClassHierarchyRoundTrip extends TestClassHierarchy{
     super.testLeafRepeatedConstructorArgClasses();
     setup3();
     super.testLeafRepeatedConstructorArgClasses();
+    setup4();
+    super.testLeafRepeatedConstructorArgClasses();
+    setup5();
+    super.testLeafRepeatedConstructorArgClasses();
   }
 
   @Test
@@ -137,6 +190,10 @@ public class TestClassHierarchyRoundTrip extends TestClassHierarchy{
     super.testNamedRepeatConstructorArgClasses();
     setup3();
     super.testNamedRepeatConstructorArgClasses();
+    setup4();
+    super.testNamedRepeatConstructorArgClasses();
+    setup5();
+    super.testNamedRepeatConstructorArgClasses();
   }
 
   @Test
@@ -148,6 +205,10 @@ public class TestClassHierarchyRoundTrip extends TestClassHierarchy{
     super.testResolveDependencies();
     setup3();
     super.testResolveDependencies();
+    setup4();
+    super.testResolveDependencies();
+    setup5();
+    super.testResolveDependencies();
   }
 
   @Test
@@ -159,6 +220,10 @@ public class TestClassHierarchyRoundTrip extends TestClassHierarchy{
     super.testDocumentedLocalNamedParameter();
     setup3();
     super.testDocumentedLocalNamedParameter();
+    setup4();
+    super.testDocumentedLocalNamedParameter();
+    setup5();
+    super.testDocumentedLocalNamedParameter();
   }
 
   @Test
@@ -170,6 +235,10 @@ public class TestClassHierarchyRoundTrip extends TestClassHierarchy{
     super.testNamedParameterTypeMismatch();
     setup3();
     super.testNamedParameterTypeMismatch();
+    setup4();
+    super.testNamedParameterTypeMismatch();
+    setup5();
+    super.testNamedParameterTypeMismatch();
   }
 
   @Test
@@ -181,6 +250,10 @@ public class TestClassHierarchyRoundTrip extends TestClassHierarchy{
     super.testUnannotatedName();
     setup3();
     super.testUnannotatedName();
+    setup4();
+    super.testUnannotatedName();
+    setup5();
+    super.testUnannotatedName();
   }
 
   @Test
@@ -192,6 +265,10 @@ public class TestClassHierarchyRoundTrip extends TestClassHierarchy{
     super.testAnnotatedNotName();
     setup3();
     super.testAnnotatedNotName();
+    setup4();
+    super.testAnnotatedNotName();
+    setup5();
+    super.testAnnotatedNotName();
   }
 
   @Test
@@ -203,6 +280,10 @@ public class TestClassHierarchyRoundTrip extends TestClassHierarchy{
     super.testGenericTorture1();
     setup3();
     super.testGenericTorture1();
+    setup4();
+    super.testGenericTorture1();
+    setup5();
+    super.testGenericTorture1();
   }
 
   @Test
@@ -214,6 +295,10 @@ public class TestClassHierarchyRoundTrip extends TestClassHierarchy{
     super.testGenericTorture2();
     setup3();
     super.testGenericTorture2();
+    setup4();
+    super.testGenericTorture2();
+    setup5();
+    super.testGenericTorture2();
   }
 
   @Test
@@ -225,6 +310,10 @@ public class TestClassHierarchyRoundTrip extends TestClassHierarchy{
     super.testGenericTorture3();
     setup3();
     super.testGenericTorture3();
+    setup4();
+    super.testGenericTorture3();
+    setup5();
+    super.testGenericTorture3();
   }
 
   @Test
@@ -236,6 +325,10 @@ public class TestClassHierarchyRoundTrip extends TestClassHierarchy{
     super.testGenericTorture4();
     setup3();
     super.testGenericTorture4();
+    setup4();
+    super.testGenericTorture4();
+    setup5();
+    super.testGenericTorture4();
   }
 
   @Test
@@ -247,6 +340,10 @@ public class TestClassHierarchyRoundTrip extends TestClassHierarchy{
     super.testGenericTorture5();
     setup3();
     super.testGenericTorture5();
+    setup4();
+    super.testGenericTorture5();
+    setup5();
+    super.testGenericTorture5();
   }
 
   @Test
@@ -258,6 +355,10 @@ public class TestClassHierarchyRoundTrip extends TestClassHierarchy{
     super.testGenericTorture6();
     setup3();
     super.testGenericTorture6();
+    setup4();
+    super.testGenericTorture6();
+    setup5();
+    super.testGenericTorture6();
   }
 
   @Test
@@ -269,6 +370,10 @@ public class TestClassHierarchyRoundTrip extends TestClassHierarchy{
     super.testGenericTorture7();
     setup3();
     super.testGenericTorture7();
+    setup4();
+    super.testGenericTorture7();
+    setup5();
+    super.testGenericTorture7();
   }
 
   @Test
@@ -280,6 +385,10 @@ public class TestClassHierarchyRoundTrip extends TestClassHierarchy{
     super.testGenericTorture8();
     setup3();
     super.testGenericTorture8();
+    setup4();
+    super.testGenericTorture8();
+    setup5();
+    super.testGenericTorture8();
   }
 
   @Test
@@ -291,6 +400,10 @@ public class TestClassHierarchyRoundTrip extends TestClassHierarchy{
     super.testGenericTorture9();
     setup3();
     super.testGenericTorture9();
+    setup4();
+    super.testGenericTorture9();
+    setup5();
+    super.testGenericTorture9();
   }
 
   @Test
@@ -326,6 +439,10 @@ public class TestClassHierarchyRoundTrip extends TestClassHierarchy{
     super.testInjectNonStaticLocalArgClass();
     setup3();
     super.testInjectNonStaticLocalArgClass();
+    setup4();
+    super.testInjectNonStaticLocalArgClass();
+    setup5();
+    super.testInjectNonStaticLocalArgClass();
   }
 
   @Test
@@ -337,6 +454,10 @@ public class TestClassHierarchyRoundTrip extends TestClassHierarchy{
     super.testOKShortNames();
     setup3();
     super.testOKShortNames();
+    setup4();
+    super.testOKShortNames();
+    setup5();
+    super.testOKShortNames();
   }
 
   @Test
@@ -348,6 +469,10 @@ public class TestClassHierarchyRoundTrip extends TestClassHierarchy{
     super.testRoundTripInnerClassNames();
     setup3();
     super.testRoundTripInnerClassNames();
+    setup4();
+    super.testRoundTripInnerClassNames();
+    setup5();
+    super.testRoundTripInnerClassNames();
   }
 
   @Test
@@ -359,6 +484,10 @@ public class TestClassHierarchyRoundTrip extends TestClassHierarchy{
     super.testUnitIsInjectable();
     setup3();
     super.testUnitIsInjectable();
+    setup4();
+    super.testUnitIsInjectable();
+    setup5();
+    super.testUnitIsInjectable();
   }
 
   @Test
@@ -370,6 +499,10 @@ public class TestClassHierarchyRoundTrip extends TestClassHierarchy{
     super.testBadUnitDecl();
     setup3();
     super.testBadUnitDecl();
+    setup4();
+    super.testBadUnitDecl();
+    setup5();
+    super.testBadUnitDecl();
   }
 
   @Test
@@ -381,6 +514,10 @@ public class TestClassHierarchyRoundTrip extends TestClassHierarchy{
     super.nameCantBindWrongSubclassAsDefault();
     setup3();
     super.nameCantBindWrongSubclassAsDefault();
+    setup4();
+    super.nameCantBindWrongSubclassAsDefault();
+    setup5();
+    super.nameCantBindWrongSubclassAsDefault();
   }
 
   @Test
@@ -392,5 +529,166 @@ public class TestClassHierarchyRoundTrip extends TestClassHierarchy{
     super.ifaceCantBindWrongImplAsDefault();
     setup3();
     super.ifaceCantBindWrongImplAsDefault();
+    setup4();
+    super.ifaceCantBindWrongImplAsDefault();
+    setup5();
+    super.ifaceCantBindWrongImplAsDefault();
+  }
+
+  @Test
+  public void testLazyMaterialization() throws NameResolutionException {
+    TangImpl.reset();
+    final ClassHierarchy java = Tang.Factory.getTang().getDefaultClassHierarchy();
+    java.getNode(ReflectionUtilities.getFullName(TimerImpl.class));
+    final ClassHierarchyProto.Node proto = ProtocolBufferClassHierarchy.serialize(java);
+
+    final ClassHierarchy lazy = new ProtocolBufferClassHierarchy(proto, true);
+    final ClassNode<?> impl = (ClassNode<?>) lazy.getNode(ReflectionUtilities.getFullName(TimerImpl.class));
+    final ClassNode<?> iface = (ClassNode<?>) lazy.getNode(ReflectionUtilities.getFullName(Timer.class));
+    Assert.assertTrue(lazy.isImplementation(iface, impl));
+    Assert.assertSame(impl, lazy.getNode(ReflectionUtilities.getFullName(TimerImpl.class)));
+
+    final ClassHierarchy eager = new ProtocolBufferClassHierarchy(proto);
+    Assert.assertEquals(eager.getFingerprint(), lazy.getFingerprint());
+  }
+
+  @Test(expected = NameResolutionException.class)
+  public void testLazyMissingNode() throws NameResolutionException {
+    TangImpl.reset();
+    final ClassHierarchyProto.Node proto = ProtocolBufferClassHierarchy.serialize(
+        Tang.Factory.getTang().getDefaultClassHierarchy());
+    new ProtocolBufferClassHierarchy(proto, true).getNode("com.example.DoesNotExist");
+  }
+
+  private static ClassHierarchyProto.Node addImpl(final ClassHierarchyProto.Node n,
+                                                  final String iface, final String impl) {
+    final ClassHierarchyProto.Node.Builder b = ClassHierarchyProto.Node.newBuilder(n).clearChildren();
+    if (n.getFullName().equals(iface)) {
+      b.setClassNode(ClassHierarchyProto.ClassNode.newBuilder(n.getClassNode()).addImplFullNames(impl).build());
+    }
+    for (final ClassHierarchyProto.Node child : n.getChildrenList()) {
+      b.addChildren(addImpl(child, iface, impl));
+    }
+    return b.build();
+  }
+
+  // Timer lists an implementation that is not in the protocol buffer, so it
+  // can't be completed, and must never be handed out.
+  @Test
+  public void testLazyCorruptNodeNotPublished() throws NameResolutionException {
+    TangImpl.reset();
+    final ClassHierarchy java = Tang.Factory.getTang().getDefaultClassHierarchy();
+    java.getNode(ReflectionUtilities.getFullName(TimerImpl.class));
+    final String timer = ReflectionUtilities.getFullName(Timer.class);
+    final ClassHierarchyProto.Node proto = addImpl(ProtocolBufferClassHierarchy.serialize(java),
+        timer, "com.example.DoesNotExist");
+
+    final ClassHierarchy lazy = new ProtocolBufferClassHierarchy(proto, true);
+    for (int i = 0; i < 2; i++) {
+      try {
+        lazy.getNode(timer);
+        Assert.fail("Timer should not be returned");
+      } catch (final IllegalStateException e) {
+        // expected, on the first attempt and on later ones.
+      }
+    }
+  }
+
+  interface Enclosing {
+    final class Nested implements Enclosing {
+      @Inject
+      Nested() {
+      }
+    }
+  }
+
+  // Building Nested builds Enclosing first, whose implementations include
+  // Nested itself.
+  @Test
+  public void testLazyNestedImplementationOfEnclosingInterface() throws NameResolutionException {
+    TangImpl.reset();
+    final ClassHierarchy java = Tang.Factory.getTang().getDefaultClassHierarchy();
+    java.getNode(ReflectionUtilities.getFullName(Enclosing.Nested.class));
+    final ClassHierarchy lazy = new ProtocolBufferClassHierarchy(ProtocolBufferClassHierarchy.serialize(java), true);
+    final ClassNode<?> nested = (ClassNode<?>) lazy.getNode(ReflectionUtilities.getFullName(Enclosing.Nested.class));
+    final ClassNode<?> enclosing = (ClassNode<?>) lazy.getNode(ReflectionUtilities.getFullName(Enclosing.class));
+    Assert.assertSame(enclosing, nested.getParent());
+    Assert.assertTrue(lazy.isImplementation(enclosing, nested));
+  }
+
+  private static ClassHierarchy protoHierarchy(final Class<?>... classes) {
+    TangImpl.reset();
+    final JavaClassHierarchy java = Tang.Factory.getTang().getDefaultClassHierarchy();
+    for (final Class<?> c : classes) {
+      java.getNode(c);
+    }
+    return new ProtocolBufferClassHierarchy(ProtocolBufferClassHierarchy.serialize(java));
+  }
+
+  @Test
+  public void testMerge() throws NameResolutionException {
+    final ClassHierarchy timer = protoHierarchy(TimerImpl.class);
+    final ClassHierarchy timerV1 = protoHierarchy(TimerV1.class);
+    final ClassHierarchy merged = timer.merge(timerV1);
+    Assert.assertNotSame(timer, merged);
+    Assert.assertNotSame(timerV1, merged);
+
+    final ClassNode<?> impl = (ClassNode<?>) merged.getNode(ReflectionUtilities.getFullName(TimerImpl.class));
+    final ClassNode<?> iface = (ClassNode<?>) merged.getNode(ReflectionUtilities.getFullName(Timer.class));
+    Assert.assertTrue(merged.isImplementation(iface, impl));
+    merged.getNode(ReflectionUtilities.getFullName(TimerV1.class));
+
+    Assert.assertSame(merged, timerV1.merge(timer));
+    Assert.assertSame(merged, merged.merge(timer));
+    Assert.assertSame(merged, timer.merge(merged));
+  }
+
+  @Test
+  public void testMergeUnionsImplementations() throws NameResolutionException {
+    final ClassHierarchy timer = protoHierarchy(TimerImpl.class);
+    final ClassHierarchy mock = protoHierarchy(TimerMock.class);
+    final ClassHierarchy merged = timer.merge(mock);
+    final ClassNode<?> iface = (ClassNode<?>) merged.getNode(ReflectionUtilities.getFullName(Timer.class));
+    Assert.assertTrue(merged.isImplementation(iface,
+        (ClassNode<?>) merged.getNode(ReflectionUtilities.getFullName(TimerImpl.class))));
+    Assert.assertTrue(merged.isImplementation(iface,
+        (ClassNode<?>) merged.getNode(ReflectionUtilities.getFullName(TimerMock.class))));
+  }
+
+  private static ClassHierarchyProto.Node root(final ClassHierarchyProto.Node child) {
+    return ClassHierarchyProto.Node.newBuilder().setName("").setFullName("[root node]")
+        .setPackageNode(ClassHierarchyProto.PackageNode.newBuilder().build())
+        .addChildren(child).build();
+  }
+
+  @Test(expected = ClassHierarchyException.class)
+  public void testMergeConflict() {
+    final ClassHierarchy pkg = new ProtocolBufferClassHierarchy(root(
+        ClassHierarchyProto.Node.newBuilder().setName("Foo").setFullName("Foo")
+            .setPackageNode(ClassHierarchyProto.PackageNode.newBuilder().build()).build()));
+    final ClassHierarchy cls = new ProtocolBufferClassHierarchy(root(
+        ClassHierarchyProto.Node.newBuilder().setName("Foo").setFullName("Foo")
+            .setClassNode(ClassHierarchyProto.ClassNode.newBuilder().setIsInjectionCandidate(false)
+                .setIsExternalConstructor(false).setIsUnit(false).build()).build()));
+    pkg.merge(cls);
+  }
+
+  private static ClassHierarchy namedParameter(final String documentation) {
+    return new ProtocolBufferClassHierarchy(root(
+        ClassHierarchyProto.Node.newBuilder().setName("Foo").setFullName("Foo")
+            .setNamedParameterNode(ClassHierarchyProto.NamedParameterNode.newBuilder()
+                .setSimpleArgClassName("String").setFullArgClassName("java.lang.String")
+                .setIsSet(false).setIsList(false).setDocumentation(documentation).build())
+            .build()));
+  }
+
+  // The nodes only differ in a field that the protocol buffer carries, so the
+  // fingerprints must differ and merge() must not mistake one for the other.
+  @Test(expected = ClassHierarchyException.class)
+  public void testMergeConflictOnDocumentation() {
+    final ClassHierarchy first = namedParameter("first");
+    final ClassHierarchy second = namedParameter("second");
+    Assert.assertNotEquals(first.getFingerprint(), second.getFingerprint());
+    first.merge(second);
   }
 }
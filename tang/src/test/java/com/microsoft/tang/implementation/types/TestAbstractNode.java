@@ -0,0 +1,215 @@
+/**
+ * Copyright (C) 2014 Microsoft Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.microsoft.tang.implementation.types;
+
+import com.microsoft.tang.JavaClassHierarchy;
+import com.microsoft.tang.Tang;
+import com.microsoft.tang.examples.timer.Timer;
+import com.microsoft.tang.implementation.TangImpl;
+import com.microsoft.tang.types.ClassNode;
+import com.microsoft.tang.types.ConstructorDef;
+import com.microsoft.tang.types.Node;
+import com.microsoft.tang.util.ReflectionUtilities;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class TestAbstractNode {
+
+  @Test
+  public void testJavaFullNames() {
+    TangImpl.reset();
+    final JavaClassHierarchy ch = Tang.Factory.getTang().getDefaultClassHierarchy();
+    for (final Class<?> c : new Class<?>[] { Timer.class, Timer.Seconds.class, String.class }) {
+      Assert.assertEquals(ReflectionUtilities.getFullName(c), ch.getNode(c).getFullName());
+    }
+    final Node seconds = ch.getNode(Timer.Seconds.class);
+    Assert.assertSame(ch.getNode(Timer.class), seconds.getParent());
+    Assert.assertSame(seconds, seconds.getParent().get("Seconds"));
+  }
+
+  @Test
+  public void testFullNames() {
+    final PackageNodeImpl root = new PackageNodeImpl();
+    final PackageNodeImpl a = new PackageNodeImpl(root, "a", "a");
+    final PackageNodeImpl b = new PackageNodeImpl(a, "b", "a.b");
+    final PackageNodeImpl c = new PackageNodeImpl(b, "C", "a.b+C");
+    final PackageNodeImpl d = new PackageNodeImpl(b, "D", "a.b.D, Assembly, Version=1.0");
+    final PackageNodeImpl e = new PackageNodeImpl(c, "E", "a.b+C$E");
+    Assert.assertEquals("[root node]", root.getFullName());
+    Assert.assertEquals("a", a.getFullName());
+    Assert.assertEquals("a.b", b.getFullName());
+    Assert.assertEquals("a.b+C", c.getFullName());
+    Assert.assertEquals("a.b.D, Assembly, Version=1.0", d.getFullName());
+    Assert.assertEquals("a.b+C$E", e.getFullName());
+    Assert.assertSame(a, root.get("a"));
+    Assert.assertSame(e, c.get("a.b+C$E"));
+    Assert.assertTrue(c.compareTo(d) < 0);
+  }
+
+  @SuppressWarnings("unchecked")
+  @Test
+  public void testChildrenAndImplementations() {
+    final ConstructorDef<Object>[] none = new ConstructorDef[0];
+    final PackageNodeImpl root = new PackageNodeImpl();
+    final ClassNodeImpl<Object> iface = new ClassNodeImpl<>(root, "I", "a.I", false, true, false, none, none, null);
+    final ClassNodeImpl<Object> other = new ClassNodeImpl<>(root, "J", "a.J", false, true, false, none, none, null);
+    Assert.assertTrue(iface.getChildren().isEmpty());
+    Assert.assertTrue(iface.getKnownImplementations().isEmpty());
+    for (int i = 20; i > 0; i--) {
+      final ClassNodeImpl<Object> impl = new ClassNodeImpl<>(iface, "C" + i, "a.I$C" + i,
+          false, true, false, none, none, null);
+      iface.putImpl(impl);
+      if (i <= 3) {
+        other.putImpl(impl);
+      }
+    }
+    Assert.assertEquals(20, iface.getChildren().size());
+    Assert.assertEquals(20, iface.getKnownImplementations().size());
+    String last = "";
+    for (final Node child : iface.getChildren()) {
+      Assert.assertTrue(last.compareTo(child.getName()) < 0);
+      last = child.getName();
+    }
+    Assert.assertTrue(((ClassNode<?>) iface.get("C17")).isImplementationOf(iface));
+    Assert.assertTrue(((ClassNode<?>) iface.get("C2")).isImplementationOf(other));
+    Assert.assertFalse(((ClassNode<?>) iface.get("C4")).isImplementationOf(other));
+    Assert.assertFalse(iface.contains("C21"));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testDuplicateChild() {
+    final PackageNodeImpl root = new PackageNodeImpl();
+    final PackageNodeImpl a = new PackageNodeImpl(root, "a", "a");
+    new PackageNodeImpl(a, "b", "a.b");
+    new PackageNodeImpl(a, "b", "a.b");
+  }
+
+  /**
+   * Readers don't take any lock, so they must see consistent children and
+   * implementations while a writer keeps adding them.
+   */
+  @SuppressWarnings("unchecked")
+  @Test
+  public void testConcurrentReads() throws Exception {
+    final ConstructorDef<Object>[] none = new ConstructorDef[0];
+    final PackageNodeImpl root = new PackageNodeImpl();
+    final ClassNodeImpl<Object> iface = new ClassNodeImpl<>(root, "I", "a.I", false, true, false, none, none, null);
+    final int count = 2000;
+    final Throwable[] failure = new Throwable[1];
+    final Thread[] readers = new Thread[4];
+    for (int t = 0; t < readers.length; t++) {
+      readers[t] = new Thread(new Runnable() {
+        @Override
+        public void run() {
+          try {
+            while (iface.getKnownImplementations().size() < count) {
+              String last = "";
+              for (final Node child : iface.getChildren()) {
+                Assert.assertTrue(last.compareTo(child.getName()) < 0);
+                last = child.getName();
+                Assert.assertSame(child, iface.get(child.getName()));
+              }
+              for (final ClassNode<Object> impl : iface.getKnownImplementations()) {
+                Assert.assertTrue(impl.isImplementationOf(iface));
+              }
+            }
+          } catch (final Throwable e) {
+            synchronized (failure) {
+              failure[0] = e;
+            }
+          }
+        }
+      });
+      readers[t].start();
+    }
+    for (int i = 0; i < count; i++) {
+      iface.putImpl(new ClassNodeImpl<>(iface, "C" + i, "a.I$C" + i, false, true, false, none, none, null));
+    }
+    for (final Thread t : readers) {
+      t.join();
+    }
+    synchronized (failure) {
+      if (failure[0] != null) {
+        throw new AssertionError(failure[0]);
+      }
+    }
+    Assert.assertEquals(count, iface.getChildren().size());
+  }
+
+  /**
+   * compareTo(), compareFullName() and fullNameHashCode() work on the parent
+   * chain, and must agree with the full names they don't build.
+   */
+  @Test
+  public void testDerivedFullNameComparison() {
+    final PackageNodeImpl root = new PackageNodeImpl();
+    final PackageNodeImpl a = new PackageNodeImpl(root, "a", "a");
+    final PackageNodeImpl ab = new PackageNodeImpl(a, "b", "a.b");
+    final PackageNodeImpl abc = new PackageNodeImpl(ab, "c", "a.b.c");
+    final PackageNodeImpl abC = new PackageNodeImpl(ab, "C", "a.b+C");
+    final PackageNodeImpl abcd = new PackageNodeImpl(abc, "d", "a.b.c.d");
+    final PackageNodeImpl ab2 = new PackageNodeImpl(a, "b2", "a.b2");
+    final PackageNodeImpl x = new PackageNodeImpl(ab2, "x", "a.b2.x");
+    final PackageNodeImpl stored = new PackageNodeImpl(ab, "D", "a.b.D, Assembly");
+    final Node[] nodes = { a, ab, abc, abC, abcd, ab2, x, stored };
+    for (final Node n : nodes) {
+      final String name = n.getFullName();
+      Assert.assertEquals(name.hashCode(), AbstractNode.fullNameHashCode(n));
+      for (final String s : new String[] { "", "a", "a.b.", "a.b.c.d.e", "a.b3", "b", name }) {
+        Assert.assertEquals(Integer.signum(name.compareTo(s)), Integer.signum(AbstractNode.compareFullName(n, s)));
+      }
+      for (final Node m : nodes) {
+        Assert.assertEquals(Integer.signum(name.compareTo(m.getFullName())), Integer.signum(n.compareTo(m)));
+      }
+    }
+    Assert.assertSame(abcd, abc.get("a.b.c.d"));
+    Assert.assertSame(abC, ab.get("a.b+C"));
+    Assert.assertSame(stored, ab.get("a.b.D, Assembly"));
+    Assert.assertNull(ab.get("a.b.c.d"));
+    Assert.assertNull(ab.get("a.b"));
+  }
+
+  /**
+   * Build a synthetic hierarchy of the given number of classes, a hundred per
+   * package.
+   */
+  @SuppressWarnings("unchecked")
+  private static PackageNodeImpl syntheticHierarchy(final int classes) {
+    final ConstructorDef<Object>[] none = new ConstructorDef[0];
+    final PackageNodeImpl root = new PackageNodeImpl();
+    final PackageNodeImpl com = new PackageNodeImpl(root, "com", "com");
+    final PackageNodeImpl example = new PackageNodeImpl(com, "example", "com.example");
+    PackageNodeImpl pkg = null;
+    for (int i = 0; i < classes; i++) {
+      if (i % 100 == 0) {
+        final String name = "package" + i / 100;
+        pkg = new PackageNodeImpl(example, name, "com.example." + name);
+      }
+      final String name = "SyntheticClass" + i;
+      new ClassNodeImpl<>(pkg, name, pkg.getFullName() + "." + name,
+          false, true, false, none, none, null);
+    }
+    return root;
+  }
+
+  @Test
+  public void testSyntheticHierarchy() {
+    final PackageNodeImpl root = syntheticHierarchy(1000);
+    final Node pkg = root.get("com").get("com.example").get("com.example.package7");
+    Assert.assertEquals("com.example.package7.SyntheticClass742",
+        pkg.get("com.example.package7.SyntheticClass742").getFullName());
+  }
+}
@@ -0,0 +1,103 @@
+/**
+ * Copyright (C) 2014 Microsoft Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.microsoft.tang.util;
+
+import com.microsoft.tang.ClassHierarchy;
+import com.microsoft.tang.JavaConfigurationBuilder;
+import com.microsoft.tang.Tang;
+import com.microsoft.tang.annotations.Name;
+import com.microsoft.tang.annotations.NamedParameter;
+import com.microsoft.tang.annotations.Parameter;
+import com.microsoft.tang.exceptions.InjectionException;
+import com.microsoft.tang.formats.AvroConfigurationSerializer;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.inject.Inject;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+public class TestConfigurationBatchValidator {
+
+  @NamedParameter
+  final static class Count implements Name<Integer> { }
+
+  final static class Counter {
+    @Inject
+    Counter(@Parameter(Count.class) int count) { }
+  }
+
+  private final AvroConfigurationSerializer serializer = new AvroConfigurationSerializer();
+  private ExecutorService executor;
+  private ClassHierarchy classHierarchy;
+
+  @Before
+  public void setUp() {
+    executor = Executors.newFixedThreadPool(4);
+    classHierarchy = Tang.Factory.getTang().getDefaultClassHierarchy();
+  }
+
+  @After
+  public void tearDown() {
+    executor.shutdownNow();
+  }
+
+  private byte[] serialize(final int count) throws Exception {
+    final JavaConfigurationBuilder cb = Tang.Factory.getTang().newConfigurationBuilder();
+    cb.bindNamedParameter(Count.class, "" + count);
+    return serializer.toByteArray(cb.build());
+  }
+
+  @Test
+  public void testValidBatch() throws Exception {
+    final List<byte[]> batch = new ArrayList<>();
+    for (int i = 0; i < 100; i++) {
+      batch.add(serialize(i));
+    }
+    final List<ConfigurationBatchValidator.Result> results =
+        new ConfigurationBatchValidator(serializer, classHierarchy, executor).validate(batch, Counter.class.getName());
+    Assert.assertEquals(batch.size(), results.size());
+    for (int i = 0; i < batch.size(); i++) {
+      final ConfigurationBatchValidator.Result r = results.get(i);
+      Assert.assertTrue(r.toString(), r.isValid());
+      Assert.assertEquals(i, (int) Tang.Factory.getTang().newInjector(r.getConfiguration())
+          .getNamedInstance(Count.class));
+    }
+  }
+
+  @Test
+  public void testErrorsArePerItem() throws Exception {
+    final List<byte[]> batch = new ArrayList<>();
+    batch.add(serialize(1));
+    batch.add(new byte[] { 1, 2, 3 });
+    batch.add(serializer.toByteArray(Tang.Factory.getTang().newConfigurationBuilder().build()));
+    batch.add(serialize(4));
+
+    final List<ConfigurationBatchValidator.Result> results =
+        new ConfigurationBatchValidator(serializer, classHierarchy, executor).validate(batch, Counter.class.getName());
+    Assert.assertTrue(results.get(0).isValid());
+    Assert.assertFalse(results.get(1).isValid());
+    Assert.assertNotNull(results.get(1).getError());
+    Assert.assertNull(results.get(1).getConfiguration());
+    Assert.assertFalse(results.get(2).isValid());
+    Assert.assertTrue(results.get(2).getError() instanceof InjectionException);
+    Assert.assertTrue(results.get(3).isValid());
+  }
+}
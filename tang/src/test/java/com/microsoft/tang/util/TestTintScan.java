@@ -0,0 +1,218 @@
+/**
+ * Copyright (C) 2014 Microsoft Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.microsoft.tang.util;
+
+import com.microsoft.tang.annotations.DefaultImplementation;
+import com.microsoft.tang.annotations.Name;
+import com.microsoft.tang.annotations.NamedParameter;
+import com.microsoft.tang.annotations.Parameter;
+import com.microsoft.tang.annotations.Unit;
+import com.microsoft.tang.formats.ConfigurationModuleBuilder;
+import com.microsoft.tang.implementation.TangImpl;
+import com.microsoft.tang.types.NamedParameterNode;
+import com.microsoft.tang.types.Node;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.reflections.Reflections;
+import org.reflections.scanners.MethodAnnotationsScanner;
+import org.reflections.scanners.MethodParameterScanner;
+import org.reflections.scanners.SubTypesScanner;
+import org.reflections.scanners.TypeAnnotationsScanner;
+
+import javax.inject.Inject;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.URL;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+public class TestTintScan {
+
+  private File dir;
+
+  @Before
+  public void setUp() throws IOException {
+    dir = File.createTempFile("tint", "");
+    Assert.assertTrue(dir.delete());
+    Assert.assertTrue(dir.mkdir());
+  }
+
+  @After
+  public void tearDown() {
+    delete(dir);
+  }
+
+  private static void delete(final File f) {
+    final File[] children = f.listFiles();
+    if (children != null) {
+      for (final File c : children) {
+        delete(c);
+      }
+    }
+    f.delete();
+  }
+
+  private static void writeFile(final File f, final String content) throws IOException {
+    try (final OutputStream out = new FileOutputStream(f)) {
+      out.write(content.getBytes("UTF-8"));
+    }
+  }
+
+  @Test
+  public void testCacheRoundTrip() throws IOException {
+    final TintScan scan = new TintScan();
+    scan.names.add("com.example.A");
+    scan.names.add("com.example.A$B");
+    scan.moduleBuilders.add("com.example.Module");
+    final File f = new File(dir, "entry.tint");
+    TintScan.write(scan, f);
+    final TintScan read = TintScan.read(f);
+    Assert.assertEquals(scan.names, read.names);
+    Assert.assertEquals(scan.moduleBuilders, read.moduleBuilders);
+    Assert.assertEquals(1, dir.list().length);
+  }
+
+  @Test(expected = IOException.class)
+  public void testCacheRejectsUnknownFormat() throws IOException {
+    final File f = new File(dir, "entry.tint");
+    writeFile(f, "something else\nn com.example.A\n");
+    TintScan.read(f);
+  }
+
+  @Test
+  public void testJarDigestTracksContent() throws IOException {
+    final File jar = new File(dir, "a.jar");
+    writeFile(jar, "one");
+    final String d1 = TintScan.digest(jar);
+    Assert.assertEquals(d1, TintScan.digest(jar));
+    writeFile(jar, "two");
+    Assert.assertNotEquals(d1, TintScan.digest(jar));
+  }
+
+  @Test
+  public void testDirectoryDigestTracksFiles() throws IOException {
+    final File classes = new File(dir, "classes");
+    Assert.assertTrue(new File(classes, "pkg").mkdirs());
+    writeFile(new File(classes, "pkg/A.class"), "a");
+    final String d1 = TintScan.digest(classes);
+    Assert.assertEquals(d1, TintScan.digest(classes));
+    writeFile(new File(classes, "pkg/B.class"), "b");
+    Assert.assertNotEquals(d1, TintScan.digest(classes));
+  }
+
+  /**
+   * The scan Tint did before TintScan: one org.reflections pass over the
+   * given jars and every classpath entry holding the default packages.
+   */
+  private static TintScan singleScan(final URL[] jars) {
+    final Object[] args = new Object[jars.length + 6];
+    System.arraycopy(jars, 0, args, 0, jars.length);
+    args[args.length - 1] = new TypeAnnotationsScanner();
+    args[args.length - 2] = new SubTypesScanner();
+    args[args.length - 3] = new MethodAnnotationsScanner();
+    args[args.length - 4] = new MethodParameterScanner();
+    args[args.length - 5] = "com.microsoft";
+    args[args.length - 6] = "org.apache";
+    final Reflections r = new Reflections(args);
+
+    final TintScan result = new TintScan();
+    for (final String s : r.getStore().getConstructorsAnnotatedWith(ReflectionUtilities.getFullName(Inject.class))) {
+      result.names.add(s.replaceAll("\\.<.+$", ""));
+    }
+    for (final String s : r.getStore().get(MethodParameterScanner.class, ReflectionUtilities.getFullName(Parameter.class))) {
+      result.names.add(s.replaceAll("\\.<.+$", ""));
+    }
+    result.names.addAll(r.getStore().get(TypeAnnotationsScanner.class, ReflectionUtilities.getFullName(DefaultImplementation.class)));
+    result.names.addAll(r.getStore().get(TypeAnnotationsScanner.class, ReflectionUtilities.getFullName(NamedParameter.class)));
+    result.names.addAll(r.getStore().get(TypeAnnotationsScanner.class, ReflectionUtilities.getFullName(Unit.class)));
+    result.names.addAll(r.getStore().get(SubTypesScanner.class, ReflectionUtilities.getFullName(Name.class)));
+    result.moduleBuilders.addAll(r.getStore().get(SubTypesScanner.class, ReflectionUtilities.getFullName(ConfigurationModuleBuilder.class)));
+    return result;
+  }
+
+  private static Set<String> fullNames(final Set<? extends Node> nodes) {
+    final Set<String> names = new TreeSet<>();
+    for (final Node n : nodes) {
+      names.add(n.getFullName());
+    }
+    return names;
+  }
+
+  /**
+   * Each Tint is built against a fresh default ClassHierarchy, so that one
+   * Tint cannot load classes on behalf of the next.
+   */
+  private static Tint tint(final URL[] jars, final TintScan scan) {
+    TangImpl.reset();
+    return new Tint(jars, false, scan);
+  }
+
+  private static Tint tint(final URL[] jars, final File cacheDir) {
+    TangImpl.reset();
+    return new Tint(jars, false, cacheDir);
+  }
+
+  private static void assertSameResults(final Tint expected, final Tint actual) {
+    Assert.assertEquals(fullNames(expected.getNames()), fullNames(actual.getNames()));
+    final Map<String, Node> actualNodes = new HashMap<>();
+    for (final Node n : actual.getNamesUsedAndSet()) {
+      actualNodes.put(n.getFullName(), n);
+    }
+    Assert.assertEquals(fullNames(expected.getNamesUsedAndSet()), actualNodes.keySet());
+    for (final Node n : expected.getNamesUsedAndSet()) {
+      final Node a = actualNodes.get(n.getFullName());
+      Assert.assertEquals(n.getFullName(), new HashSet<>(expected.getUsesOf(n)), new HashSet<>(actual.getUsesOf(a)));
+      Assert.assertEquals(n.getFullName(), new HashSet<>(expected.getSettersOf(n)), new HashSet<>(actual.getSettersOf(a)));
+    }
+  }
+
+  @Test
+  public void testCachedScanMatchesSingleScan() throws IOException {
+    final URL[] jars = { new File("target/test-classes").toURI().toURL() };
+    final TintScan single = singleScan(jars);
+    Assert.assertFalse(single.names.isEmpty());
+    Assert.assertFalse(single.moduleBuilders.isEmpty());
+    final TintScan cold = TintScan.scan(jars, dir);
+    Assert.assertEquals(single.names, cold.names);
+    Assert.assertEquals(single.moduleBuilders, cold.moduleBuilders);
+    final TintScan warm = TintScan.scan(jars, dir);
+    Assert.assertEquals(single.names, warm.names);
+    Assert.assertEquals(single.moduleBuilders, warm.moduleBuilders);
+  }
+
+  @Test
+  public void testCachedTintMatchesSingleScan() throws IOException {
+    final URL[] jars = { new File("target/test-classes").toURI().toURL() };
+    final File cacheDir = new File(dir, "cache");
+    try {
+      final Tint expected = tint(jars, singleScan(jars));
+      assertSameResults(expected, tint(jars, cacheDir));
+      final String[] entries = cacheDir.list();
+      Assert.assertTrue(entries.length > 0);
+      assertSameResults(expected, tint(jars, cacheDir));
+      Assert.assertEquals(entries.length, cacheDir.list().length);
+    } finally {
+      TangImpl.reset();
+    }
+  }
+}
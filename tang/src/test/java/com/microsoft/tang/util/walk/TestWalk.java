@@ -0,0 +1,169 @@
+/**
+ * Copyright (C) 2014 Microsoft Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.microsoft.tang.util.walk;
+
+import com.microsoft.tang.types.Traversable;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class TestWalk {
+
+  private static final class Vertex implements Traversable<Vertex> {
+    private final String name;
+    private final List<Vertex> children = new ArrayList<>();
+
+    Vertex(final String name, final Vertex... children) {
+      this.name = name;
+      Collections.addAll(this.children, children);
+    }
+
+    @Override
+    public Collection<Vertex> getChildren() {
+      return children;
+    }
+
+    @Override
+    public String toString() {
+      return name;
+    }
+  }
+
+  private static final class Recorder implements NodeVisitor<Vertex>, EdgeVisitor<Vertex> {
+    private final StringBuilder nodes = new StringBuilder();
+    private final StringBuilder edges = new StringBuilder();
+
+    @Override
+    public boolean visit(final Vertex node) {
+      nodes.append(node);
+      return !node.name.equals("skip");
+    }
+
+    @Override
+    public boolean visit(final Vertex nodeFrom, final Vertex nodeTo) {
+      edges.append(nodeFrom).append(nodeTo).append(' ');
+      return !nodeTo.name.equals("stop");
+    }
+  }
+
+  /**
+   * a -> b -> d, a -> c -> d, d -> e -> d.
+   */
+  private static Vertex diamondWithCycle() {
+    final Vertex d = new Vertex("d");
+    final Vertex e = new Vertex("e", d);
+    d.children.add(e);
+    return new Vertex("a", new Vertex("b", d), new Vertex("c", d));
+  }
+
+  @Test
+  public void testPreorder() {
+    final Recorder r = new Recorder();
+    Assert.assertTrue(Walk.preorder(r, r, diamondWithCycle()));
+    Assert.assertEquals("abdec", r.nodes.toString());
+    Assert.assertEquals("ab bd de ed ac cd ", r.edges.toString());
+  }
+
+  @Test
+  public void testPostorder() {
+    final Recorder r = new Recorder();
+    Assert.assertTrue(Walk.postorder(r, r, diamondWithCycle()));
+    Assert.assertEquals("edbca", r.nodes.toString());
+  }
+
+  @Test
+  public void testBreadthFirst() {
+    final Recorder r = new Recorder();
+    Assert.assertTrue(Walk.breadthFirst(r, r, diamondWithCycle()));
+    Assert.assertEquals("abcde", r.nodes.toString());
+  }
+
+  @Test
+  public void testSkipAndStop() {
+    final Recorder skip = new Recorder();
+    Assert.assertTrue(Walk.preorder(skip, skip,
+        new Vertex("a", new Vertex("skip", new Vertex("x")), new Vertex("b"))));
+    Assert.assertEquals("askipb", skip.nodes.toString());
+
+    final Recorder stop = new Recorder();
+    Assert.assertFalse(Walk.preorder(stop, stop,
+        new Vertex("a", new Vertex("stop"), new Vertex("b"))));
+    Assert.assertEquals("a", stop.nodes.toString());
+  }
+
+  @Test
+  public void testMaxDepth() {
+    final Recorder r = new Recorder();
+    Assert.assertTrue(Walk.preorder(r, r, diamondWithCycle(), 1));
+    Assert.assertEquals("abc", r.nodes.toString());
+    Assert.assertEquals("ab ac ", r.edges.toString());
+
+    final Recorder none = new Recorder();
+    Assert.assertTrue(Walk.preorder(none, none, diamondWithCycle(), 0));
+    Assert.assertEquals("a", none.nodes.toString());
+  }
+
+  @Test
+  public void testDeepGraph() {
+    Vertex v = new Vertex("leaf");
+    for (int i = 0; i < 100000; i++) {
+      v = new Vertex("v", v);
+    }
+    final AtomicInteger count = new AtomicInteger();
+    final NodeVisitor<Vertex> counter = new NodeVisitor<Vertex>() {
+      @Override
+      public boolean visit(final Vertex node) {
+        count.incrementAndGet();
+        return true;
+      }
+    };
+    Assert.assertTrue(Walk.preorder(counter, null, v));
+    Assert.assertTrue(Walk.postorder(counter, null, v));
+    Assert.assertTrue(Walk.breadthFirst(counter, null, v));
+    Assert.assertTrue(Walk.parallel(counter, null, v, new ForkJoinPool(4)));
+    Assert.assertEquals(4 * 100001, count.get());
+  }
+
+  @Test
+  public void testParallel() {
+    final Vertex[] leaves = new Vertex[1000];
+    for (int i = 0; i < leaves.length; i++) {
+      leaves[i] = new Vertex("leaf" + i, diamondWithCycle());
+    }
+    final Vertex root = new Vertex("root", leaves);
+    final ConcurrentHashMap<Vertex, AtomicInteger> visits = new ConcurrentHashMap<>();
+    final NodeVisitor<Vertex> counter = new NodeVisitor<Vertex>() {
+      @Override
+      public boolean visit(final Vertex node) {
+        visits.putIfAbsent(node, new AtomicInteger());
+        visits.get(node).incrementAndGet();
+        return true;
+      }
+    };
+    Assert.assertTrue(Walk.parallel(counter, null, root, new ForkJoinPool(4)));
+    Assert.assertEquals(1 + 1000 * 6, visits.size());
+    for (final AtomicInteger n : visits.values()) {
+      Assert.assertEquals(1, n.get());
+    }
+  }
+}
@@ -0,0 +1,181 @@
+/**
+ * Copyright (C) 2014 Microsoft Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.microsoft.tang.util.walk.graphviz;
+
+import com.microsoft.tang.Configuration;
+import com.microsoft.tang.Injector;
+import com.microsoft.tang.JavaConfigurationBuilder;
+import com.microsoft.tang.Tang;
+import com.microsoft.tang.annotations.Name;
+import com.microsoft.tang.annotations.NamedParameter;
+import com.microsoft.tang.annotations.Parameter;
+import com.microsoft.tang.examples.timer.Timer;
+import com.microsoft.tang.examples.timer.TimerImpl;
+import com.microsoft.tang.implementation.InjectionPlan;
+import com.microsoft.tang.implementation.TangImpl;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.inject.Inject;
+import java.io.IOException;
+import java.io.StringWriter;
+
+public class TestGraphviz {
+
+  private Configuration config;
+  private InjectionPlan<?> plan;
+
+  @Before
+  public void setUp() throws Exception {
+    final JavaConfigurationBuilder cb = Tang.Factory.getTang().newConfigurationBuilder();
+    cb.bindImplementation(Timer.class, TimerImpl.class);
+    cb.bindNamedParameter(Timer.Seconds.class, "2");
+    config = cb.build();
+    final Injector injector = Tang.Factory.getTang().newInjector(config);
+    plan = injector.getInjectionPlan(Timer.class);
+  }
+
+  private static final String PLAN = "class com.microsoft.tang.implementation.";
+
+  @Test
+  public void testConfig() throws Exception {
+    TangImpl.reset();
+    final JavaConfigurationBuilder cb = Tang.Factory.getTang().newConfigurationBuilder();
+    cb.bindImplementation(Shape.class, Square.class);
+    final Configuration shapes = cb.build();
+    final String expected = "digraph ConfigMain {\n"
+        + "  rankdir=LR;\n"
+        + "  Shape [label=\"Shape\", shape=box];\n"
+        + "  Shape -> Square [style=solid, dir=back, arrowtail=normal];\n"
+        + "  Square [label=\"Square\", shape=box];\n"
+        + "  Object [label=\"Object\", shape=box];\n"
+        + "  Object -> Square [style=\"dashed\", dir=back, arrowtail=empty];\n"
+        + "}\n";
+    Assert.assertEquals(expected, GraphvizConfigVisitor.getGraphvizString(shapes, true, false));
+    final StringWriter out = new StringWriter();
+    GraphvizConfigVisitor.writeGraphviz(shapes, true, false, out);
+    Assert.assertEquals(expected, out.toString());
+  }
+
+  @Test
+  public void testPlan() throws IOException {
+    final String expected = "digraph InjectionPlanMain {\n"
+        + "subgraph cluster_main {\n"
+        + "  style=invis;\n"
+        + "  \"" + PLAN + "Subplan_Timer\" [label=\"Timer\", shape=oval, style=dashed];\n"
+        + "  \"" + PLAN + "Subplan_Timer\" -> \"" + PLAN + "Constructor_TimerImpl\" [style=solid];\n"
+        + "  \"" + PLAN + "Constructor_TimerImpl\" [label=\"TimerImpl\", shape=box];\n"
+        + "  \"" + PLAN + "Constructor_TimerImpl\" -> \"" + PLAN + "java.JavaInstance_Seconds\" [style=solid];\n"
+        + "  \"" + PLAN + "java.JavaInstance_Seconds\" [label=\"Seconds = 2\", shape=box, style=bold];\n"
+        + "}}\n";
+    Assert.assertEquals(expected, GraphvizInjectionPlanVisitor.getGraphvizString(plan, false));
+    final StringWriter out = new StringWriter();
+    GraphvizInjectionPlanVisitor.writeGraphviz(plan, false, out);
+    Assert.assertEquals(expected, out.toString());
+  }
+
+  // Both constructors of TwoWays have the same Graphviz id, and both must be
+  // plotted along with their arguments.
+  @Test
+  public void testPlanWithTwoConstructors() throws Exception {
+    final JavaConfigurationBuilder cb = Tang.Factory.getTang().newConfigurationBuilder();
+    cb.bindNamedParameter(TwoWays.Count.class, "3");
+    cb.bindNamedParameter(TwoWays.Label.class, "three");
+    final InjectionPlan<?> twoWays =
+        Tang.Factory.getTang().newInjector(cb.build()).getInjectionPlan(TwoWays.class);
+    final String expected = "digraph InjectionPlanMain {\n"
+        + "subgraph cluster_main {\n"
+        + "  style=invis;\n"
+        + "  \"" + PLAN + "Subplan_TwoWays\" [label=\"TwoWays\", shape=oval, style=dashed];\n"
+        + "  \"" + PLAN + "Subplan_TwoWays\" -> \"" + PLAN + "Constructor_TwoWays\" [style=solid];\n"
+        + "  \"" + PLAN + "Constructor_TwoWays\" [label=\"TwoWays\", shape=box];\n"
+        + "  \"" + PLAN + "Constructor_TwoWays\" -> \"" + PLAN + "java.JavaInstance_Count\" [style=solid];\n"
+        + "  \"" + PLAN + "java.JavaInstance_Count\" [label=\"Count = 3\", shape=box, style=bold];\n"
+        + "  \"" + PLAN + "Subplan_TwoWays\" -> \"" + PLAN + "Constructor_TwoWays\" [style=solid];\n"
+        + "  \"" + PLAN + "Constructor_TwoWays\" [label=\"TwoWays\", shape=box];\n"
+        + "  \"" + PLAN + "Constructor_TwoWays\" -> \"" + PLAN + "java.JavaInstance_Label\" [style=solid];\n"
+        + "  \"" + PLAN + "java.JavaInstance_Label\" [label=\"Label = three\", shape=box, style=bold];\n"
+        + "}}\n";
+    Assert.assertEquals(expected, GraphvizInjectionPlanVisitor.getGraphvizString(twoWays, false));
+    final StringWriter out = new StringWriter();
+    GraphvizInjectionPlanVisitor.writeGraphviz(twoWays, false, out);
+    Assert.assertEquals(expected, out.toString());
+  }
+
+  @Test
+  public void testConfigNodeBudget() throws IOException {
+    final StringBuilder out = new StringBuilder();
+    GraphvizConfigVisitor.writeGraphviz(config, true, false, Integer.MAX_VALUE, 2, out);
+    Assert.assertTrue(out.toString().contains("Graph truncated after 2 nodes"));
+    Assert.assertTrue(out.toString().endsWith("}\n"));
+  }
+
+  @Test
+  public void testPlanDepth() throws IOException {
+    final StringBuilder out = new StringBuilder();
+    GraphvizInjectionPlanVisitor.writeGraphviz(plan, false, 0, Integer.MAX_VALUE, out);
+    Assert.assertFalse(out.toString().contains("->"));
+    Assert.assertTrue(out.toString().contains("[label="));
+  }
+
+  @Test(expected = IOException.class)
+  public void testWriteError() throws IOException {
+    GraphvizConfigVisitor.writeGraphviz(config, true, true, new Appendable() {
+      @Override
+      public Appendable append(final CharSequence csq) throws IOException {
+        throw new IOException("Disk full");
+      }
+
+      @Override
+      public Appendable append(final CharSequence csq, final int start, final int end) throws IOException {
+        throw new IOException("Disk full");
+      }
+
+      @Override
+      public Appendable append(final char c) throws IOException {
+        throw new IOException("Disk full");
+      }
+    });
+  }
+}
+
+interface Shape {
+}
+
+final class Square implements Shape {
+  @Inject
+  Square() {
+  }
+}
+
+final class TwoWays {
+  @NamedParameter
+  static final class Count implements Name<Integer> {
+  }
+
+  @NamedParameter
+  static final class Label implements Name<String> {
+  }
+
+  @Inject
+  TwoWays(@Parameter(Count.class) final int count) {
+  }
+
+  @Inject
+  TwoWays(@Parameter(Label.class) final String label) {
+  }
+}